@@ -0,0 +1,215 @@
+package org.apache.rocketmq.gateway.benchmark;
+
+import io.netty.channel.ChannelHandlerContext;
+import org.apache.rocketmq.common.constant.PermName;
+import org.apache.rocketmq.common.message.Message;
+import org.apache.rocketmq.common.protocol.RequestCode;
+import org.apache.rocketmq.common.protocol.ResponseCode;
+import org.apache.rocketmq.common.protocol.header.SendMessageResponseHeader;
+import org.apache.rocketmq.common.protocol.route.BrokerData;
+import org.apache.rocketmq.common.protocol.route.QueueData;
+import org.apache.rocketmq.common.protocol.route.TopicRouteData;
+import org.apache.rocketmq.gateway.common.GatewayConfig;
+import org.apache.rocketmq.gateway.processor.Subscription;
+import org.apache.rocketmq.gateway.processor.producer.ProducerManager;
+import org.apache.rocketmq.gateway.processor.producer.ProducerManager.ProducerWrapper;
+import org.apache.rocketmq.remoting.netty.NettyRemotingServer;
+import org.apache.rocketmq.remoting.netty.NettyRequestProcessor;
+import org.apache.rocketmq.remoting.netty.NettyServerConfig;
+import org.apache.rocketmq.remoting.netty.TlsSystemConfig;
+import org.apache.rocketmq.remoting.protocol.RemotingCommand;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 冷启动压测：本地启动一个同时充当name server和broker的桩服务，
+ * 加载订阅后对每个app+topic发送第一条消息，对比不预热和预热时首条消息的延迟。
+ * <p>
+ * 参数: [应用数, 默认20] [每个应用的主题数, 默认5] [路由查询延迟(毫秒), 默认0]
+ */
+public final class ColdStartBenchmark {
+
+    private static final String BROKER_NAME = "benchmark-broker";
+
+    private static final byte[] BODY = "hello".getBytes(StandardCharsets.UTF_8);
+
+    public static void main(String[] args) throws Exception {
+        int apps = args.length > 0 ? Integer.parseInt(args[0]) : 20;
+        int topics = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        long routeDelayMs = args.length > 2 ? Long.parseLong(args[2]) : 0;
+
+        // 桩服务不需要TLS
+        System.setProperty(TlsSystemConfig.TLS_SERVER_MODE, "disabled");
+
+        StubServer stub = new StubServer(routeDelayMs);
+        stub.start();
+        try {
+            Result cold = run("cold", stub.address(), apps, topics, 0);
+            Result warm = run("prewarm", stub.address(), apps, topics, 30000);
+
+            System.out.println(String.format("%-10s %14s %10s %10s %10s %10s",
+                    "mode", "subscribe(ms)", "avg(ms)", "p50(ms)", "p99(ms)", "p100(ms)"));
+            System.out.println(cold);
+            System.out.println(warm);
+        } finally {
+            stub.shutdown();
+        }
+    }
+
+    private static Result run(String mode, String nameServer, int apps, int topics, int prewarmTimeoutMs)
+            throws Exception {
+        GatewayConfig config = new GatewayConfig();
+        config.setNameServerAddress(nameServer);
+        config.setProducerPrewarmTimeoutMs(prewarmTimeoutMs);
+
+        List<Subscription> subscriptions = new ArrayList<>();
+        for (int i = 0; i < apps; i++) {
+            for (int j = 0; j < topics; j++) {
+                Subscription subscription = new Subscription();
+                subscription.setApp(mode + "_app_" + i);
+                subscription.setTopic(mode + "_topic_" + i + "_" + j);
+                subscriptions.add(subscription);
+            }
+        }
+
+        ProducerManager producerManager = new ProducerManager();
+        producerManager.setGatewayConfig(config);
+        producerManager.start();
+        try {
+            long start = System.nanoTime();
+            producerManager.onSubscription(subscriptions);
+            long subscribeMs = (System.nanoTime() - start) / 1000000;
+
+            // 每个app+topic的首条消息
+            long[] latencies = new long[subscriptions.size()];
+            for (int i = 0; i < subscriptions.size(); i++) {
+                Subscription subscription = subscriptions.get(i);
+                long sendStart = System.nanoTime();
+                ProducerWrapper wrapper = producerManager.acquireProducer(subscription.getApp());
+                try {
+                    wrapper.getProducer(null).send(new Message(subscription.getTopic(), BODY));
+                } finally {
+                    wrapper.release();
+                }
+                latencies[i] = System.nanoTime() - sendStart;
+            }
+            Arrays.sort(latencies);
+            return new Result(mode, subscribeMs, latencies);
+        } finally {
+            producerManager.stop();
+        }
+    }
+
+    /**
+     * 桩服务：任意主题的路由都指向自身，发送消息直接返回成功，其他请求返回成功
+     */
+    private static final class StubServer {
+
+        private final long routeDelayMs;
+        private final AtomicLong offset = new AtomicLong();
+        private final ExecutorService executor = Executors.newFixedThreadPool(8);
+        private NettyRemotingServer server;
+
+        StubServer(long routeDelayMs) {
+            this.routeDelayMs = routeDelayMs;
+        }
+
+        void start() {
+            NettyServerConfig config = new NettyServerConfig();
+            config.setListenPort(0);
+            server = new NettyRemotingServer(config);
+            server.registerDefaultProcessor(new NettyRequestProcessor() {
+                @Override
+                public RemotingCommand processRequest(ChannelHandlerContext ctx, RemotingCommand request) throws Exception {
+                    switch (request.getCode()) {
+                        case RequestCode.GET_ROUTEINTO_BY_TOPIC:
+                            if (routeDelayMs > 0) {
+                                Thread.sleep(routeDelayMs);
+                            }
+                            RemotingCommand route = RemotingCommand.createResponseCommand(ResponseCode.SUCCESS, null);
+                            route.setBody(routeData().encode());
+                            return route;
+                        case RequestCode.SEND_MESSAGE:
+                        case RequestCode.SEND_MESSAGE_V2:
+                            RemotingCommand response = RemotingCommand.createResponseCommand(SendMessageResponseHeader.class);
+                            SendMessageResponseHeader header = (SendMessageResponseHeader) response.readCustomHeader();
+                            header.setMsgId(Long.toHexString(offset.get()));
+                            header.setQueueId(0);
+                            header.setQueueOffset(offset.getAndIncrement());
+                            response.setCode(ResponseCode.SUCCESS);
+                            return response;
+                        default:
+                            return RemotingCommand.createResponseCommand(ResponseCode.SUCCESS, null);
+                    }
+                }
+
+                @Override
+                public boolean rejectRequest() {
+                    return false;
+                }
+            }, executor);
+            server.start();
+        }
+
+        String address() {
+            return "127.0.0.1:" + server.localListenPort();
+        }
+
+        private TopicRouteData routeData() {
+            QueueData queueData = new QueueData();
+            queueData.setBrokerName(BROKER_NAME);
+            queueData.setReadQueueNums(4);
+            queueData.setWriteQueueNums(4);
+            queueData.setPerm(PermName.PERM_READ | PermName.PERM_WRITE);
+
+            HashMap<Long, String> brokerAddrs = new HashMap<>();
+            brokerAddrs.put(0L, address());
+
+            TopicRouteData routeData = new TopicRouteData();
+            routeData.setQueueDatas(Collections.singletonList(queueData));
+            routeData.setBrokerDatas(Collections.singletonList(new BrokerData("benchmark", BROKER_NAME, brokerAddrs)));
+            routeData.setFilterServerTable(new HashMap<String, List<String>>());
+            return routeData;
+        }
+
+        void shutdown() {
+            server.shutdown();
+            executor.shutdownNow();
+        }
+    }
+
+    private static final class Result {
+        private final String mode;
+        private final long subscribeMs;
+        private final long[] latencies;
+
+        Result(String mode, long subscribeMs, long[] latencies) {
+            this.mode = mode;
+            this.subscribeMs = subscribeMs;
+            this.latencies = latencies;
+        }
+
+        private double percentile(double p) {
+            int index = (int) Math.ceil(p * latencies.length) - 1;
+            return latencies[Math.max(0, Math.min(index, latencies.length - 1))] / 1000000.0;
+        }
+
+        @Override
+        public String toString() {
+            long total = 0;
+            for (long latency : latencies) {
+                total += latency;
+            }
+            return String.format("%-10s %14d %10.2f %10.2f %10.2f %10.2f", mode, subscribeMs,
+                    total / 1000000.0 / latencies.length, percentile(0.50), percentile(0.99), percentile(1.0));
+        }
+    }
+}
@@ -0,0 +1,213 @@
+package org.apache.rocketmq.gateway.benchmark;
+
+import com.alibaba.rocketmq.gateway.transport.RequestProcessor;
+import com.alibaba.rocketmq.gateway.transport.netty.NettyGatewayServer;
+import io.netty.channel.ChannelHandlerContext;
+import org.apache.rocketmq.gateway.common.GatewayConfig;
+import org.apache.rocketmq.gateway.common.protocol.MessageProduceRequest;
+import org.apache.rocketmq.gateway.common.protocol.MessageProduceResponse;
+import org.apache.rocketmq.gateway.common.protocol.MessageProduceResponse.ResponseStatus;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 连接抖动压测：每个请求新建连接、发送一条消息、读取应答后关闭连接，
+ * 分别以NIO和epoll启动网关，对比每秒连接数和p99延迟。
+ * <p>
+ * 参数: [持续时间(秒), 默认10] [客户端线程数, 默认64] [epoll监听数, 默认CPU核数]
+ */
+public final class ConnectionChurnBenchmark {
+
+    private static final byte[] BODY = "{\"key\":\"k\",\"body\":\"hello\"}".getBytes(StandardCharsets.UTF_8);
+
+    public static void main(String[] args) throws Exception {
+        int seconds = args.length > 0 ? Integer.parseInt(args[0]) : 10;
+        int clients = args.length > 1 ? Integer.parseInt(args[1]) : 64;
+        int acceptors = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+
+        Result nio = run(false, 1, 18081, seconds, clients);
+        Result epoll = run(true, acceptors, 18082, seconds, clients);
+
+        System.out.println(String.format("%-24s %12s %10s %10s %8s", "transport", "conn/s", "p50(us)", "p99(us)", "errors"));
+        System.out.println(nio);
+        System.out.println(epoll);
+    }
+
+    private static Result run(boolean epoll, int acceptors, int port, int seconds, int clients) throws Exception {
+        GatewayConfig config = new GatewayConfig();
+        config.setListenPort(port);
+        config.setEpollEnabled(epoll);
+        config.setAcceptorThreads(acceptors);
+        config.setSelectorThreads(Runtime.getRuntime().availableProcessors());
+
+        NettyGatewayServer server = new NettyGatewayServer(config);
+        server.setProcessor(new RequestProcessor() {
+            @Override
+            public MessageProduceResponse process(ChannelHandlerContext ctx, MessageProduceRequest request) {
+                return new MessageProduceResponse(request, ResponseStatus.OK, request.getInternalReqId());
+            }
+        });
+        server.start();
+
+        try {
+            // 预热
+            churn(port, 2, clients, null);
+
+            final long[][] latencies = new long[clients][];
+            AtomicLong errors = churn(port, seconds, clients, latencies);
+
+            int total = 0;
+            for (long[] l : latencies) {
+                total += l.length;
+            }
+            long[] all = new long[total];
+            int pos = 0;
+            for (long[] l : latencies) {
+                System.arraycopy(l, 0, all, pos, l.length);
+                pos += l.length;
+            }
+            Arrays.sort(all);
+
+            String name = (epoll ? "epoll x" + acceptors + " acceptor" : "nio x1 acceptor");
+            return new Result(name, (double) total / seconds, percentile(all, 0.50), percentile(all, 0.99), errors.get());
+        } finally {
+            server.stop();
+        }
+    }
+
+    private static AtomicLong churn(final int port, final int seconds, int clients, final long[][] latencies)
+            throws InterruptedException {
+        final AtomicLong errors = new AtomicLong();
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+        final CountDownLatch latch = new CountDownLatch(clients);
+        for (int i = 0; i < clients; i++) {
+            final int index = i;
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    long[] samples = new long[1024];
+                    int count = 0;
+                    try {
+                        while (System.nanoTime() < deadline) {
+                            long start = System.nanoTime();
+                            try {
+                                request(port);
+                            } catch (IOException e) {
+                                errors.incrementAndGet();
+                                continue;
+                            }
+                            if (count == samples.length) {
+                                samples = Arrays.copyOf(samples, count * 2);
+                            }
+                            samples[count++] = System.nanoTime() - start;
+                        }
+                    } finally {
+                        if (latencies != null) {
+                            latencies[index] = Arrays.copyOf(samples, count);
+                        }
+                        latch.countDown();
+                    }
+                }
+            }, "churn-client-" + i);
+            thread.start();
+        }
+        latch.await();
+        return errors;
+    }
+
+    private static void request(int port) throws IOException {
+        Socket socket = new Socket();
+        try {
+            socket.setSoLinger(true, 0);
+            socket.connect(new InetSocketAddress("127.0.0.1", port), 3000);
+            socket.setSoTimeout(3000);
+
+            OutputStream out = socket.getOutputStream();
+            String head = "POST /gateway HTTP/1.1\r\n"
+                    + "Host: 127.0.0.1\r\n"
+                    + "App: benchmark\r\n"
+                    + "Topic: benchmark\r\n"
+                    + "Request-ID: 1\r\n"
+                    + "Content-Type: application/json\r\n"
+                    + "Content-Length: " + BODY.length + "\r\n\r\n";
+            out.write(head.getBytes(StandardCharsets.US_ASCII));
+            out.write(BODY);
+            out.flush();
+
+            readResponse(socket.getInputStream());
+        } finally {
+            socket.close();
+        }
+    }
+
+    private static void readResponse(InputStream in) throws IOException {
+        byte[] buffer = new byte[1024];
+        int length = 0;
+        int headerEnd = -1;
+        int contentLength = 0;
+        while (true) {
+            int n = in.read(buffer, length, buffer.length - length);
+            if (n < 0) {
+                throw new IOException("connection closed before response completed");
+            }
+            length += n;
+            if (headerEnd < 0) {
+                String text = new String(buffer, 0, length, StandardCharsets.US_ASCII);
+                int index = text.indexOf("\r\n\r\n");
+                if (index < 0) {
+                    continue;
+                }
+                headerEnd = index + 4;
+                int clIndex = text.toLowerCase().indexOf("content-length:");
+                if (clIndex >= 0) {
+                    int lineEnd = text.indexOf("\r\n", clIndex);
+                    contentLength = Integer.parseInt(text.substring(clIndex + "content-length:".length(), lineEnd).trim());
+                }
+            }
+            if (length - headerEnd >= contentLength) {
+                return;
+            }
+            if (length == buffer.length) {
+                buffer = Arrays.copyOf(buffer, buffer.length * 2);
+            }
+        }
+    }
+
+    private static long percentile(long[] sorted, double p) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int index = (int) Math.ceil(p * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(index, sorted.length - 1))] / 1000;
+    }
+
+    private static final class Result {
+        private final String name;
+        private final double connectionsPerSecond;
+        private final long p50;
+        private final long p99;
+        private final long errors;
+
+        Result(String name, double connectionsPerSecond, long p50, long p99, long errors) {
+            this.name = name;
+            this.connectionsPerSecond = connectionsPerSecond;
+            this.p50 = p50;
+            this.p99 = p99;
+            this.errors = errors;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%-24s %12.0f %10d %10d %8d", name, connectionsPerSecond, p50, p99, errors);
+        }
+    }
+}
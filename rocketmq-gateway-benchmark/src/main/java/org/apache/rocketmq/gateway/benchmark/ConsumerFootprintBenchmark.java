@@ -0,0 +1,416 @@
+package org.apache.rocketmq.gateway.benchmark;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import io.netty.channel.ChannelHandlerContext;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.rocketmq.common.MixAll;
+import org.apache.rocketmq.common.constant.PermName;
+import org.apache.rocketmq.common.message.MessageDecoder;
+import org.apache.rocketmq.common.message.MessageExt;
+import org.apache.rocketmq.common.protocol.RequestCode;
+import org.apache.rocketmq.common.protocol.ResponseCode;
+import org.apache.rocketmq.common.protocol.header.GetConsumerListByGroupResponseBody;
+import org.apache.rocketmq.common.protocol.header.PullMessageRequestHeader;
+import org.apache.rocketmq.common.protocol.header.PullMessageResponseHeader;
+import org.apache.rocketmq.common.protocol.header.QueryConsumerOffsetResponseHeader;
+import org.apache.rocketmq.common.protocol.heartbeat.HeartbeatData;
+import org.apache.rocketmq.common.protocol.route.BrokerData;
+import org.apache.rocketmq.common.protocol.route.QueueData;
+import org.apache.rocketmq.common.protocol.route.TopicRouteData;
+import org.apache.rocketmq.gateway.common.GatewayConfig;
+import org.apache.rocketmq.gateway.common.utils.HttpClients;
+import org.apache.rocketmq.gateway.common.utils.NamedThreadFactory;
+import org.apache.rocketmq.gateway.processor.Subscription;
+import org.apache.rocketmq.gateway.processor.consumer.ConsumerManager;
+import org.apache.rocketmq.remoting.netty.NettyRemotingServer;
+import org.apache.rocketmq.remoting.netty.NettyRequestProcessor;
+import org.apache.rocketmq.remoting.netty.NettyServerConfig;
+import org.apache.rocketmq.remoting.netty.TlsSystemConfig;
+import org.apache.rocketmq.remoting.protocol.RemotingCommand;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 消费线程占用压测：本地启动一个同时充当name server和broker的桩服务，持续返回消息，
+ * 回调服务延迟固定时间后应答成功；分别以默认模式和共享回调模式启动所有订阅，
+ * 对比网关侧的线程数、每个订阅的线程数和堆内存，以及每秒回调数。
+ * <p>
+ * 线程数不含桩服务和回调服务的线程，堆内存为GC后相对启动订阅前的增量，包含客户端缓存的待消费消息。
+ * <p>
+ * 参数: [应用数, 默认200] [每个应用的主题数, 默认1] [回调延迟(毫秒), 默认20] [持续时间(秒), 默认10]
+ */
+public final class ConsumerFootprintBenchmark {
+
+    private static final String BROKER_NAME = "benchmark-broker";
+
+    // 桩服务和回调服务的线程,不计入网关的线程数
+    private static final String[] EXCLUDED_THREADS = {"NettyBoss", "NettyServer", "stub-", "callback-", "HTTP-Dispatcher"};
+
+    private static final byte[] BODY = "{\"test\":\"hello\"}".getBytes(StandardCharsets.UTF_8);
+
+    public static void main(String[] args) throws Exception {
+        int apps = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+        int topics = args.length > 1 ? Integer.parseInt(args[1]) : 1;
+        long latencyMs = args.length > 2 ? Long.parseLong(args[2]) : 20;
+        int seconds = args.length > 3 ? Integer.parseInt(args[3]) : 10;
+
+        // 桩服务不需要TLS
+        System.setProperty(TlsSystemConfig.TLS_SERVER_MODE, "disabled");
+
+        StubServer stub = new StubServer();
+        stub.start();
+        CallbackServer callback = new CallbackServer(latencyMs);
+        callback.start();
+        HttpClients httpClients = new HttpClients();
+        httpClients.setMaxTotal(4096);
+        httpClients.setDefaultMaxPerRoute(4096);
+        CloseableHttpAsyncClient httpClient = httpClients.createAsync();
+        try {
+            Result dedicated = run("default", false, stub, callback, httpClient, apps, topics, seconds);
+            Result shared = run("shared", true, stub, callback, httpClient, apps, topics, seconds);
+
+            System.out.println(String.format("%-10s %14s %10s %12s %10s %14s %12s",
+                    "mode", "subscriptions", "threads", "threads/sub", "heap(MB)", "heap/sub(KB)", "callbacks/s"));
+            System.out.println(dedicated);
+            System.out.println(shared);
+        } finally {
+            httpClients.close();
+            callback.shutdown();
+            stub.shutdown();
+        }
+    }
+
+    private static Result run(String mode, boolean sharedDelivery, StubServer stub, CallbackServer callback,
+                              CloseableHttpAsyncClient httpClient, int apps, int topics, int seconds) throws Exception {
+        GatewayConfig config = new GatewayConfig();
+        config.setNameServerAddress(stub.address());
+        config.setConsumeSharedDeliveryEnabled(sharedDelivery);
+
+        List<Subscription> subscriptions = new ArrayList<>();
+        for (int i = 0; i < apps; i++) {
+            for (int j = 0; j < topics; j++) {
+                Subscription subscription = new Subscription();
+                subscription.setApp(mode + "_app_" + i);
+                subscription.setTopic(mode + "_topic_" + i + "_" + j);
+                subscription.setTag("*");
+                subscription.setCallback(callback.url());
+                subscriptions.add(subscription);
+            }
+        }
+
+        int baseThreads = gatewayThreads();
+        long baseHeap = usedHeap();
+
+        ConsumerManager consumerManager = new ConsumerManager(config, httpClient);
+        consumerManager.start();
+        try {
+            consumerManager.onSubscription(subscriptions);
+
+            // 预热,等待再均衡完成、线程池填满
+            Thread.sleep(5000);
+            long startCallbacks = callback.callbacks.get();
+            long start = System.nanoTime();
+            int threads = 0;
+            for (int i = 0; i < seconds * 10; i++) {
+                Thread.sleep(100);
+                threads = Math.max(threads, gatewayThreads());
+            }
+            long callbacks = callback.callbacks.get() - startCallbacks;
+            double elapsed = (System.nanoTime() - start) / 1e9;
+            long heap = usedHeap() - baseHeap;
+
+            return new Result(mode, subscriptions.size(), threads - baseThreads, heap, callbacks / elapsed);
+        } finally {
+            consumerManager.stop();
+            // 等待消费者的线程退出,避免计入下一轮
+            long deadline = System.currentTimeMillis() + 30000;
+            while (gatewayThreads() > baseThreads && System.currentTimeMillis() < deadline) {
+                Thread.sleep(100);
+            }
+        }
+    }
+
+    private static int gatewayThreads() {
+        int count = 0;
+        Set<Thread> threads = Thread.getAllStackTraces().keySet();
+        for (Thread thread : threads) {
+            if (!thread.isAlive() || excluded(thread.getName())) {
+                continue;
+            }
+            count++;
+        }
+        return count;
+    }
+
+    private static boolean excluded(String name) {
+        for (String prefix : EXCLUDED_THREADS) {
+            if (name.startsWith(prefix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static long usedHeap() throws InterruptedException {
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(100);
+        }
+        return memory.getHeapMemoryUsage().getUsed();
+    }
+
+    /**
+     * 回调服务：延迟固定时间后应答成功，延迟期间不占用线程
+     */
+    private static final class CallbackServer {
+
+        private static final byte[] OK = "200".getBytes(StandardCharsets.UTF_8);
+
+        private final long latencyMs;
+        private final AtomicLong callbacks = new AtomicLong();
+        private final ThreadPoolExecutor executor = new ThreadPoolExecutor(8, 8, 0, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<Runnable>(), new NamedThreadFactory("callback", true));
+        private final ScheduledExecutorService responder =
+                new ScheduledThreadPoolExecutor(2, new NamedThreadFactory("callback-responder", true));
+        private HttpServer server;
+
+        CallbackServer(long latencyMs) {
+            this.latencyMs = latencyMs;
+        }
+
+        void start() throws IOException {
+            server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 4096);
+            server.setExecutor(executor);
+            server.createContext("/callback", new HttpHandler() {
+                @Override
+                public void handle(final HttpExchange exchange) throws IOException {
+                    drain(exchange);
+                    responder.schedule(new Runnable() {
+                        @Override
+                        public void run() {
+                            respond(exchange);
+                        }
+                    }, latencyMs, TimeUnit.MILLISECONDS);
+                }
+            });
+            server.start();
+        }
+
+        private void drain(HttpExchange exchange) throws IOException {
+            byte[] buffer = new byte[4096];
+            while (exchange.getRequestBody().read(buffer) >= 0) {
+                // 读完请求体
+            }
+        }
+
+        private void respond(HttpExchange exchange) {
+            try {
+                exchange.sendResponseHeaders(200, OK.length);
+                OutputStream out = exchange.getResponseBody();
+                out.write(OK);
+                out.close();
+                callbacks.incrementAndGet();
+            } catch (IOException ignored) {
+            } finally {
+                exchange.close();
+            }
+        }
+
+        String url() {
+            return "http://127.0.0.1:" + server.getAddress().getPort() + "/callback";
+        }
+
+        void shutdown() {
+            server.stop(0);
+            responder.shutdownNow();
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * 桩服务：任意主题的路由都指向自身，拉取消息时总是返回一批新消息，消费位点从0开始
+     */
+    private static final class StubServer {
+
+        private static final int QUEUES = 4;
+        // 长轮询挂起时间(毫秒)
+        private static final long SUSPEND_MS = 1000;
+
+        private final ThreadPoolExecutor executor = new ThreadPoolExecutor(8, 8, 0, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<Runnable>(), new NamedThreadFactory("stub", true));
+        private final ScheduledExecutorService scheduler =
+                new ScheduledThreadPoolExecutor(1, new NamedThreadFactory("stub-suspend", true));
+        // 发送过心跳的客户端
+        private final Set<String> clients = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+        private NettyRemotingServer server;
+
+        void start() {
+            NettyServerConfig config = new NettyServerConfig();
+            config.setListenPort(0);
+            server = new NettyRemotingServer(config);
+            server.registerDefaultProcessor(new NettyRequestProcessor() {
+                @Override
+                public RemotingCommand processRequest(ChannelHandlerContext ctx, RemotingCommand request) throws Exception {
+                    switch (request.getCode()) {
+                        case RequestCode.GET_ROUTEINTO_BY_TOPIC:
+                            RemotingCommand route = RemotingCommand.createResponseCommand(ResponseCode.SUCCESS, null);
+                            route.setBody(routeData().encode());
+                            return route;
+                        case RequestCode.HEART_BEAT:
+                            clients.add(HeartbeatData.decode(request.getBody(), HeartbeatData.class).getClientID());
+                            return RemotingCommand.createResponseCommand(ResponseCode.SUCCESS, null);
+                        case RequestCode.GET_CONSUMER_LIST_BY_GROUP:
+                            GetConsumerListByGroupResponseBody consumers = new GetConsumerListByGroupResponseBody();
+                            consumers.setConsumerIdList(new ArrayList<>(clients));
+                            RemotingCommand list = RemotingCommand.createResponseCommand(ResponseCode.SUCCESS, null);
+                            list.setBody(consumers.encode());
+                            return list;
+                        case RequestCode.QUERY_CONSUMER_OFFSET:
+                            RemotingCommand offset = RemotingCommand.createResponseCommand(QueryConsumerOffsetResponseHeader.class);
+                            ((QueryConsumerOffsetResponseHeader) offset.readCustomHeader()).setOffset(0L);
+                            offset.setCode(ResponseCode.SUCCESS);
+                            return offset;
+                        case RequestCode.PULL_MESSAGE:
+                            PullMessageRequestHeader header =
+                                    (PullMessageRequestHeader) request.decodeCommandCustomHeader(PullMessageRequestHeader.class);
+                            if (header.getTopic().startsWith(MixAll.RETRY_GROUP_TOPIC_PREFIX)) {
+                                suspend(ctx, request, header);
+                                return null;
+                            }
+                            return pull(header);
+                        default:
+                            return RemotingCommand.createResponseCommand(ResponseCode.SUCCESS, null);
+                    }
+                }
+
+                @Override
+                public boolean rejectRequest() {
+                    return false;
+                }
+            }, executor);
+            server.start();
+        }
+
+        /**
+         * 重试主题没有消息，像broker的长轮询一样挂起到超时再应答
+         */
+        private void suspend(final ChannelHandlerContext ctx, RemotingCommand request, PullMessageRequestHeader header) {
+            final RemotingCommand response = RemotingCommand.createResponseCommand(PullMessageResponseHeader.class);
+            PullMessageResponseHeader responseHeader = (PullMessageResponseHeader) response.readCustomHeader();
+            responseHeader.setNextBeginOffset(header.getQueueOffset());
+            responseHeader.setMinOffset(0L);
+            responseHeader.setMaxOffset(header.getQueueOffset());
+            responseHeader.setSuggestWhichBrokerId(0L);
+            response.setCode(ResponseCode.PULL_NOT_FOUND);
+            response.setOpaque(request.getOpaque());
+            response.markResponseType();
+            scheduler.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    ctx.writeAndFlush(response);
+                }
+            }, Math.min(header.getSuspendTimeoutMillis(), SUSPEND_MS), TimeUnit.MILLISECONDS);
+        }
+
+        private RemotingCommand pull(PullMessageRequestHeader request) throws Exception {
+            long queueOffset = request.getQueueOffset();
+            int count = request.getMaxMsgNums();
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            InetSocketAddress host = new InetSocketAddress("127.0.0.1", server.localListenPort());
+            for (int i = 0; i < count; i++) {
+                MessageExt message = new MessageExt();
+                message.setTopic(request.getTopic());
+                message.setQueueId(request.getQueueId());
+                message.setQueueOffset(queueOffset + i);
+                message.setCommitLogOffset(queueOffset + i);
+                message.setBornHost(host);
+                message.setStoreHost(host);
+                message.setBornTimestamp(System.currentTimeMillis());
+                message.setStoreTimestamp(System.currentTimeMillis());
+                message.setKeys("k" + (queueOffset + i));
+                message.setBody(BODY);
+                body.write(MessageDecoder.encode(message, false));
+            }
+
+            RemotingCommand response = RemotingCommand.createResponseCommand(PullMessageResponseHeader.class);
+            PullMessageResponseHeader header = (PullMessageResponseHeader) response.readCustomHeader();
+            header.setNextBeginOffset(queueOffset + count);
+            header.setMinOffset(0L);
+            header.setMaxOffset(queueOffset + count);
+            header.setSuggestWhichBrokerId(0L);
+            response.setCode(ResponseCode.SUCCESS);
+            response.setBody(body.toByteArray());
+            return response;
+        }
+
+        String address() {
+            return "127.0.0.1:" + server.localListenPort();
+        }
+
+        private TopicRouteData routeData() {
+            QueueData queueData = new QueueData();
+            queueData.setBrokerName(BROKER_NAME);
+            queueData.setReadQueueNums(QUEUES);
+            queueData.setWriteQueueNums(QUEUES);
+            queueData.setPerm(PermName.PERM_READ | PermName.PERM_WRITE);
+
+            HashMap<Long, String> brokerAddrs = new HashMap<>();
+            brokerAddrs.put(0L, address());
+
+            TopicRouteData routeData = new TopicRouteData();
+            routeData.setQueueDatas(Collections.singletonList(queueData));
+            routeData.setBrokerDatas(Collections.singletonList(new BrokerData("benchmark", BROKER_NAME, brokerAddrs)));
+            routeData.setFilterServerTable(new HashMap<String, List<String>>());
+            return routeData;
+        }
+
+        void shutdown() {
+            server.shutdown();
+            scheduler.shutdownNow();
+            executor.shutdownNow();
+        }
+    }
+
+    private static final class Result {
+        private final String mode;
+        private final int subscriptions;
+        private final int threads;
+        private final long heap;
+        private final double callbacksPerSecond;
+
+        Result(String mode, int subscriptions, int threads, long heap, double callbacksPerSecond) {
+            this.mode = mode;
+            this.subscriptions = subscriptions;
+            this.threads = threads;
+            this.heap = heap;
+            this.callbacksPerSecond = callbacksPerSecond;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%-10s %14d %10d %12.2f %10.1f %14.1f %12.0f", mode, subscriptions, threads,
+                    (double) threads / subscriptions, heap / 1048576.0, heap / 1024.0 / subscriptions, callbacksPerSecond);
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package org.apache.rocketmq.gateway.benchmark;
+
+import org.apache.rocketmq.common.message.MessageExt;
+import org.apache.rocketmq.gateway.processor.consumer.MessageFilter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 网关过滤表达式对每条消费消息的判断开销。
+ * <p>
+ * 消息带region、amount、vip三个属性以及key和tag，约20%的消息缺少amount属性；
+ * 表达式分别为单个相等比较、IN加数值比较，以及带NOT、BETWEEN和IS NULL的组合条件。
+ * <p>
+ * 判断不应创建对象，加上-prof gc运行时gc.alloc.rate.norm应接近0。
+ * <p>
+ * 运行: java -cp &lt;classpath&gt; org.apache.rocketmq.gateway.benchmark.MessageFilterBenchmark
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MessageFilterBenchmark {
+
+    // 消息数,2的幂
+    private static final int MESSAGES = 1 << 12;
+
+    private static final String[] REGIONS = {"hangzhou", "shanghai", "beijing", "shenzhen", "singapore"};
+
+    @Param({
+            "region = 'hangzhou'",
+            "region IN ('hangzhou', 'shanghai') AND amount > 100",
+            "(vip = TRUE OR amount BETWEEN 500 AND 1000.5) AND NOT TAGS IN ('test') AND KEYS IS NOT NULL"
+    })
+    private String expression;
+
+    private MessageFilter filter;
+
+    private MessageExt[] messages;
+
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        filter = MessageFilter.compile(expression);
+
+        Random random = new Random(0);
+        messages = new MessageExt[MESSAGES];
+        for (int i = 0; i < MESSAGES; i++) {
+            MessageExt message = new MessageExt();
+            message.setTopic("topic_benchmark");
+            message.setKeys("order_" + i);
+            message.setTags(random.nextInt(10) == 0 ? "test" : "online");
+            message.putUserProperty("region", REGIONS[random.nextInt(REGIONS.length)]);
+            if (random.nextInt(5) != 0) {
+                message.putUserProperty("amount", random.nextInt(2) == 0
+                        ? String.valueOf(random.nextInt(2000)) : String.valueOf(random.nextInt(200000) / 100.0));
+            }
+            message.putUserProperty("vip", String.valueOf(random.nextInt(4) == 0));
+            message.setBody(new byte[0]);
+            messages[i] = message;
+        }
+    }
+
+    @Benchmark
+    public boolean matches() {
+        return filter.matches(messages[next++ & (MESSAGES - 1)]);
+    }
+
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder()
+                .include(MessageFilterBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
@@ -0,0 +1,168 @@
+package org.apache.rocketmq.gateway.benchmark;
+
+import org.apache.rocketmq.client.producer.DefaultMQProducer;
+import org.apache.rocketmq.gateway.common.GatewayConfig;
+import org.apache.rocketmq.gateway.processor.producer.ProducerManager;
+import org.apache.rocketmq.gateway.processor.producer.ProducerManager.ProducerWrapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 热点应用获取生产者的吞吐量：原来按应用加锁读取HashMap的实现与无锁租用/释放的实现，
+ * 分别在1、8、64个线程下对比。
+ * <p>
+ * 运行: java -cp &lt;classpath&gt; org.apache.rocketmq.gateway.benchmark.ProducerLookupBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ProducerLookupBenchmark {
+
+    private static final String APP = "benchmark";
+
+    private ProducerManager producerManager;
+
+    private LockedProducerLookup lockedLookup;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        GatewayConfig config = new GatewayConfig();
+        config.setNameServerAddress("127.0.0.1:9876");
+
+        producerManager = new ProducerManager();
+        producerManager.setGatewayConfig(config);
+        producerManager.start();
+
+        // 预先创建生产者,只测量已启动生产者的获取
+        ProducerWrapper wrapper = producerManager.acquireProducer(APP);
+        wrapper.release();
+
+        lockedLookup = new LockedProducerLookup();
+        lockedLookup.put(APP, wrapper.getProducer(null));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        producerManager.stop();
+    }
+
+    @Benchmark
+    @Threads(1)
+    public DefaultMQProducer locked_1() {
+        return lockedLookup.getProducer(APP);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public DefaultMQProducer locked_8() {
+        return lockedLookup.getProducer(APP);
+    }
+
+    @Benchmark
+    @Threads(64)
+    public DefaultMQProducer locked_64() {
+        return lockedLookup.getProducer(APP);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public DefaultMQProducer lockFree_1() throws Exception {
+        return lockFree();
+    }
+
+    @Benchmark
+    @Threads(8)
+    public DefaultMQProducer lockFree_8() throws Exception {
+        return lockFree();
+    }
+
+    @Benchmark
+    @Threads(64)
+    public DefaultMQProducer lockFree_64() throws Exception {
+        return lockFree();
+    }
+
+    private DefaultMQProducer lockFree() throws Exception {
+        ProducerWrapper wrapper = producerManager.acquireProducer(APP);
+        try {
+            return wrapper.getProducer(null);
+        } finally {
+            wrapper.release();
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder()
+                .include(ProducerLookupBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+
+    /**
+     * 原实现: 每次获取都加应用锁,读取HashMap并更新最新活跃时间
+     */
+    private static final class LockedProducerLookup {
+
+        private final HashMap<String, Entry> appProducerMap = new HashMap<>();
+
+        private final ConcurrentHashMap<String, ReentrantLock> appMutexMap = new ConcurrentHashMap<>();
+
+        void put(String app, DefaultMQProducer producer) {
+            appProducerMap.put(app, new Entry(producer));
+        }
+
+        DefaultMQProducer getProducer(String app) {
+            ReentrantLock lock = getLock(app);
+
+            lock.lock();
+            try {
+                Entry entry = appProducerMap.get(app);
+                entry.lastActiveNanoTime = System.nanoTime();
+                return entry.producer;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private ReentrantLock getLock(final String app) {
+            ReentrantLock lock = appMutexMap.get(app);
+            if (lock == null) {
+                lock = new ReentrantLock();
+                ReentrantLock prev = appMutexMap.putIfAbsent(app, lock);
+                if (prev != null) {
+                    lock = prev;
+                }
+            }
+            return lock;
+        }
+
+        private static final class Entry {
+            private final DefaultMQProducer producer;
+            private long lastActiveNanoTime;
+
+            Entry(DefaultMQProducer producer) {
+                this.producer = producer;
+            }
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package org.apache.rocketmq.gateway.benchmark;
+
+import org.apache.rocketmq.gateway.processor.Subscription;
+import org.apache.rocketmq.gateway.processor.producer.ProduceSubscriptionIndex;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 生产订阅校验的查找开销：原来拼接"app:topic"查HashSet的实现与两级订阅索引的实现对比。
+ * <p>
+ * 查询的应用和主题是与订阅内容相同、但不是同一实例的字符串，模拟从请求头解码出的值，
+ * 其中约10%为未订阅的组合。
+ * <p>
+ * 运行: java -cp &lt;classpath&gt; org.apache.rocketmq.gateway.benchmark.SubscriptionLookupBenchmark
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SubscriptionLookupBenchmark {
+
+    private static final String SEPARATOR = ":";
+
+    // 查询数,2的幂
+    private static final int QUERIES = 1 << 14;
+
+    @Param({"500", "5000"})
+    private int apps;
+
+    @Param({"4", "20"})
+    private int topicsPerApp;
+
+    private Set<String> appTopicSubscriptionSet;
+
+    private ProduceSubscriptionIndex index;
+
+    private String[] queryApps;
+
+    private String[] queryTopics;
+
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        List<Subscription> subscriptions = new ArrayList<>(apps * topicsPerApp);
+        appTopicSubscriptionSet = new HashSet<>(apps * topicsPerApp);
+        for (int i = 0; i < apps; i++) {
+            for (int j = 0; j < topicsPerApp; j++) {
+                Subscription subscription = new Subscription();
+                subscription.setApp(app(i));
+                subscription.setTopic(topic(i, j));
+                subscriptions.add(subscription);
+                appTopicSubscriptionSet.add(subscription.getApp() + SEPARATOR + subscription.getTopic());
+            }
+        }
+        index = ProduceSubscriptionIndex.build(subscriptions);
+
+        Random random = new Random(0);
+        queryApps = new String[QUERIES];
+        queryTopics = new String[QUERIES];
+        for (int i = 0; i < QUERIES; i++) {
+            int app = random.nextInt(apps);
+            int topic = random.nextInt(topicsPerApp);
+            // 约10%查询未订阅的主题
+            queryApps[i] = new String(app(app));
+            queryTopics[i] = new String(random.nextInt(10) == 0 ? topic(app, topicsPerApp) : topic(app, topic));
+        }
+    }
+
+    @Benchmark
+    public boolean concatHashSet() {
+        int i = next++ & (QUERIES - 1);
+        return appTopicSubscriptionSet.contains(queryApps[i] + SEPARATOR + queryTopics[i]);
+    }
+
+    @Benchmark
+    public boolean twoLevelIndex() {
+        int i = next++ & (QUERIES - 1);
+        return index.get(queryApps[i], queryTopics[i]) != null;
+    }
+
+    private static String app(int app) {
+        return "app_" + app;
+    }
+
+    private static String topic(int app, int topic) {
+        return "topic_" + app + "_" + topic;
+    }
+
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder()
+                .include(SubscriptionLookupBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
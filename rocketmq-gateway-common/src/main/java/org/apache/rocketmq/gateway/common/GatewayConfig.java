@@ -26,6 +26,102 @@ public final class GatewayConfig {
     private int producerIdleCheckIntervalSeconds = 3600;
     // name server 地址
     private String nameServerAddress;
+    // 是否启用epoll(仅Linux可用,不可用时退化为NIO),默认使用NIO
+    private boolean epollEnabled = false;
+    // 监听线程数,epoll下使用SO_REUSEPORT在同一端口绑定多个监听
+    private int acceptorThreads = 1;
+    // epoll边缘触发模式,false为水平触发
+    private boolean epollEdgeTriggered = false;
+    // 连接队列大小
+    private int soBacklog = 1024;
+    // 是否禁用Nagle算法
+    private boolean tcpNoDelay = true;
+    // TCP_FASTOPEN队列长度,0表示不启用(仅epoll)
+    private int tcpFastOpen = 0;
+    // 是否异步发送(SendCallback),false为同步阻塞发送
+    private boolean asyncProduceEnabled = false;
+    // 批量发送时单次发送到broker的最大字节数,超过则拆分
+    private int produceBatchMaxBytes = 1048576;
+    // 单条消息累积为批量发送的最长等待时间(毫秒),0表示不累积,可按订阅覆盖
+    private int produceLingerMs = 0;
+    // 累积批量发送线程数
+    private int produceLingerSenderThreads = 4;
+    // 累积批量发送线程池队列容量,队列满时批次直接失败
+    private int produceLingerSenderQueueCapacity = 10000;
+    // 每个应用的生产者分片数,各分片使用独立的客户端实例
+    private int producerShards = 1;
+    // 订阅加载时并行预热生产者的线程数
+    private int producerPrewarmThreads = 4;
+    // 首次加载订阅时等待生产者预热和路由预取的最长时间(毫秒),之后新增的订阅异步预热,0表示不预热
+    private int producerPrewarmTimeoutMs = 30000;
+    // 每次投递给消费监听器的最大消息数,同一批消息的回调并发发起,默认1即逐条消费
+    private int consumeMessageBatchMaxSize = 1;
+    // 同一批消息同时进行中的回调数上限,1表示逐条投递,订阅可单独配置
+    private int consumeDeliveryParallelism = 16;
+    // 是否按回调延迟和错误率自适应调整消费流控,默认关闭
+    private boolean consumeFlowControlEnabled = false;
+    // 流控调整周期(毫秒)
+    private int consumeFlowControlIntervalMs = 1000;
+    // 回调目标延迟(毫秒),超过则收缩并发
+    private int consumeFlowTargetLatencyMs = 1000;
+    // 回调错误率阈值(百分比),超过则收缩并发,持续超过则暂停消费
+    private int consumeFlowErrorRatePercent = 50;
+    // 回调持续失败或返回429/503时暂停消费的最长时间(毫秒)
+    private int consumeFlowMaxPauseMs = 60000;
+    // 回调变慢时拉取消息的最大间隔(毫秒)
+    private int consumeFlowMaxPullIntervalMs = 1000;
+    // 是否按回调地址熔断,默认关闭
+    private boolean consumeCircuitBreakerEnabled = false;
+    // 熔断统计的滑动窗口,最近的回调次数
+    private int consumeCircuitBreakerWindowSize = 20;
+    // 窗口内至少多少次回调才判断熔断
+    private int consumeCircuitBreakerMinCalls = 10;
+    // 窗口内失败率达到该值(百分比)时熔断
+    private int consumeCircuitBreakerFailureRatePercent = 50;
+    // 熔断持续时间(毫秒),到期后半开试探
+    private int consumeCircuitBreakerOpenMs = 10000;
+    // 半开时的试探回调数,全部成功则恢复
+    private int consumeCircuitBreakerHalfOpenCalls = 3;
+    // 是否开启网关本地重试,回调失败的消息先在网关内存中重试,再发回broker
+    private boolean consumeLocalRetryEnabled = false;
+    // 本地重试次数,超过后发回broker
+    private int consumeLocalRetryMaxAttempts = 3;
+    // 本地重试的初始退避时间(毫秒),每次翻倍
+    private int consumeLocalRetryBackoffMs = 1000;
+    // 本地重试的最大退避时间(毫秒)
+    private int consumeLocalRetryMaxBackoffMs = 60000;
+    // 本地重试退避时间的随机抖动(百分比)
+    private int consumeLocalRetryJitterPercent = 20;
+    // 本地重试的内存预算(字节),超出后直接发回broker
+    private long consumeLocalRetryMaxBytes = 268435456L;
+    // 顺序消费回调失败后队列首次挂起的时间(毫秒),连续失败时翻倍
+    private long consumeOrderlySuspendMs = 1000;
+    // 是否共享回调并发,所有消费者的回调共用全局并发上限并在应用之间轮流放行,共用的消费者只保留少量消费线程
+    private boolean consumeSharedDeliveryEnabled = false;
+    // 共享回调时每个共用消费者的消费线程数
+    private int consumeSharedThreads = 2;
+    // 共享回调时所有消费者同时进行中的回调数上限
+    private int consumeSharedMaxInflight = 1024;
+    // 拉取消费一次返回的最大消息数,请求指定的消息数不能超过该值
+    private int consumePullMaxMessages = 32;
+    // 拉取消费没有消息时请求挂起的最长时间(毫秒),应小于连接空闲关闭时间
+    private long consumePullMaxWaitMs = 30000;
+    // 拉取的消息超过该时间(毫秒)未确认消费则重新投递
+    private long consumePullInvisibleMs = 60000;
+    // 有挂起的拉取请求时检查新消息的间隔(毫秒)
+    private long consumePullIntervalMs = 10;
+    // 流式消费连接的写缓冲低水位(字节),低于后恢复推送
+    private int consumeStreamLowWaterMark = 32768;
+    // 流式消费连接的写缓冲高水位(字节),超过后暂停推送
+    private int consumeStreamHighWaterMark = 65536;
+    // 多个回调地址的负载均衡策略: LEAST_OUTSTANDING, EWMA, WEIGHTED_ROUND_ROBIN,订阅可单独配置
+    private String consumeCallbackBalancer = "LEAST_OUTSTANDING";
+    // EWMA策略中回调延迟平均值的衰减时间(毫秒)
+    private long consumeCallbackEwmaDecayMs = 10000;
+    // 订阅的过滤表达式是否同时交给broker按SQL92过滤,需要broker开启enablePropertyFilter,不支持时只在网关过滤
+    private boolean consumeFilterOnBroker = false;
+    // 未开启本地重试时,回调完成后等待分发目标的最长时间(毫秒),超时的消息发回broker
+    private long consumeFanoutMaxWaitMs = 3000;
 
     public int getListenPort() {
         return listenPort;
@@ -108,4 +204,388 @@ public final class GatewayConfig {
     public void setNameServerAddress(String nameServerAddress) {
         this.nameServerAddress = nameServerAddress;
     }
+
+    public boolean isEpollEnabled() {
+        return epollEnabled;
+    }
+
+    public void setEpollEnabled(boolean epollEnabled) {
+        this.epollEnabled = epollEnabled;
+    }
+
+    public int getAcceptorThreads() {
+        return acceptorThreads;
+    }
+
+    public void setAcceptorThreads(int acceptorThreads) {
+        this.acceptorThreads = acceptorThreads;
+    }
+
+    public boolean isEpollEdgeTriggered() {
+        return epollEdgeTriggered;
+    }
+
+    public void setEpollEdgeTriggered(boolean epollEdgeTriggered) {
+        this.epollEdgeTriggered = epollEdgeTriggered;
+    }
+
+    public int getSoBacklog() {
+        return soBacklog;
+    }
+
+    public void setSoBacklog(int soBacklog) {
+        this.soBacklog = soBacklog;
+    }
+
+    public boolean isTcpNoDelay() {
+        return tcpNoDelay;
+    }
+
+    public void setTcpNoDelay(boolean tcpNoDelay) {
+        this.tcpNoDelay = tcpNoDelay;
+    }
+
+    public int getTcpFastOpen() {
+        return tcpFastOpen;
+    }
+
+    public void setTcpFastOpen(int tcpFastOpen) {
+        this.tcpFastOpen = tcpFastOpen;
+    }
+
+    public boolean isAsyncProduceEnabled() {
+        return asyncProduceEnabled;
+    }
+
+    public void setAsyncProduceEnabled(boolean asyncProduceEnabled) {
+        this.asyncProduceEnabled = asyncProduceEnabled;
+    }
+
+    public int getProduceBatchMaxBytes() {
+        return produceBatchMaxBytes;
+    }
+
+    public void setProduceBatchMaxBytes(int produceBatchMaxBytes) {
+        this.produceBatchMaxBytes = produceBatchMaxBytes;
+    }
+
+    public int getProduceLingerMs() {
+        return produceLingerMs;
+    }
+
+    public void setProduceLingerMs(int produceLingerMs) {
+        this.produceLingerMs = produceLingerMs;
+    }
+
+    public int getProduceLingerSenderThreads() {
+        return produceLingerSenderThreads;
+    }
+
+    public void setProduceLingerSenderThreads(int produceLingerSenderThreads) {
+        this.produceLingerSenderThreads = produceLingerSenderThreads;
+    }
+
+    public int getProduceLingerSenderQueueCapacity() {
+        return produceLingerSenderQueueCapacity;
+    }
+
+    public void setProduceLingerSenderQueueCapacity(int produceLingerSenderQueueCapacity) {
+        this.produceLingerSenderQueueCapacity = produceLingerSenderQueueCapacity;
+    }
+
+    public int getProducerShards() {
+        return producerShards;
+    }
+
+    public void setProducerShards(int producerShards) {
+        this.producerShards = producerShards;
+    }
+
+    public int getProducerPrewarmThreads() {
+        return producerPrewarmThreads;
+    }
+
+    public void setProducerPrewarmThreads(int producerPrewarmThreads) {
+        this.producerPrewarmThreads = producerPrewarmThreads;
+    }
+
+    public int getProducerPrewarmTimeoutMs() {
+        return producerPrewarmTimeoutMs;
+    }
+
+    public void setProducerPrewarmTimeoutMs(int producerPrewarmTimeoutMs) {
+        this.producerPrewarmTimeoutMs = producerPrewarmTimeoutMs;
+    }
+
+    public int getConsumeMessageBatchMaxSize() {
+        return consumeMessageBatchMaxSize;
+    }
+
+    public void setConsumeMessageBatchMaxSize(int consumeMessageBatchMaxSize) {
+        this.consumeMessageBatchMaxSize = consumeMessageBatchMaxSize;
+    }
+
+    public int getConsumeDeliveryParallelism() {
+        return consumeDeliveryParallelism;
+    }
+
+    public void setConsumeDeliveryParallelism(int consumeDeliveryParallelism) {
+        this.consumeDeliveryParallelism = consumeDeliveryParallelism;
+    }
+
+    public boolean isConsumeFlowControlEnabled() {
+        return consumeFlowControlEnabled;
+    }
+
+    public void setConsumeFlowControlEnabled(boolean consumeFlowControlEnabled) {
+        this.consumeFlowControlEnabled = consumeFlowControlEnabled;
+    }
+
+    public int getConsumeFlowControlIntervalMs() {
+        return consumeFlowControlIntervalMs;
+    }
+
+    public void setConsumeFlowControlIntervalMs(int consumeFlowControlIntervalMs) {
+        this.consumeFlowControlIntervalMs = consumeFlowControlIntervalMs;
+    }
+
+    public int getConsumeFlowTargetLatencyMs() {
+        return consumeFlowTargetLatencyMs;
+    }
+
+    public void setConsumeFlowTargetLatencyMs(int consumeFlowTargetLatencyMs) {
+        this.consumeFlowTargetLatencyMs = consumeFlowTargetLatencyMs;
+    }
+
+    public int getConsumeFlowErrorRatePercent() {
+        return consumeFlowErrorRatePercent;
+    }
+
+    public void setConsumeFlowErrorRatePercent(int consumeFlowErrorRatePercent) {
+        this.consumeFlowErrorRatePercent = consumeFlowErrorRatePercent;
+    }
+
+    public int getConsumeFlowMaxPauseMs() {
+        return consumeFlowMaxPauseMs;
+    }
+
+    public void setConsumeFlowMaxPauseMs(int consumeFlowMaxPauseMs) {
+        this.consumeFlowMaxPauseMs = consumeFlowMaxPauseMs;
+    }
+
+    public int getConsumeFlowMaxPullIntervalMs() {
+        return consumeFlowMaxPullIntervalMs;
+    }
+
+    public void setConsumeFlowMaxPullIntervalMs(int consumeFlowMaxPullIntervalMs) {
+        this.consumeFlowMaxPullIntervalMs = consumeFlowMaxPullIntervalMs;
+    }
+
+    public boolean isConsumeCircuitBreakerEnabled() {
+        return consumeCircuitBreakerEnabled;
+    }
+
+    public void setConsumeCircuitBreakerEnabled(boolean consumeCircuitBreakerEnabled) {
+        this.consumeCircuitBreakerEnabled = consumeCircuitBreakerEnabled;
+    }
+
+    public int getConsumeCircuitBreakerWindowSize() {
+        return consumeCircuitBreakerWindowSize;
+    }
+
+    public void setConsumeCircuitBreakerWindowSize(int consumeCircuitBreakerWindowSize) {
+        this.consumeCircuitBreakerWindowSize = consumeCircuitBreakerWindowSize;
+    }
+
+    public int getConsumeCircuitBreakerMinCalls() {
+        return consumeCircuitBreakerMinCalls;
+    }
+
+    public void setConsumeCircuitBreakerMinCalls(int consumeCircuitBreakerMinCalls) {
+        this.consumeCircuitBreakerMinCalls = consumeCircuitBreakerMinCalls;
+    }
+
+    public int getConsumeCircuitBreakerFailureRatePercent() {
+        return consumeCircuitBreakerFailureRatePercent;
+    }
+
+    public void setConsumeCircuitBreakerFailureRatePercent(int consumeCircuitBreakerFailureRatePercent) {
+        this.consumeCircuitBreakerFailureRatePercent = consumeCircuitBreakerFailureRatePercent;
+    }
+
+    public int getConsumeCircuitBreakerOpenMs() {
+        return consumeCircuitBreakerOpenMs;
+    }
+
+    public void setConsumeCircuitBreakerOpenMs(int consumeCircuitBreakerOpenMs) {
+        this.consumeCircuitBreakerOpenMs = consumeCircuitBreakerOpenMs;
+    }
+
+    public int getConsumeCircuitBreakerHalfOpenCalls() {
+        return consumeCircuitBreakerHalfOpenCalls;
+    }
+
+    public void setConsumeCircuitBreakerHalfOpenCalls(int consumeCircuitBreakerHalfOpenCalls) {
+        this.consumeCircuitBreakerHalfOpenCalls = consumeCircuitBreakerHalfOpenCalls;
+    }
+
+    public boolean isConsumeLocalRetryEnabled() {
+        return consumeLocalRetryEnabled;
+    }
+
+    public void setConsumeLocalRetryEnabled(boolean consumeLocalRetryEnabled) {
+        this.consumeLocalRetryEnabled = consumeLocalRetryEnabled;
+    }
+
+    public int getConsumeLocalRetryMaxAttempts() {
+        return consumeLocalRetryMaxAttempts;
+    }
+
+    public void setConsumeLocalRetryMaxAttempts(int consumeLocalRetryMaxAttempts) {
+        this.consumeLocalRetryMaxAttempts = consumeLocalRetryMaxAttempts;
+    }
+
+    public int getConsumeLocalRetryBackoffMs() {
+        return consumeLocalRetryBackoffMs;
+    }
+
+    public void setConsumeLocalRetryBackoffMs(int consumeLocalRetryBackoffMs) {
+        this.consumeLocalRetryBackoffMs = consumeLocalRetryBackoffMs;
+    }
+
+    public int getConsumeLocalRetryMaxBackoffMs() {
+        return consumeLocalRetryMaxBackoffMs;
+    }
+
+    public void setConsumeLocalRetryMaxBackoffMs(int consumeLocalRetryMaxBackoffMs) {
+        this.consumeLocalRetryMaxBackoffMs = consumeLocalRetryMaxBackoffMs;
+    }
+
+    public int getConsumeLocalRetryJitterPercent() {
+        return consumeLocalRetryJitterPercent;
+    }
+
+    public void setConsumeLocalRetryJitterPercent(int consumeLocalRetryJitterPercent) {
+        this.consumeLocalRetryJitterPercent = consumeLocalRetryJitterPercent;
+    }
+
+    public long getConsumeLocalRetryMaxBytes() {
+        return consumeLocalRetryMaxBytes;
+    }
+
+    public void setConsumeLocalRetryMaxBytes(long consumeLocalRetryMaxBytes) {
+        this.consumeLocalRetryMaxBytes = consumeLocalRetryMaxBytes;
+    }
+
+    public long getConsumeOrderlySuspendMs() {
+        return consumeOrderlySuspendMs;
+    }
+
+    public void setConsumeOrderlySuspendMs(long consumeOrderlySuspendMs) {
+        this.consumeOrderlySuspendMs = consumeOrderlySuspendMs;
+    }
+
+    public boolean isConsumeSharedDeliveryEnabled() {
+        return consumeSharedDeliveryEnabled;
+    }
+
+    public void setConsumeSharedDeliveryEnabled(boolean consumeSharedDeliveryEnabled) {
+        this.consumeSharedDeliveryEnabled = consumeSharedDeliveryEnabled;
+    }
+
+    public int getConsumeSharedThreads() {
+        return consumeSharedThreads;
+    }
+
+    public void setConsumeSharedThreads(int consumeSharedThreads) {
+        this.consumeSharedThreads = consumeSharedThreads;
+    }
+
+    public int getConsumeSharedMaxInflight() {
+        return consumeSharedMaxInflight;
+    }
+
+    public void setConsumeSharedMaxInflight(int consumeSharedMaxInflight) {
+        this.consumeSharedMaxInflight = consumeSharedMaxInflight;
+    }
+
+    public int getConsumePullMaxMessages() {
+        return consumePullMaxMessages;
+    }
+
+    public void setConsumePullMaxMessages(int consumePullMaxMessages) {
+        this.consumePullMaxMessages = consumePullMaxMessages;
+    }
+
+    public long getConsumePullMaxWaitMs() {
+        return consumePullMaxWaitMs;
+    }
+
+    public void setConsumePullMaxWaitMs(long consumePullMaxWaitMs) {
+        this.consumePullMaxWaitMs = consumePullMaxWaitMs;
+    }
+
+    public long getConsumePullInvisibleMs() {
+        return consumePullInvisibleMs;
+    }
+
+    public void setConsumePullInvisibleMs(long consumePullInvisibleMs) {
+        this.consumePullInvisibleMs = consumePullInvisibleMs;
+    }
+
+    public long getConsumePullIntervalMs() {
+        return consumePullIntervalMs;
+    }
+
+    public void setConsumePullIntervalMs(long consumePullIntervalMs) {
+        this.consumePullIntervalMs = consumePullIntervalMs;
+    }
+
+    public int getConsumeStreamLowWaterMark() {
+        return consumeStreamLowWaterMark;
+    }
+
+    public void setConsumeStreamLowWaterMark(int consumeStreamLowWaterMark) {
+        this.consumeStreamLowWaterMark = consumeStreamLowWaterMark;
+    }
+
+    public int getConsumeStreamHighWaterMark() {
+        return consumeStreamHighWaterMark;
+    }
+
+    public void setConsumeStreamHighWaterMark(int consumeStreamHighWaterMark) {
+        this.consumeStreamHighWaterMark = consumeStreamHighWaterMark;
+    }
+
+    public String getConsumeCallbackBalancer() {
+        return consumeCallbackBalancer;
+    }
+
+    public void setConsumeCallbackBalancer(String consumeCallbackBalancer) {
+        this.consumeCallbackBalancer = consumeCallbackBalancer;
+    }
+
+    public long getConsumeCallbackEwmaDecayMs() {
+        return consumeCallbackEwmaDecayMs;
+    }
+
+    public void setConsumeCallbackEwmaDecayMs(long consumeCallbackEwmaDecayMs) {
+        this.consumeCallbackEwmaDecayMs = consumeCallbackEwmaDecayMs;
+    }
+
+    public boolean isConsumeFilterOnBroker() {
+        return consumeFilterOnBroker;
+    }
+
+    public void setConsumeFilterOnBroker(boolean consumeFilterOnBroker) {
+        this.consumeFilterOnBroker = consumeFilterOnBroker;
+    }
+
+    public long getConsumeFanoutMaxWaitMs() {
+        return consumeFanoutMaxWaitMs;
+    }
+
+    public void setConsumeFanoutMaxWaitMs(long consumeFanoutMaxWaitMs) {
+        this.consumeFanoutMaxWaitMs = consumeFanoutMaxWaitMs;
+    }
 }
@@ -5,6 +5,8 @@ public abstract class MessageConsumerEntity extends MessageEntity {
 
     public static final String HEADER_TAG = "Tag";
     public static final String HEADER_KEY = "Key";
+    // 批量回调,消息体为消息数组
+    public static final String HEADER_BATCH = "Batch";
 
     public static final String LOG_PREFIX = "Consumer Received request: ";
 
@@ -13,6 +13,8 @@ public abstract class MessageProduceEntity extends MessageEntity {
 
     public static final String HEADER_ORDERLY_SHARDING_KEY = "Orderly-Sharding-Key";
 
+    public static final String HEADER_BATCH = "Batch";
+
     // 请求标识
     protected String requestId;
     // HTTP协议版本
@@ -25,6 +27,8 @@ public abstract class MessageProduceEntity extends MessageEntity {
     protected String delayTimeLevel;
 
     protected String orderlyShardingKey;
+    // 批量发送,消息体为消息数组
+    protected boolean batch = false;
 
     protected MessageProduceEntity() {
         // nothing to do.
@@ -83,4 +87,12 @@ public abstract class MessageProduceEntity extends MessageEntity {
     public void setOrderlyShardingKey(String orderlyShardingKey) {
         this.orderlyShardingKey = orderlyShardingKey;
     }
+
+    public boolean isBatch() {
+        return batch;
+    }
+
+    public void setBatch(boolean batch) {
+        this.batch = batch;
+    }
 }
@@ -1,8 +1,11 @@
 package org.apache.rocketmq.gateway.common.protocol;
 
 import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.annotation.JSONField;
+import org.apache.commons.lang3.StringUtils;
 
 import java.io.Serializable;
+import java.util.List;
 import java.util.UUID;
 
 
@@ -12,6 +15,8 @@ public final class MessageProduceRequest extends MessageProduceEntity {
 
     // 消息体
     private MessageContent content;
+    // 批量消息体
+    private List<MessageContent> contents;
     // 请求方法
     private String method;
 
@@ -31,6 +36,14 @@ public final class MessageProduceRequest extends MessageProduceEntity {
         this.content = content;
     }
 
+    public List<MessageContent> getContents() {
+        return contents;
+    }
+
+    public void setContents(List<MessageContent> contents) {
+        this.contents = contents;
+    }
+
     public String getMethod() {
         return method;
     }
@@ -54,6 +67,9 @@ public final class MessageProduceRequest extends MessageProduceEntity {
         private String key;
         // 消息体
         private String body;
+        // 消息体原始字节,直接从请求缓冲区切出,不为空时优先于body
+        @JSONField(serialize = false, deserialize = false)
+        private byte[] bodyBytes;
 
         public String getTag() {
             return tag;
@@ -79,6 +95,31 @@ public final class MessageProduceRequest extends MessageProduceEntity {
             this.body = body;
         }
 
+        public byte[] getBodyBytes() {
+            return bodyBytes;
+        }
+
+        public void setBodyBytes(byte[] bodyBytes) {
+            this.bodyBytes = bodyBytes;
+        }
+
+        /**
+         * 是否有非空白的消息体
+         *
+         * @return 有消息体返回true
+         */
+        public boolean hasBody() {
+            if (bodyBytes == null) {
+                return StringUtils.isNotBlank(body);
+            }
+            for (byte b : bodyBytes) {
+                if (b < 0 || b > ' ') {
+                    return true;
+                }
+            }
+            return false;
+        }
+
         @Override
         public String toString() {
             return JSON.toJSONString(this);
@@ -3,6 +3,7 @@ package org.apache.rocketmq.gateway.common.protocol;
 import com.alibaba.fastjson.JSON;
 
 import java.io.Serializable;
+import java.util.List;
 
 
 public final class MessageProduceResponse extends MessageProduceEntity {
@@ -13,13 +14,20 @@ public final class MessageProduceResponse extends MessageProduceEntity {
     private String msgId;
     // 成功与否标识
     private Boolean success;
+    // 批量发送时每条消息的结果
+    private List<MessageResult> results;
 
     public MessageProduceResponse() {
         // nothing to do.
     }
 
     public MessageProduceResponse(MessageProduceRequest request, ResponseStatus status) {
-        this(request, status, null);
+        this(request, status, (String) null);
+    }
+
+    public MessageProduceResponse(MessageProduceRequest request, ResponseStatus status, List<MessageResult> results) {
+        this(request, status, (String) null);
+        this.results = results;
     }
 
     public MessageProduceResponse(MessageProduceRequest request, ResponseStatus status, String msgId) {
@@ -58,17 +66,78 @@ public final class MessageProduceResponse extends MessageProduceEntity {
         this.success = success;
     }
 
+    public List<MessageResult> getResults() {
+        return results;
+    }
+
+    public void setResults(List<MessageResult> results) {
+        this.results = results;
+    }
+
     @Override
     public String toString() {
         return JSON.toJSONString(this);
     }
 
+    // 批量发送中单条消息的结果
+    public static final class MessageResult implements Serializable {
+        // 消息在请求数组中的下标
+        private int index;
+        // 消息ID,发送失败时为空
+        private String msgId;
+        // 发送状态
+        private ResponseStatus status;
+
+        public MessageResult() {
+            // nothing to do.
+        }
+
+        public MessageResult(int index, String msgId, ResponseStatus status) {
+            this.index = index;
+            this.msgId = msgId;
+            this.status = status;
+        }
+
+        public int getIndex() {
+            return index;
+        }
+
+        public void setIndex(int index) {
+            this.index = index;
+        }
+
+        public String getMsgId() {
+            return msgId;
+        }
+
+        public void setMsgId(String msgId) {
+            this.msgId = msgId;
+        }
+
+        public ResponseStatus getStatus() {
+            return status;
+        }
+
+        public void setStatus(ResponseStatus status) {
+            this.status = status;
+        }
+
+        @Override
+        public String toString() {
+            return JSON.toJSONString(this);
+        }
+    }
+
     // 响应状态
     public static final class ResponseStatus implements Serializable {
         // 消息已投递,message:SendStatus
         public static final ResponseStatus OK = new ResponseStatus(200, "OK");
+        // 批量消息部分投递成功,每条消息的结果见results
+        public static final ResponseStatus PARTIAL_FAILURE = new ResponseStatus(207, "partial failure");
         // 请求验证失败,订阅关系失败,或者缺少必要的数据项
         public static final ResponseStatus BAD_REQUEST = new ResponseStatus(400, "bad request");
+        // 拉取标识不存在,已确认或超时后重新投递
+        public static final ResponseStatus NOT_FOUND = new ResponseStatus(404, "not found");
         // 请求方法不支持
         public static final ResponseStatus METHOD_NOT_SUPPORTED = new ResponseStatus(405, "only supported post");
         // 服务端发生错误
@@ -0,0 +1,55 @@
+package org.apache.rocketmq.gateway.common.protocol;
+
+import java.util.Date;
+
+
+public abstract class MessagePullEntity extends MessageEntity {
+
+    // 一次拉取返回的最大消息数
+    public static final String HEADER_MAX_MESSAGES = "Max-Messages";
+    // 没有消息时挂起等待的最长时间(毫秒)
+    public static final String HEADER_MAX_WAIT_MS = "Max-Wait-Ms";
+    // 拉取标识,确认消费时回传
+    public static final String HEADER_PULL_ID = "Pull-ID";
+
+    // 请求标识
+    protected String requestId;
+    // HTTP协议版本
+    protected String protocolVersion;
+    // 拉取标识
+    protected String pullId;
+
+    protected MessagePullEntity() {
+        // nothing to do.
+    }
+
+    protected MessagePullEntity(final String internalReqId, final String gatewayAddress) {
+        this.internalReqId = internalReqId;
+        this.gatewayAddress = gatewayAddress;
+        this.time = new Date();
+    }
+
+    public String getRequestId() {
+        return requestId;
+    }
+
+    public void setRequestId(String requestId) {
+        this.requestId = requestId;
+    }
+
+    public String getProtocolVersion() {
+        return protocolVersion;
+    }
+
+    public void setProtocolVersion(String protocolVersion) {
+        this.protocolVersion = protocolVersion;
+    }
+
+    public String getPullId() {
+        return pullId;
+    }
+
+    public void setPullId(String pullId) {
+        this.pullId = pullId;
+    }
+}
@@ -0,0 +1,65 @@
+package org.apache.rocketmq.gateway.common.protocol;
+
+import com.alibaba.fastjson.JSON;
+
+import java.util.UUID;
+
+
+public final class MessagePullRequest extends MessagePullEntity {
+
+    public static final String LOG_PREFIX = "Received pull request: ";
+
+    // 请求方法
+    private String method;
+    // 是否为确认消费请求,否则为拉取请求
+    private boolean commit = false;
+    // 一次拉取返回的最大消息数,为空则使用全局配置
+    private String maxMessages;
+    // 没有消息时挂起等待的最长时间(毫秒),为空则不等待
+    private String maxWaitMs;
+
+    public MessagePullRequest() {
+        // nothing to do.
+    }
+
+    public MessagePullRequest(final String gatewayAddress) {
+        super(UUID.randomUUID().toString(), gatewayAddress);
+    }
+
+    public String getMethod() {
+        return method;
+    }
+
+    public void setMethod(String method) {
+        this.method = method;
+    }
+
+    public boolean isCommit() {
+        return commit;
+    }
+
+    public void setCommit(boolean commit) {
+        this.commit = commit;
+    }
+
+    public String getMaxMessages() {
+        return maxMessages;
+    }
+
+    public void setMaxMessages(String maxMessages) {
+        this.maxMessages = maxMessages;
+    }
+
+    public String getMaxWaitMs() {
+        return maxWaitMs;
+    }
+
+    public void setMaxWaitMs(String maxWaitMs) {
+        this.maxWaitMs = maxWaitMs;
+    }
+
+    @Override
+    public String toString() {
+        return JSON.toJSONString(this);
+    }
+}
@@ -0,0 +1,110 @@
+package org.apache.rocketmq.gateway.common.protocol;
+
+import com.alibaba.fastjson.JSON;
+import org.apache.rocketmq.gateway.common.protocol.MessageProduceResponse.ResponseStatus;
+
+import java.io.Serializable;
+import java.util.List;
+
+
+public final class MessagePullResponse extends MessagePullEntity {
+
+    public static final String LOG_PREFIX = "Server pull response: ";
+
+    private ResponseStatus status;
+    // 拉取到的消息,没有消息时为空
+    private List<PulledMessage> messages;
+
+    public MessagePullResponse() {
+        // nothing to do.
+    }
+
+    public MessagePullResponse(MessagePullRequest request, ResponseStatus status) {
+        super(request.internalReqId, request.getGatewayAddress());
+
+        this.topic = request.getTopic();
+        this.app = request.getApp();
+        this.requestId = request.getRequestId();
+        this.protocolVersion = request.getProtocolVersion();
+        this.pullId = request.getPullId();
+        this.status = status;
+    }
+
+    public ResponseStatus getStatus() {
+        return status;
+    }
+
+    public void setStatus(ResponseStatus status) {
+        this.status = status;
+    }
+
+    public List<PulledMessage> getMessages() {
+        return messages;
+    }
+
+    public void setMessages(List<PulledMessage> messages) {
+        this.messages = messages;
+    }
+
+    @Override
+    public String toString() {
+        return JSON.toJSONString(this);
+    }
+
+    // 拉取到的单条消息,字段与批量回调的数组元素相同
+    public static final class PulledMessage implements Serializable {
+        private String msgId;
+        private String key;
+        private String tag;
+        // 消息体,按UTF-8解码
+        private String body;
+
+        public PulledMessage() {
+            // nothing to do.
+        }
+
+        public PulledMessage(String msgId, String key, String tag, String body) {
+            this.msgId = msgId;
+            this.key = key;
+            this.tag = tag;
+            this.body = body;
+        }
+
+        public String getMsgId() {
+            return msgId;
+        }
+
+        public void setMsgId(String msgId) {
+            this.msgId = msgId;
+        }
+
+        public String getKey() {
+            return key;
+        }
+
+        public void setKey(String key) {
+            this.key = key;
+        }
+
+        public String getTag() {
+            return tag;
+        }
+
+        public void setTag(String tag) {
+            this.tag = tag;
+        }
+
+        public String getBody() {
+            return body;
+        }
+
+        public void setBody(String body) {
+            this.body = body;
+        }
+
+        @Override
+        public String toString() {
+            return JSON.toJSONString(this);
+        }
+    }
+}
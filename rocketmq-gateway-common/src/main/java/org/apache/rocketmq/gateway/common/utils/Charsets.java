@@ -0,0 +1,38 @@
+package org.apache.rocketmq.gateway.common.utils;
+
+import java.nio.charset.Charset;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 字符集缓存，避免每次请求按名称查找字符集
+ */
+public final class Charsets {
+
+    public static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static final ConcurrentHashMap<String, Charset> CHARSETS = new ConcurrentHashMap<>();
+
+    private Charsets() {
+        // nothing to do.
+    }
+
+    /**
+     * 根据名称获取字符集
+     *
+     * @param name 字符集名称
+     * @return 字符集
+     * @throws java.nio.charset.UnsupportedCharsetException 不支持的字符集
+     */
+    public static Charset forName(final String name) {
+        Charset charset = CHARSETS.get(name);
+        if (charset == null) {
+            charset = Charset.forName(name);
+            Charset prev = CHARSETS.putIfAbsent(name, charset);
+            if (prev != null) {
+                charset = prev;
+            }
+        }
+        return charset;
+    }
+
+}
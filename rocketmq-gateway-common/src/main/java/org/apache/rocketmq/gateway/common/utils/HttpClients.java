@@ -2,6 +2,7 @@ package org.apache.rocketmq.gateway.common.utils;
 
 import org.apache.http.HttpHost;
 import org.apache.http.client.config.RequestConfig;
+import org.apache.http.config.RegistryBuilder;
 import org.apache.http.config.SocketConfig;
 import org.apache.http.conn.routing.HttpRoute;
 import org.apache.http.conn.ssl.AllowAllHostnameVerifier;
@@ -12,8 +13,18 @@ import org.apache.http.impl.client.CloseableHttpClient;
 import org.apache.http.impl.client.DefaultHttpRequestRetryHandler;
 import org.apache.http.impl.client.HttpClientBuilder;
 import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.client.HttpAsyncClientBuilder;
+import org.apache.http.impl.nio.conn.PoolingNHttpClientConnectionManager;
+import org.apache.http.impl.nio.reactor.DefaultConnectingIOReactor;
+import org.apache.http.impl.nio.reactor.IOReactorConfig;
+import org.apache.http.nio.conn.NoopIOSessionStrategy;
+import org.apache.http.nio.conn.SchemeIOSessionStrategy;
+import org.apache.http.nio.conn.ssl.SSLIOSessionStrategy;
+import org.apache.http.nio.reactor.IOReactorException;
 
 import javax.net.ssl.SSLContext;
+import java.io.IOException;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.concurrent.TimeUnit;
@@ -35,6 +46,10 @@ public class HttpClients {
     private PoolingHttpClientConnectionManager connectionManager;
     // @since 0.2.19
     private boolean sslEnabled = false;
+    // 异步客户端的IO线程数
+    private int ioThreads = Runtime.getRuntime().availableProcessors();
+    private CloseableHttpAsyncClient httpAsyncClient;
+    private PoolingNHttpClientConnectionManager asyncConnectionManager;
 
     public HttpClients() {
     }
@@ -97,6 +112,12 @@ public class HttpClients {
         this.sslEnabled = sslEnabled;
     }
 
+    public void setIoThreads(int ioThreads) {
+        if (ioThreads > 0) {
+            this.ioThreads = ioThreads;
+        }
+    }
+
     /**
      * 构造客户端连接
      *
@@ -153,8 +174,7 @@ public class HttpClients {
 
                     httpClient = httpClientBuilder.build();
 
-                    monitor = new IdleConnectionMonitorThread();
-                    monitor.start();
+                    startMonitor();
                 }
             }
         }
@@ -162,6 +182,83 @@ public class HttpClients {
         return httpClient;
     }
 
+    /**
+     * 构造异步客户端，请求由固定数量的IO线程处理，线程数不随并发请求数增长
+     *
+     * @return 已启动的异步客户端
+     */
+    public CloseableHttpAsyncClient createAsync() {
+        if (httpAsyncClient == null) {
+            synchronized (this) {
+                if (httpAsyncClient == null) {
+                    IOReactorConfig ioReactorConfig = IOReactorConfig.custom()
+                            .setIoThreadCount(ioThreads)
+                            .setConnectTimeout(connectTimeout)
+                            .setSoTimeout(socketTimeout)
+                            .setTcpNoDelay(true)
+                            .build();
+
+                    RegistryBuilder<SchemeIOSessionStrategy> registryBuilder = RegistryBuilder.<SchemeIOSessionStrategy>create()
+                            .register("http", NoopIOSessionStrategy.INSTANCE);
+                    if (sslEnabled) {
+                        try {
+                            SSLContext sslContext = new SSLContextBuilder()
+                                    .loadTrustMaterial(null, new TrustSelfSignedStrategy())
+                                    .build();
+                            // 不进行主机名验证
+                            registryBuilder.register("https",
+                                    new SSLIOSessionStrategy(sslContext, new AllowAllHostnameVerifier()));
+                        } catch (Exception e) {
+                            throw new RuntimeException(e.getMessage(), e);
+                        }
+                    } else {
+                        registryBuilder.register("https", SSLIOSessionStrategy.getDefaultStrategy());
+                    }
+
+                    try {
+                        asyncConnectionManager = new PoolingNHttpClientConnectionManager(
+                                new DefaultConnectingIOReactor(ioReactorConfig, new NamedThreadFactory("http-async-io", true)),
+                                registryBuilder.build());
+                    } catch (IOReactorException e) {
+                        throw new RuntimeException(e.getMessage(), e);
+                    }
+                    asyncConnectionManager.setMaxTotal(maxTotal);
+                    asyncConnectionManager.setDefaultMaxPerRoute(defaultMaxPerRoute);
+                    if (maxPerRoutes != null && !maxPerRoutes.isEmpty()) {
+                        for (Map.Entry<String, Integer> entry : maxPerRoutes.entrySet()) {
+                            URL url = URL.valueOf(entry.getKey());
+                            asyncConnectionManager.setMaxPerRoute(new HttpRoute(
+                                    new HttpHost(url.getHost(), url.getPort() == 0 ? -1 : url.getPort(),
+                                            url.getProtocol())), entry.getValue());
+                        }
+                    }
+
+                    RequestConfig requestConfig =
+                            RequestConfig.custom().setConnectionRequestTimeout(connectionRequestTimeout)
+                                    .setConnectTimeout(connectTimeout).setSocketTimeout(socketTimeout)
+                                    .setRedirectsEnabled(redirect).build();
+
+                    httpAsyncClient = HttpAsyncClientBuilder.create()
+                            .setConnectionManager(asyncConnectionManager)
+                            .setDefaultRequestConfig(requestConfig)
+                            .build();
+                    httpAsyncClient.start();
+
+                    startMonitor();
+                }
+            }
+        }
+
+        return httpAsyncClient;
+    }
+
+    private void startMonitor() {
+        if (monitor == null) {
+            monitor = new IdleConnectionMonitorThread();
+            monitor.start();
+        }
+    }
+
     /**
      * 关闭
      */
@@ -170,10 +267,19 @@ public class HttpClients {
             if (connectionManager != null) {
                 connectionManager.close();
             }
+            if (httpAsyncClient != null) {
+                try {
+                    httpAsyncClient.close();
+                } catch (IOException ignored) {
+                    // ignored
+                }
+            }
             if (monitor != null) {
                 monitor.shutdown();
             }
             connectionManager = null;
+            asyncConnectionManager = null;
+            httpAsyncClient = null;
             monitor = null;
         }
     }
@@ -202,11 +308,21 @@ public class HttpClients {
                     synchronized (this) {
                         wait(idleInterval);
                         if (!shutdown) {
-                            // Close expired connections
-                            connectionManager.closeExpiredConnections();
-                            // Optionally, close idle connections
-                            if (maxIdleTime > 0) {
-                                connectionManager.closeIdleConnections(maxIdleTime, TimeUnit.MILLISECONDS);
+                            PoolingHttpClientConnectionManager syncManager = connectionManager;
+                            if (syncManager != null) {
+                                // Close expired connections
+                                syncManager.closeExpiredConnections();
+                                // Optionally, close idle connections
+                                if (maxIdleTime > 0) {
+                                    syncManager.closeIdleConnections(maxIdleTime, TimeUnit.MILLISECONDS);
+                                }
+                            }
+                            PoolingNHttpClientConnectionManager asyncManager = asyncConnectionManager;
+                            if (asyncManager != null) {
+                                asyncManager.closeExpiredConnections();
+                                if (maxIdleTime > 0) {
+                                    asyncManager.closeIdleConnections(maxIdleTime, TimeUnit.MILLISECONDS);
+                                }
                             }
                         }
                     }
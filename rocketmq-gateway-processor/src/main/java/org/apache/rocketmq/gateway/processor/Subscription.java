@@ -1,18 +1,43 @@
 package org.apache.rocketmq.gateway.processor;
 
 import java.io.Serializable;
+import java.util.List;
 
 
 public final class Subscription implements Serializable {
 
     // 应用标识
     private String app;
-    // 回调地址
+    // 回调地址,多个地址以空白分隔,按负载均衡策略选择
     private String callback;
+    // 各回调地址的权重,与回调地址按顺序对应,为空则权重为1
+    private List<Integer> callbackWeights;
+    // 回调地址的负载均衡策略: LEAST_OUTSTANDING, EWMA, WEIGHTED_ROUND_ROBIN,为空则使用全局配置
+    private String callbackBalancer;
+    // 分发的回调地址,每条消息同时投递给回调地址和每个分发地址,各自独立重试,每项也可以是空白分隔的多个地址,为空则不分发
+    private List<String> fanoutCallbacks;
     // tag表达式
     private String tag;
+    // 过滤表达式,语法同RocketMQ的SQL92过滤,按消息属性、KEYS和TAGS过滤,不匹配的消息不回调,为空则不过滤
+    private String filter;
     // Topic
     private String topic;
+    // 生产消息累积等待时间(毫秒),为空则使用全局配置
+    private Integer lingerMs;
+    // 同一批消息同时进行中的回调数上限,为空则使用全局配置
+    private Integer deliveryParallelism;
+    // 每次回调投递的消息数,大于1时以JSON数组批量回调,为空则逐条回调
+    private Integer callbackBatchSize;
+    // 是否顺序消费,同一队列的消息按顺序回调,为空则并发消费
+    private Boolean orderly;
+    // 按key保序投递的通道数,同一key的消息按顺序回调,不同key并行,为空则不按key保序
+    private Integer keyAffinityLanes;
+    // 是否使用独立的消费者,为空则与同一应用的其他订阅共用消费者
+    private Boolean isolated;
+    // 独立消费者的消费线程数,为空则使用客户端默认值
+    private Integer consumeThreads;
+    // 是否由客户端通过网关拉取消费,不需要回调地址,为空则回调推送
+    private Boolean pull;
 
     public String getApp() {
         return app;
@@ -30,6 +55,30 @@ public final class Subscription implements Serializable {
         this.callback = callback;
     }
 
+    public List<Integer> getCallbackWeights() {
+        return callbackWeights;
+    }
+
+    public void setCallbackWeights(List<Integer> callbackWeights) {
+        this.callbackWeights = callbackWeights;
+    }
+
+    public String getCallbackBalancer() {
+        return callbackBalancer;
+    }
+
+    public void setCallbackBalancer(String callbackBalancer) {
+        this.callbackBalancer = callbackBalancer;
+    }
+
+    public List<String> getFanoutCallbacks() {
+        return fanoutCallbacks;
+    }
+
+    public void setFanoutCallbacks(List<String> fanoutCallbacks) {
+        this.fanoutCallbacks = fanoutCallbacks;
+    }
+
     public String getTag() {
         return tag;
     }
@@ -38,6 +87,14 @@ public final class Subscription implements Serializable {
         this.tag = tag;
     }
 
+    public String getFilter() {
+        return filter;
+    }
+
+    public void setFilter(String filter) {
+        this.filter = filter;
+    }
+
     public String getTopic() {
         return topic;
     }
@@ -46,6 +103,70 @@ public final class Subscription implements Serializable {
         this.topic = topic;
     }
 
+    public Integer getLingerMs() {
+        return lingerMs;
+    }
+
+    public void setLingerMs(Integer lingerMs) {
+        this.lingerMs = lingerMs;
+    }
+
+    public Integer getDeliveryParallelism() {
+        return deliveryParallelism;
+    }
+
+    public void setDeliveryParallelism(Integer deliveryParallelism) {
+        this.deliveryParallelism = deliveryParallelism;
+    }
+
+    public Integer getCallbackBatchSize() {
+        return callbackBatchSize;
+    }
+
+    public void setCallbackBatchSize(Integer callbackBatchSize) {
+        this.callbackBatchSize = callbackBatchSize;
+    }
+
+    public Boolean getOrderly() {
+        return orderly;
+    }
+
+    public void setOrderly(Boolean orderly) {
+        this.orderly = orderly;
+    }
+
+    public Integer getKeyAffinityLanes() {
+        return keyAffinityLanes;
+    }
+
+    public void setKeyAffinityLanes(Integer keyAffinityLanes) {
+        this.keyAffinityLanes = keyAffinityLanes;
+    }
+
+    public Boolean getIsolated() {
+        return isolated;
+    }
+
+    public void setIsolated(Boolean isolated) {
+        this.isolated = isolated;
+    }
+
+    public Integer getConsumeThreads() {
+        return consumeThreads;
+    }
+
+    public void setConsumeThreads(Integer consumeThreads) {
+        this.consumeThreads = consumeThreads;
+    }
+
+    public Boolean getPull() {
+        return pull;
+    }
+
+    public void setPull(Boolean pull) {
+        this.pull = pull;
+    }
+
     @Override
     public int hashCode() {
         return 31 * app.hashCode() + topic.hashCode();
@@ -2,6 +2,7 @@ package org.apache.rocketmq.gateway.processor;
 
 import com.alibaba.fastjson.JSON;
 import org.apache.rocketmq.gateway.processor.consumer.ConsumerManager;
+import org.apache.rocketmq.gateway.processor.consumer.PullConsumerManager;
 import org.apache.rocketmq.gateway.processor.producer.ProducerManager;
 
 import java.util.List;
@@ -11,13 +12,16 @@ public class SubscriptionChangeWatcher {
 
     private ProducerManager producerManager;
     private ConsumerManager consumerManager;
+    private PullConsumerManager pullConsumerManager;
 
     private static final String PRODUCER_SUBSCRIPTION_DATA_DEMO = "[{\"app\":\"gateway_demo\", \"topic\":\"test\"}]";
     private static final String CONSUME_SUBSCRIPTION_DATA_DEMO = "[{\"app\":\"gateway_demo\",\"callback\":\"http://www.baidu.com/index.do\",\"tag\":\"\",\"topic\":\"test\"}]";
 
-    public SubscriptionChangeWatcher(ProducerManager producerManager, ConsumerManager consumerManager) {
+    public SubscriptionChangeWatcher(ProducerManager producerManager, ConsumerManager consumerManager,
+                                     PullConsumerManager pullConsumerManager) {
         this.producerManager = producerManager;
         this.consumerManager = consumerManager;
+        this.pullConsumerManager = pullConsumerManager;
     }
 
     public void init() {
@@ -33,6 +37,7 @@ public class SubscriptionChangeWatcher {
     void onConsumerChange() {
         List<Subscription> subscriptions = JSON.parseArray(CONSUME_SUBSCRIPTION_DATA_DEMO, Subscription.class);
         consumerManager.onSubscription(subscriptions);
+        pullConsumerManager.onSubscription(subscriptions);
     }
 
 }
@@ -0,0 +1,317 @@
+package org.apache.rocketmq.gateway.processor.consumer;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.rocketmq.gateway.common.utils.URL;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 回调地址的负载均衡
+ * <p>
+ * 订阅的回调地址可以是空白分隔的多个地址（URL中不会出现未编码的空白，查询参数中的逗号不受影响），每次回调按策略选择一个地址：
+ * LEAST_OUTSTANDING按权重选择进行中回调最少的地址；EWMA按回调延迟的指数加权平均乘以进行中的回调数选择，
+ * 延迟升高时立即生效，之后按时间衰减；WEIGHTED_ROUND_ROBIN按权重平滑轮询。
+ * <p>
+ * 熔断打开的地址不参与选择，半开时只放行试探回调，所有地址都不可用时回调按熔断处理。
+ */
+final class CallbackBalancer {
+
+    private static final Logger logger = LoggerFactory.getLogger(CallbackBalancer.class);
+
+    // 回调地址的分隔符,URL中的空白必须编码,不会与地址中的字符冲突
+    private static final String CALLBACK_SEPARATOR = "\\s+";
+
+    // 负载均衡策略
+    enum Policy {
+        LEAST_OUTSTANDING,
+        EWMA,
+        WEIGHTED_ROUND_ROBIN
+    }
+
+    private final Policy policy;
+    // 延迟平均值的衰减时间(纳秒)
+    private final long decayNanos;
+    private final Endpoint[] endpoints;
+    // 得分相同时从不同的地址开始比较,避免总是选择第一个地址
+    private final AtomicInteger cursor = new AtomicInteger();
+
+    CallbackBalancer(final String callback, final List<Integer> weights, final Policy policy,
+                     final CircuitBreakers circuitBreakers, final long decayMs) throws UnsupportedEncodingException {
+        List<String> callbacks = split(callback);
+        if (callbacks.isEmpty()) {
+            throw new IllegalArgumentException("callback is null.");
+        }
+
+        this.policy = policy;
+        this.decayNanos = Math.max(1, decayMs) * 1000000L;
+        this.endpoints = new Endpoint[callbacks.size()];
+        for (int i = 0; i < endpoints.length; i++) {
+            int weight = weights != null && i < weights.size() && weights.get(i) != null ? weights.get(i) : 1;
+            URL callbackURL = URL.valueOf(callbacks.get(i));
+            String endpoint = callbackURL.getProtocol() + "://" + callbackURL.getAddress();
+            endpoints[i] = new Endpoint(i, callbacks.get(i), endpoint + encodePath(callbackURL),
+                    circuitBreakers.get(endpoint), Math.max(1, weight));
+        }
+    }
+
+    /**
+     * 解析负载均衡策略，不区分大小写
+     *
+     * @return 为空或无法识别时返回LEAST_OUTSTANDING
+     */
+    static Policy policyOf(final String name) {
+        if (StringUtils.isBlank(name)) {
+            return Policy.LEAST_OUTSTANDING;
+        }
+        try {
+            return Policy.valueOf(name.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            logger.warn("Unknown callback balancer {}, use {}.", name, Policy.LEAST_OUTSTANDING);
+            return Policy.LEAST_OUTSTANDING;
+        }
+    }
+
+    /**
+     * 选择一个回调地址并获得熔断许可，回调完成后必须调用{@link Call#onComplete}
+     *
+     * @return 没有可用的地址返回null
+     */
+    Call select() {
+        boolean[] excluded = null;
+        for (int attempt = 0; attempt < endpoints.length; attempt++) {
+            Endpoint endpoint = endpoints.length == 1 ? endpoints[0] : choose(excluded);
+            if (endpoint == null) {
+                return null;
+            }
+            CircuitBreaker.Permit permit = endpoint.breaker != null ? endpoint.breaker.tryAcquire() : null;
+            if (endpoint.breaker == null || permit != null) {
+                endpoint.outstanding.incrementAndGet();
+                return new Call(endpoint, permit);
+            }
+            // 半开时试探名额已用完,换一个地址
+            if (excluded == null) {
+                excluded = new boolean[endpoints.length];
+            }
+            excluded[endpoint.index] = true;
+        }
+        return null;
+    }
+
+    /**
+     * 所有地址都不可用时，最早恢复的熔断剩余时间
+     *
+     * @return 剩余时间(毫秒)，有地址未熔断返回0
+     */
+    long remainingOpenMs() {
+        long remaining = Long.MAX_VALUE;
+        for (Endpoint endpoint : endpoints) {
+            remaining = Math.min(remaining, endpoint.breaker != null ? endpoint.breaker.remainingOpenMs() : 0);
+        }
+        return remaining;
+    }
+
+    private Endpoint choose(final boolean[] excluded) {
+        if (policy == Policy.WEIGHTED_ROUND_ROBIN) {
+            return roundRobin(excluded);
+        }
+
+        long now = System.nanoTime();
+        int start = (cursor.getAndIncrement() & Integer.MAX_VALUE) % endpoints.length;
+        Endpoint best = null;
+        double bestScore = 0;
+        for (int i = 0; i < endpoints.length; i++) {
+            Endpoint endpoint = endpoints[(start + i) % endpoints.length];
+            if ((excluded != null && excluded[endpoint.index]) || !endpoint.isAvailable()) {
+                continue;
+            }
+            double score = (endpoint.outstanding.get() + 1.0) / endpoint.weight;
+            if (policy == Policy.EWMA) {
+                // 没有延迟数据的地址优先试探
+                score *= endpoint.latency(now) / 1000.0 + 1;
+            }
+            if (best == null || score < bestScore) {
+                best = endpoint;
+                bestScore = score;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * 平滑加权轮询，每次选择当前权重最大的地址，选中后减去总权重
+     */
+    private synchronized Endpoint roundRobin(final boolean[] excluded) {
+        Endpoint best = null;
+        int total = 0;
+        for (Endpoint endpoint : endpoints) {
+            if ((excluded != null && excluded[endpoint.index]) || !endpoint.isAvailable()) {
+                continue;
+            }
+            endpoint.current += endpoint.weight;
+            total += endpoint.weight;
+            if (best == null || endpoint.current > best.current) {
+                best = endpoint;
+            }
+        }
+        if (best != null) {
+            best.current -= total;
+        }
+        return best;
+    }
+
+    private List<String> split(final String callback) {
+        List<String> callbacks = new ArrayList<>();
+        if (callback != null) {
+            for (String item : callback.split(CALLBACK_SEPARATOR)) {
+                if (StringUtils.isNotBlank(item)) {
+                    callbacks.add(item.trim());
+                }
+            }
+        }
+        return callbacks;
+    }
+
+    private static String encodePath(URL url) throws UnsupportedEncodingException {
+        if (StringUtils.isBlank(url.getAbsolutePath())) {
+            return "";
+        }
+        StringBuilder builder = new StringBuilder(url.getAbsolutePath());
+
+        Map<String, String> params = url.getParameters();
+        if (params != null && !params.isEmpty()) {
+            int index = 0;
+            String key, value;
+            for (Map.Entry<String, String> parameter : params.entrySet()) {
+                key = URLEncoder.encode(parameter.getKey(), "UTF-8");
+                value = URLEncoder.encode(parameter.getValue(), "UTF-8");
+
+                if (index == 0) {
+                    builder.append("?");
+                }
+                if (index > 0) {
+                    builder.append("&");
+                }
+                builder.append(key).append("=").append(value);
+                index++;
+            }
+        }
+
+        return builder.toString();
+    }
+
+    /**
+     * 一次回调选中的地址和熔断许可
+     */
+    static final class Call {
+        private final Endpoint endpoint;
+        // 熔断许可,未开启熔断为null
+        private final CircuitBreaker.Permit permit;
+
+        private Call(final Endpoint endpoint, final CircuitBreaker.Permit permit) {
+            this.endpoint = endpoint;
+            this.permit = permit;
+        }
+
+        String getCallback() {
+            return endpoint.getCallback();
+        }
+
+        String getPath() {
+            return endpoint.getPath();
+        }
+
+        CircuitBreaker.Permit getPermit() {
+            return permit;
+        }
+
+        /**
+         * 回调完成
+         *
+         * @param nanos  回调耗时
+         * @param failed 请求是否失败，应答表示消费失败不算
+         */
+        void onComplete(final long nanos, final boolean failed) {
+            endpoint.onComplete(nanos, failed);
+        }
+    }
+
+    /**
+     * 一个回调地址和它的负载
+     */
+    private final class Endpoint {
+        private final int index;
+        // 订阅配置的回调地址
+        private final String callback;
+        // 编码后的请求地址
+        private final String path;
+        // 按协议://主机:端口共享的熔断器,未开启熔断为null
+        private final CircuitBreaker breaker;
+        private final int weight;
+        // 进行中的回调数
+        private final AtomicInteger outstanding = new AtomicInteger();
+        // 回调延迟的指数加权平均(纳秒)和更新时间,由this保护
+        private double latency;
+        private long stamp;
+        // 平滑加权轮询的当前权重,由CallbackBalancer保护
+        private int current;
+
+        Endpoint(final int index, final String callback, final String path, final CircuitBreaker breaker, final int weight) {
+            this.index = index;
+            this.callback = callback;
+            this.path = path;
+            this.breaker = breaker;
+            this.weight = weight;
+        }
+
+        String getCallback() {
+            return callback;
+        }
+
+        String getPath() {
+            return path;
+        }
+
+        /**
+         * 回调完成，请求失败时按两倍的平均延迟计入，使失败的地址少分配回调
+         *
+         * @param nanos  回调耗时
+         * @param failed 请求是否失败，应答表示消费失败不算
+         */
+        void onComplete(final long nanos, final boolean failed) {
+            outstanding.decrementAndGet();
+            if (policy != Policy.EWMA) {
+                return;
+            }
+            long now = System.nanoTime();
+            synchronized (this) {
+                double sample = failed ? Math.max(nanos, latency * 2) : nanos;
+                if (sample > latency) {
+                    // 延迟升高立即生效
+                    latency = sample;
+                } else {
+                    double w = Math.exp(-(double) (now - stamp) / decayNanos);
+                    latency = latency * w + sample * (1 - w);
+                }
+                stamp = now;
+            }
+        }
+
+        private boolean isAvailable() {
+            return breaker == null || breaker.remainingOpenMs() == 0;
+        }
+
+        /**
+         * 衰减到当前时间的平均延迟(纳秒)，只衰减不记录
+         */
+        private synchronized double latency(final long now) {
+            return latency * Math.exp(-(double) (now - stamp) / decayNanos);
+        }
+    }
+}
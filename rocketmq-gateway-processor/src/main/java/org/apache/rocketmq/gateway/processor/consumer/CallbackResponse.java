@@ -0,0 +1,113 @@
+package org.apache.rocketmq.gateway.processor.consumer;
+
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.JSONArray;
+import com.alibaba.fastjson.JSONException;
+import com.alibaba.fastjson.JSONObject;
+
+import java.util.Arrays;
+
+/**
+ * 消费回调应答约定
+ * <p>
+ * 回调接口返回HTTP 200，且应答消息体为以下之一时表示消费成功，其他情况均视为失败，消息稍后重试：
+ * <ul>
+ * <li>文本 {@code 200}</li>
+ * <li>JSON对象，{@code code} 为200，如 {@code {"code":200}}</li>
+ * </ul>
+ * 批量回调时，成功应答表示整批消费成功；也可以在 {@code results} 中按下标返回每条消息的结果，
+ * 如 {@code {"code":207,"results":[{"index":0,"code":200},{"index":1,"code":500}]}}，
+ * 未返回结果的消息视为失败。
+ */
+final class CallbackResponse {
+
+    // 成功应答码
+    static final int SUCCESS = 200;
+
+    private static final String SUCCESS_TEXT = String.valueOf(SUCCESS);
+
+    private static final String FIELD_CODE = "code";
+
+    private static final String FIELD_RESULTS = "results";
+
+    private static final String FIELD_INDEX = "index";
+
+    private CallbackResponse() {
+    }
+
+    /**
+     * 应答消息体是否表示消费成功
+     *
+     * @param content 应答消息体
+     * @return 成功返回true
+     */
+    static boolean isSuccess(final String content) {
+        if (content == null) {
+            return false;
+        }
+        String text = content.trim();
+        if (text.isEmpty()) {
+            return false;
+        }
+        if (text.charAt(0) != '{') {
+            return SUCCESS_TEXT.equals(text);
+        }
+
+        try {
+            JSONObject json = JSON.parseObject(text);
+            return json != null && isSuccessCode(json.get(FIELD_CODE));
+        } catch (JSONException e) {
+            return false;
+        }
+    }
+
+    /**
+     * 解析批量回调的应答
+     *
+     * @param content 应答消息体
+     * @param size    批量消息数
+     * @return 每条消息是否消费成功，下标与回调消息数组一致
+     */
+    static boolean[] results(final String content, final int size) {
+        boolean[] results = new boolean[size];
+        if (content == null) {
+            return results;
+        }
+        String text = content.trim();
+        if (text.isEmpty()) {
+            return results;
+        }
+        if (text.charAt(0) != '{') {
+            Arrays.fill(results, SUCCESS_TEXT.equals(text));
+            return results;
+        }
+
+        try {
+            JSONObject json = JSON.parseObject(text);
+            if (json == null) {
+                return results;
+            }
+            JSONArray items = json.getJSONArray(FIELD_RESULTS);
+            if (items == null) {
+                Arrays.fill(results, isSuccessCode(json.get(FIELD_CODE)));
+                return results;
+            }
+            for (int i = 0; i < items.size(); i++) {
+                JSONObject item = items.getJSONObject(i);
+                Integer index = item != null ? item.getInteger(FIELD_INDEX) : null;
+                if (index != null && index >= 0 && index < size) {
+                    results[index] = isSuccessCode(item.get(FIELD_CODE));
+                }
+            }
+            return results;
+        } catch (JSONException | ClassCastException | NumberFormatException e) {
+            // 应答格式不符合约定,整批视为失败
+            return new boolean[size];
+        }
+    }
+
+    private static boolean isSuccessCode(final Object code) {
+        return code != null && SUCCESS_TEXT.equals(code.toString().trim());
+    }
+
+}
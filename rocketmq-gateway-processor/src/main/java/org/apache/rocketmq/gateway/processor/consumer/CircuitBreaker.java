@@ -0,0 +1,222 @@
+package org.apache.rocketmq.gateway.processor.consumer;
+
+import org.apache.rocketmq.gateway.common.GatewayConfig;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 回调地址的熔断器
+ * <p>
+ * 关闭时统计最近windowSize次回调，失败率达到阈值后打开，打开期间的回调立即失败；
+ * 打开到期后半开，放行halfOpenCalls次试探回调，全部成功则关闭，任意一次失败则重新打开。
+ * 每次回调持有获得的许可，只有本轮半开放行的试探回调决定关闭或重新打开，打开前发起的回调结果不再计入。
+ * <p>
+ * 连接失败、超时和5xx/429应答算作失败，回调应答内容表示消费失败不算，此时回调地址是可用的。
+ */
+final class CircuitBreaker {
+
+    private static final Logger logger = LoggerFactory.getLogger(CircuitBreaker.class);
+
+    // 熔断状态
+    enum State {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+
+    // 回调地址
+    private final String endpoint;
+    // 窗口内至少多少次回调才判断熔断
+    private final int minCalls;
+    // 失败率阈值(百分比)
+    private final int failureRatePercent;
+    // 打开持续时间(毫秒)
+    private final long openMs;
+    // 半开时的试探回调数
+    private final int halfOpenCalls;
+
+    // 滑动窗口,最近的回调是否失败
+    private final boolean[] window;
+    // 下一次回调在窗口中的位置
+    private int index;
+    // 窗口内的回调数
+    private int calls;
+    // 窗口内的失败数
+    private int failures;
+    // 半开时剩余的试探回调数
+    private int halfOpenPermits;
+    // 半开时成功的试探回调数
+    private int halfOpenSuccesses;
+    // 半开轮次,区分本轮的试探回调和之前的回调
+    private long probeRound;
+    // 关闭时的回调共用一个许可
+    private final Permit closedPermit = new Permit(0);
+
+    private volatile State state = State.CLOSED;
+    // 打开截止时间
+    private volatile long openUntil;
+
+    // 状态切换和拒绝次数
+    private final AtomicLong opened = new AtomicLong();
+    private final AtomicLong halfOpened = new AtomicLong();
+    private final AtomicLong closed = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+
+    CircuitBreaker(final String endpoint, final GatewayConfig config) {
+        this.endpoint = endpoint;
+        this.window = new boolean[Math.max(1, config.getConsumeCircuitBreakerWindowSize())];
+        this.minCalls = Math.max(1, Math.min(config.getConsumeCircuitBreakerMinCalls(), window.length));
+        this.failureRatePercent = config.getConsumeCircuitBreakerFailureRatePercent();
+        this.openMs = config.getConsumeCircuitBreakerOpenMs();
+        this.halfOpenCalls = Math.max(1, config.getConsumeCircuitBreakerHalfOpenCalls());
+    }
+
+    /**
+     * 获得回调许可，回调完成后必须调用许可的onSuccess或onFailure
+     *
+     * @return 不允许回调返回null
+     */
+    Permit tryAcquire() {
+        if (state == State.CLOSED) {
+            return closedPermit;
+        }
+        synchronized (this) {
+            if (state == State.OPEN) {
+                if (System.currentTimeMillis() < openUntil) {
+                    rejected.incrementAndGet();
+                    return null;
+                }
+                halfOpenPermits = halfOpenCalls;
+                halfOpenSuccesses = 0;
+                probeRound++;
+                transition(State.HALF_OPEN);
+                halfOpened.incrementAndGet();
+            }
+            if (state == State.HALF_OPEN) {
+                if (halfOpenPermits > 0) {
+                    halfOpenPermits--;
+                    return new Permit(probeRound);
+                }
+                rejected.incrementAndGet();
+                return null;
+            }
+            return closedPermit;
+        }
+    }
+
+    private synchronized void onSuccess(final long round) {
+        if (round == 0) {
+            // 关闭时发起的回调,熔断打开后完成的不再计入
+            if (state == State.CLOSED) {
+                record(false);
+            }
+        } else if (state == State.HALF_OPEN && round == probeRound) {
+            if (++halfOpenSuccesses >= halfOpenCalls) {
+                close();
+            }
+        }
+    }
+
+    private synchronized void onFailure(final long round) {
+        if (round == 0) {
+            if (state == State.CLOSED) {
+                record(true);
+                if (calls >= minCalls && failures * 100 >= failureRatePercent * calls) {
+                    open();
+                }
+            }
+        } else if (state == State.HALF_OPEN && round == probeRound) {
+            open();
+        }
+    }
+
+    private void record(final boolean failed) {
+        if (calls == window.length) {
+            if (window[index]) {
+                failures--;
+            }
+        } else {
+            calls++;
+        }
+        window[index] = failed;
+        if (failed) {
+            failures++;
+        }
+        index = (index + 1) % window.length;
+    }
+
+    private void open() {
+        openUntil = System.currentTimeMillis() + openMs;
+        transition(State.OPEN);
+        opened.incrementAndGet();
+    }
+
+    private void close() {
+        calls = 0;
+        failures = 0;
+        index = 0;
+        transition(State.CLOSED);
+        closed.incrementAndGet();
+    }
+
+    private void transition(final State target) {
+        State prev = state;
+        state = target;
+        if (target == State.OPEN) {
+            logger.warn("Circuit breaker of callback[{}] {} -> {}, failures {}/{}, open {}ms.",
+                    endpoint, prev, target, failures, calls, openMs);
+        } else {
+            logger.info("Circuit breaker of callback[{}] {} -> {}.", endpoint, prev, target);
+        }
+    }
+
+    /**
+     * 打开的剩余时间
+     *
+     * @return 剩余时间(毫秒)，未打开返回0
+     */
+    long remainingOpenMs() {
+        return state == State.OPEN ? Math.max(0, openUntil - System.currentTimeMillis()) : 0;
+    }
+
+    String getEndpoint() {
+        return endpoint;
+    }
+
+    synchronized CircuitBreakerState snapshot() {
+        CircuitBreakerState snapshot = new CircuitBreakerState();
+        snapshot.setEndpoint(endpoint);
+        snapshot.setState(state.name());
+        snapshot.setCalls(calls);
+        snapshot.setFailureRate(calls > 0 ? failures * 100 / calls : 0);
+        snapshot.setOpenUntil(state == State.OPEN ? openUntil : 0);
+        snapshot.setOpened(opened.get());
+        snapshot.setHalfOpened(halfOpened.get());
+        snapshot.setClosed(closed.get());
+        snapshot.setRejected(rejected.get());
+        return snapshot;
+    }
+
+    /**
+     * 一次回调的许可
+     */
+    final class Permit {
+        // 试探回调的半开轮次,关闭时的回调为0
+        private final long round;
+
+        private Permit(final long round) {
+            this.round = round;
+        }
+
+        void onSuccess() {
+            CircuitBreaker.this.onSuccess(round);
+        }
+
+        void onFailure() {
+            CircuitBreaker.this.onFailure(round);
+        }
+    }
+
+}
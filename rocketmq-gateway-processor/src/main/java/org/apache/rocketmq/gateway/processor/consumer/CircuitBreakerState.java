@@ -0,0 +1,105 @@
+package org.apache.rocketmq.gateway.processor.consumer;
+
+import com.alibaba.fastjson.JSON;
+
+/**
+ * 回调地址的熔断状态快照，包括状态切换次数
+ */
+public final class CircuitBreakerState {
+
+    // 回调地址
+    private String endpoint;
+    // 熔断状态: CLOSED, OPEN, HALF_OPEN
+    private String state;
+    // 滑动窗口内的回调数
+    private int calls;
+    // 滑动窗口内的失败率(百分比)
+    private int failureRate;
+    // 打开截止时间,未打开为0
+    private long openUntil;
+    // 打开次数
+    private long opened;
+    // 半开次数
+    private long halfOpened;
+    // 恢复次数
+    private long closed;
+    // 拒绝的回调数
+    private long rejected;
+
+    public String getEndpoint() {
+        return endpoint;
+    }
+
+    public void setEndpoint(String endpoint) {
+        this.endpoint = endpoint;
+    }
+
+    public String getState() {
+        return state;
+    }
+
+    public void setState(String state) {
+        this.state = state;
+    }
+
+    public int getCalls() {
+        return calls;
+    }
+
+    public void setCalls(int calls) {
+        this.calls = calls;
+    }
+
+    public int getFailureRate() {
+        return failureRate;
+    }
+
+    public void setFailureRate(int failureRate) {
+        this.failureRate = failureRate;
+    }
+
+    public long getOpenUntil() {
+        return openUntil;
+    }
+
+    public void setOpenUntil(long openUntil) {
+        this.openUntil = openUntil;
+    }
+
+    public long getOpened() {
+        return opened;
+    }
+
+    public void setOpened(long opened) {
+        this.opened = opened;
+    }
+
+    public long getHalfOpened() {
+        return halfOpened;
+    }
+
+    public void setHalfOpened(long halfOpened) {
+        this.halfOpened = halfOpened;
+    }
+
+    public long getClosed() {
+        return closed;
+    }
+
+    public void setClosed(long closed) {
+        this.closed = closed;
+    }
+
+    public long getRejected() {
+        return rejected;
+    }
+
+    public void setRejected(long rejected) {
+        this.rejected = rejected;
+    }
+
+    @Override
+    public String toString() {
+        return JSON.toJSONString(this);
+    }
+}
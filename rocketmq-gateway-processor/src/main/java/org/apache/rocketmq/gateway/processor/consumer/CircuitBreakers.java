@@ -0,0 +1,50 @@
+package org.apache.rocketmq.gateway.processor.consumer;
+
+import org.apache.rocketmq.gateway.common.GatewayConfig;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 按回调地址(协议://主机:端口)共享的熔断器，同一地址的订阅使用同一个熔断器
+ */
+final class CircuitBreakers {
+
+    private final GatewayConfig gatewayConfig;
+
+    private final ConcurrentHashMap<String /* endpoint */, CircuitBreaker> breakers = new ConcurrentHashMap<>();
+
+    CircuitBreakers(final GatewayConfig gatewayConfig) {
+        this.gatewayConfig = gatewayConfig;
+    }
+
+    /**
+     * 获取回调地址的熔断器
+     *
+     * @param endpoint 回调地址
+     * @return 熔断器，未开启熔断返回null
+     */
+    CircuitBreaker get(final String endpoint) {
+        if (!gatewayConfig.isConsumeCircuitBreakerEnabled()) {
+            return null;
+        }
+        CircuitBreaker breaker = breakers.get(endpoint);
+        if (breaker == null) {
+            breaker = new CircuitBreaker(endpoint, gatewayConfig);
+            CircuitBreaker prev = breakers.putIfAbsent(endpoint, breaker);
+            if (prev != null) {
+                breaker = prev;
+            }
+        }
+        return breaker;
+    }
+
+    List<CircuitBreakerState> states() {
+        List<CircuitBreakerState> states = new ArrayList<>(breakers.size());
+        for (CircuitBreaker breaker : breakers.values()) {
+            states.add(breaker.snapshot());
+        }
+        return states;
+    }
+}
@@ -1,7 +1,9 @@
 package org.apache.rocketmq.gateway.processor.consumer;
 
 import org.apache.commons.lang3.StringUtils;
-import org.apache.rocketmq.client.consumer.listener.MessageListener;
+
+import java.util.Collections;
+import java.util.List;
 
 class ConsumeSubscription {
 
@@ -11,13 +13,19 @@ class ConsumeSubscription {
 
     private String tag;
 
-    private MessageListener listener;
+    private HttpCallbackDelivery listener;
+
+    // 过滤表达式,不匹配的消息不回调,为空则不过滤
+    private MessageFilter filter;
+
+    // 分发目标的监听器,与listener同时投递,各自重试
+    private List<HttpCallbackDelivery> fanoutListeners = Collections.emptyList();
 
     public ConsumeSubscription() {
         // nothing to do.
     }
 
-    public ConsumeSubscription(String topic, String tag, MessageListener listener) {
+    public ConsumeSubscription(String topic, String tag, HttpCallbackDelivery listener) {
         setTopic(topic);
         setTag(tag);
         setListener(listener);
@@ -47,17 +55,33 @@ class ConsumeSubscription {
         }
     }
 
-    public MessageListener getListener() {
+    public HttpCallbackDelivery getListener() {
         return listener;
     }
 
-    public void setListener(MessageListener listener) {
+    public void setListener(HttpCallbackDelivery listener) {
         if (listener == null) {
             throw new IllegalArgumentException("listener is null.");
         }
         this.listener = listener;
     }
 
+    public MessageFilter getFilter() {
+        return filter;
+    }
+
+    public void setFilter(MessageFilter filter) {
+        this.filter = filter;
+    }
+
+    public List<HttpCallbackDelivery> getFanoutListeners() {
+        return fanoutListeners;
+    }
+
+    public void setFanoutListeners(List<HttpCallbackDelivery> fanoutListeners) {
+        this.fanoutListeners = fanoutListeners != null ? fanoutListeners : Collections.<HttpCallbackDelivery>emptyList();
+    }
+
     @Override
     public int hashCode() {
         int hash = topic.hashCode();
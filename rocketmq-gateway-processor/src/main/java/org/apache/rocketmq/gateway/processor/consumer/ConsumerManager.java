@@ -2,50 +2,169 @@ package org.apache.rocketmq.gateway.processor.consumer;
 
 import org.apache.commons.collections4.CollectionUtils;
 import org.apache.commons.lang3.StringUtils;
-import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
 import org.apache.rocketmq.client.consumer.DefaultMQPushConsumer;
+import org.apache.rocketmq.client.consumer.MessageSelector;
 import org.apache.rocketmq.client.consumer.listener.ConsumeConcurrentlyContext;
 import org.apache.rocketmq.client.consumer.listener.ConsumeConcurrentlyStatus;
+import org.apache.rocketmq.client.consumer.listener.ConsumeOrderlyContext;
+import org.apache.rocketmq.client.consumer.listener.ConsumeOrderlyStatus;
 import org.apache.rocketmq.client.consumer.listener.MessageListenerConcurrently;
+import org.apache.rocketmq.client.consumer.listener.MessageListenerOrderly;
+import org.apache.rocketmq.client.consumer.store.OffsetStore;
+import org.apache.rocketmq.client.exception.MQBrokerException;
 import org.apache.rocketmq.client.exception.MQClientException;
+import org.apache.rocketmq.client.impl.FindBrokerResult;
+import org.apache.rocketmq.client.impl.MQClientManager;
+import org.apache.rocketmq.client.impl.consumer.DefaultMQPushConsumerImpl;
+import org.apache.rocketmq.client.impl.factory.MQClientInstance;
+import org.apache.rocketmq.common.MixAll;
 import org.apache.rocketmq.common.message.MessageExt;
+import org.apache.rocketmq.common.message.MessageQueue;
+import org.apache.rocketmq.common.protocol.ResponseCode;
+import org.apache.rocketmq.common.protocol.header.QueryConsumerOffsetRequestHeader;
+import org.apache.rocketmq.common.protocol.header.UpdateConsumerOffsetRequestHeader;
+import org.apache.rocketmq.common.protocol.route.TopicRouteData;
 import org.apache.rocketmq.gateway.common.GatewayConfig;
 import org.apache.rocketmq.gateway.common.utils.Service;
 import org.apache.rocketmq.gateway.processor.Subscription;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
 import java.io.UnsupportedEncodingException;
+import java.lang.management.ManagementFactory;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
 
-public final class ConsumerManager {
+public final class ConsumerManager implements ConsumerManagerMXBean {
 
     private static final Logger logger = LoggerFactory.getLogger(ConsumerManager.class);
 
+    // 消费状态的JMX名称
+    private static final String MBEAN_NAME = "org.apache.rocketmq.gateway:type=ConsumerManager";
+
+    // 客户端允许的最大消费批次
+    private static final int MAX_CONSUME_BATCH_SIZE = 1024;
+    // 顺序订阅的消费组后缀,一个消费者只能注册一种监听器,顺序订阅使用单独的消费组
+    private static final String ORDERLY_GROUP_SUFFIX = "_ORDERLY";
+    // 客户端允许的最大消费线程数
+    private static final int MAX_CONSUME_THREADS = 1000;
+    // 客户端允许的最长队列挂起时间(毫秒)
+    private static final long MAX_SUSPEND_MS = 30000;
+    // 迁移订阅时查询和提交位点的超时时间(毫秒)
+    private static final long OFFSET_TIMEOUT_MS = 3000;
+
     private GatewayConfig gatewayConfig;
-    private final CloseableHttpClient httpClient;
+    private final CloseableHttpAsyncClient httpClient;
+
+    private final ConcurrentHashMap<String /* group */, InternalConsumer> consumerMap = new ConcurrentHashMap<>();
+
+    private final CircuitBreakers circuitBreakers;
 
-    private final ConcurrentHashMap<String /* app */, InternalConsumer> consumerMap = new ConcurrentHashMap<>();
+    // 全局回调并发限制,未开启共享回调为null
+    private final DeliveryLimiter deliveryLimiter;
 
-    public ConsumerManager(final GatewayConfig gatewayConfig, final CloseableHttpClient httpClient) {
+    private FlowControlThread flowControlThread;
+
+    // 本地重试,未开启为null
+    private LocalRetryScheduler localRetryScheduler;
+
+    public ConsumerManager(final GatewayConfig gatewayConfig, final CloseableHttpAsyncClient httpClient) {
         this.gatewayConfig = gatewayConfig;
         this.httpClient = httpClient;
+        this.circuitBreakers = new CircuitBreakers(gatewayConfig);
+        this.deliveryLimiter = gatewayConfig.isConsumeSharedDeliveryEnabled()
+                ? new DeliveryLimiter(gatewayConfig.getConsumeSharedMaxInflight()) : null;
+    }
+
+    public void start() {
+        if (gatewayConfig.isConsumeFlowControlEnabled()) {
+            flowControlThread = new FlowControlThread("consumer-flow-control");
+            flowControlThread.setDaemon(true);
+            flowControlThread.start();
+        }
+        if (gatewayConfig.isConsumeLocalRetryEnabled()) {
+            localRetryScheduler = new LocalRetryScheduler(gatewayConfig);
+            localRetryScheduler.start();
+        }
+        registerMBean();
+    }
+
+    /**
+     * 注册JMX，运维通过JMX查看流控和熔断状态，注册失败不影响消费
+     */
+    private void registerMBean() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(MBEAN_NAME);
+            if (!server.isRegistered(name)) {
+                server.registerMBean(this, name);
+            }
+        } catch (Exception e) {
+            logger.warn(String.format("register mbean %s error.", MBEAN_NAME), e);
+        }
+    }
+
+    private void unregisterMBean() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(MBEAN_NAME);
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+        } catch (Exception e) {
+            logger.warn(String.format("unregister mbean %s error.", MBEAN_NAME), e);
+        }
+    }
+
+    @Override
+    public List<FlowControlState> getFlowControlStates() {
+        List<FlowControlState> states = new ArrayList<>();
+        for (InternalConsumer consumer : consumerMap.values()) {
+            Map<String, ConsumeSubscription> subscriptionMap = consumer.subscriptionMap;
+            if (subscriptionMap == null) {
+                continue;
+            }
+            for (ConsumeSubscription subscription : subscriptionMap.values()) {
+                for (HttpCallbackDelivery listener : listenersOf(subscription)) {
+                    states.add(listener.getFlowController().snapshot());
+                }
+            }
+        }
+        return states;
+    }
+
+    @Override
+    public List<CircuitBreakerState> getCircuitBreakerStates() {
+        return circuitBreakers.states();
     }
 
     public void onSubscription(List<Subscription> subscriptions) {
-        Map<String /* app */, List<Subscription>> appSubscriptions = subscriptions.stream()
-                .collect(Collectors.groupingBy(Subscription::getApp));
+        // 拉取消费的订阅由PullConsumerManager处理
+        Map<String /* group */, List<Subscription>> groupSubscriptions = subscriptions.stream()
+                .filter(ConsumerManager::isPush)
+                .collect(Collectors.groupingBy(ConsumerManager::groupOf));
+
+        // 消费组变化的订阅先从原消费组释放并提交位点,新消费组从该位点继续消费
+        release(groupSubscriptions);
 
-        // 处理每个应用的订阅信息
-        if (appSubscriptions == null || appSubscriptions.isEmpty()) {
+        // 处理每个消费组的订阅信息
+        if (groupSubscriptions == null || groupSubscriptions.isEmpty()) {
             logger.info("No subscription for gateway.");
 
         } else {
-            for (Map.Entry<String, List<Subscription>> entry : appSubscriptions.entrySet()) {
+            for (Map.Entry<String, List<Subscription>> entry : groupSubscriptions.entrySet()) {
                 try {
                     onSubscription(entry.getKey(), entry.getValue());
                 } catch (MQClientException e) {
@@ -58,26 +177,140 @@ public final class ConsumerManager {
             }
         }
 
-        // 停止取消订阅的应用
-        Set<String> apps = (appSubscriptions != null && !appSubscriptions.isEmpty()) ? appSubscriptions.keySet() : null;
+        // 停止取消订阅的消费组
+        Set<String> groups = (groupSubscriptions != null && !groupSubscriptions.isEmpty()) ? groupSubscriptions.keySet() : null;
         Iterator<Map.Entry<String, InternalConsumer>> iterator = consumerMap.entrySet().iterator();
         while (iterator.hasNext()) {
             Map.Entry<String, InternalConsumer> entry = iterator.next();
-            String app = entry.getKey();
-            if (apps == null || !apps.contains(app)) {
+            String group = entry.getKey();
+            if (groups == null || !groups.contains(group)) {
                 entry.getValue().stop();
                 iterator.remove();
 
-                logger.info("Stop consumer[{}] and remove it.", app);
+                logger.info("Stop consumer[{}] and remove it.", group);
             }
         }
     }
 
-    private void onSubscription(String app, List<Subscription> newSubscriptions) throws Exception {
-        InternalConsumer consumer = consumerMap.get(app);
+    /**
+     * 从原消费组释放消费组变化的订阅，过滤表达式有误的订阅保留在原消费组
+     */
+    private void release(Map<String, List<Subscription>> groupSubscriptions) {
+        Map<String /* app@topic */, String /* group */> targets = new HashMap<>();
+        for (Map.Entry<String, List<Subscription>> entry : groupSubscriptions.entrySet()) {
+            for (Subscription subscription : entry.getValue()) {
+                try {
+                    MessageFilter.compile(subscription.getFilter());
+                    targets.put(subscription.getApp() + "@" + subscription.getTopic(), entry.getKey());
+                } catch (IllegalArgumentException e) {
+                    // 由validate记录日志
+                }
+            }
+        }
+        for (Map.Entry<String, InternalConsumer> entry : consumerMap.entrySet()) {
+            InternalConsumer consumer = entry.getValue();
+            for (Subscription subscription : consumer.subscriptions) {
+                String target = targets.get(subscription.getApp() + "@" + subscription.getTopic());
+                if (target != null && !target.equals(entry.getKey())) {
+                    consumer.release(subscription, target);
+                }
+            }
+        }
+    }
+
+    /**
+     * 订阅所属的消费组，并发订阅使用应用标识，顺序订阅使用应用标识加后缀，独立订阅再加上主题
+     */
+    private static String groupOf(Subscription subscription) {
+        return groupOf(subscription.getApp(), subscription.getTopic(), isIsolated(subscription), isOrderly(subscription));
+    }
+
+    private static String groupOf(String app, String topic, boolean isolated, boolean orderly) {
+        String group = isolated ? app + "_" + topic : app;
+        return orderly ? group + ORDERLY_GROUP_SUFFIX : group;
+    }
+
+    /**
+     * 订阅切换独立或顺序消费前后可能所在的其他消费组，迁入时从这些消费组迁移位点
+     */
+    private static List<String> otherGroupsOf(Subscription subscription) {
+        List<String> groups = new ArrayList<>(3);
+        String group = groupOf(subscription);
+        for (boolean isolated : new boolean[]{false, true}) {
+            for (boolean orderly : new boolean[]{false, true}) {
+                String other = groupOf(subscription.getApp(), subscription.getTopic(), isolated, orderly);
+                if (!other.equals(group)) {
+                    groups.add(other);
+                }
+            }
+        }
+        return groups;
+    }
+
+    /**
+     * 查询消费组已提交的位点
+     *
+     * @return 位点，没有提交过返回-1
+     */
+    private static long queryOffset(MQClientInstance client, String brokerAddr, String group, MessageQueue mq)
+            throws Exception {
+        QueryConsumerOffsetRequestHeader header = new QueryConsumerOffsetRequestHeader();
+        header.setConsumerGroup(group);
+        header.setTopic(mq.getTopic());
+        header.setQueueId(mq.getQueueId());
+        try {
+            return client.getMQClientAPIImpl().queryConsumerOffset(brokerAddr, header, OFFSET_TIMEOUT_MS);
+        } catch (MQBrokerException e) {
+            if (e.getResponseCode() == ResponseCode.QUERY_NOT_FOUND) {
+                return -1;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * 订阅的回调监听器和分发目标的监听器
+     */
+    private static List<HttpCallbackDelivery> listenersOf(ConsumeSubscription subscription) {
+        List<HttpCallbackDelivery> listeners = new ArrayList<>(1 + subscription.getFanoutListeners().size());
+        listeners.add(subscription.getListener());
+        listeners.addAll(subscription.getFanoutListeners());
+        return listeners;
+    }
+
+    private static boolean isPush(Subscription subscription) {
+        return !Boolean.TRUE.equals(subscription.getPull());
+    }
+
+    private static boolean isOrderly(Subscription subscription) {
+        return Boolean.TRUE.equals(subscription.getOrderly());
+    }
+
+    private static boolean isIsolated(Subscription subscription) {
+        return Boolean.TRUE.equals(subscription.getIsolated());
+    }
+
+    private void onSubscription(String group, List<Subscription> newSubscriptions) throws Exception {
+        newSubscriptions = validate(group, newSubscriptions);
+        if (newSubscriptions.isEmpty()) {
+            return;
+        }
+        Subscription first = newSubscriptions.get(0);
+        // 共用的消费者使用客户端默认的线程数,共享回调时消费线程只等待异步回调,保留少量即可
+        Integer consumeThreads = isIsolated(first) ? first.getConsumeThreads()
+                : deliveryLimiter != null ? Integer.valueOf(gatewayConfig.getConsumeSharedThreads()) : null;
+        InternalConsumer consumer = consumerMap.get(group);
+        if (consumer != null && !Objects.equals(consumer.requestedThreads, consumeThreads)) {
+            // 消费线程数在消费者启动后不能修改,重新创建消费者
+            consumer.stop();
+            consumerMap.remove(group, consumer);
+            consumer = null;
+
+            logger.info("Consume threads of consumer[{}] changed, recreate it.", group);
+        }
         if (consumer == null) {
-            consumer = new InternalConsumer(app);
-            InternalConsumer prev = consumerMap.putIfAbsent(app, consumer);
+            consumer = new InternalConsumer(first.getApp(), group, isOrderly(first), consumeThreads);
+            InternalConsumer prev = consumerMap.putIfAbsent(group, consumer);
             if (prev != null) {
                 consumer = prev;
             }
@@ -94,7 +327,14 @@ public final class ConsumerManager {
                 // 内存和db中都有订阅关系
                 if (newTopicSubscription != null) {
                     if (!oldSubscription.getTag().equals(newTopicSubscription.getTag())
-                            || !oldSubscription.getCallback().equals(newTopicSubscription.getCallback())) {
+                            || !oldSubscription.getCallback().equals(newTopicSubscription.getCallback())
+                            || !Objects.equals(oldSubscription.getCallbackWeights(), newTopicSubscription.getCallbackWeights())
+                            || !Objects.equals(oldSubscription.getCallbackBalancer(), newTopicSubscription.getCallbackBalancer())
+                            || !Objects.equals(oldSubscription.getFanoutCallbacks(), newTopicSubscription.getFanoutCallbacks())
+                            || !Objects.equals(oldSubscription.getFilter(), newTopicSubscription.getFilter())
+                            || !Objects.equals(oldSubscription.getDeliveryParallelism(), newTopicSubscription.getDeliveryParallelism())
+                            || !Objects.equals(oldSubscription.getCallbackBatchSize(), newTopicSubscription.getCallbackBatchSize())
+                            || !Objects.equals(oldSubscription.getKeyAffinityLanes(), newTopicSubscription.getKeyAffinityLanes())) {
                         consumer.unsubscribe(oldSubscription);
                         consumer.subscribe(newTopicSubscription);
                     }
@@ -106,6 +346,14 @@ public final class ConsumerManager {
         Collection<Subscription> adds = CollectionUtils.subtract(newSubscriptions, consumer.subscriptions);
         if (adds != null && !adds.isEmpty()) {
             for (Subscription add : adds) {
+                // 从其他消费组迁入的订阅先迁移位点,失败时本次不订阅,下次加载订阅时重试,避免跳过积压的消息
+                try {
+                    consumer.seedOffsets(add.getTopic(), otherGroupsOf(add));
+                } catch (Exception e) {
+                    logger.error(String.format("Seed offsets of consumer[%s] topic[%s] error, subscribe it next time.",
+                            group, add.getTopic()), e);
+                    continue;
+                }
                 consumer.subscribe(add);
             }
         }
@@ -122,10 +370,45 @@ public final class ConsumerManager {
             consumer.start();
         }
 
-        logger.info("Start consumer[{}] ok.", app);
+        logger.info("Start consumer[{}] ok.", group);
     }
 
-    void stop() {
+    /**
+     * 检查订阅的过滤表达式，有误的订阅不生效：已有同一主题的订阅时保留原订阅，否则跳过，不影响其他订阅；
+     * 有误的订阅不会加入消费者，下次加载订阅时重新检查
+     *
+     * @return 生效的订阅
+     */
+    private List<Subscription> validate(String group, List<Subscription> subscriptions) {
+        InternalConsumer consumer = consumerMap.get(group);
+        List<Subscription> valid = new ArrayList<>(subscriptions.size());
+        for (Subscription subscription : subscriptions) {
+            try {
+                MessageFilter.compile(subscription.getFilter());
+                valid.add(subscription);
+            } catch (IllegalArgumentException e) {
+                Subscription current = consumer != null ? consumer.findSubscription(subscription.getTopic()) : null;
+                logger.error(String.format("Invalid filter[%s] of app[%s] topic[%s], %s.", subscription.getFilter(),
+                        subscription.getApp(), subscription.getTopic(),
+                        current != null ? "keep the current subscription" : "skip it"), e);
+                if (current != null) {
+                    valid.add(current);
+                }
+            }
+        }
+        return valid;
+    }
+
+    public void stop() {
+        unregisterMBean();
+        if (flowControlThread != null) {
+            flowControlThread.shutdown();
+        }
+        // 先把本地重试发回broker,再停止消费者
+        if (localRetryScheduler != null) {
+            localRetryScheduler.stop();
+        }
+
         Iterator<Map.Entry<String, InternalConsumer>> iterator = consumerMap.entrySet().iterator();
         while (iterator.hasNext()) {
             Map.Entry<String, InternalConsumer> entry = iterator.next();
@@ -136,17 +419,42 @@ public final class ConsumerManager {
         }
     }
 
-    public class InternalConsumer extends Service {
+    public class InternalConsumer extends Service implements LocalRetryScheduler.Target {
         private final String app;
+        // 是否顺序消费
+        private final boolean orderly;
         private final DefaultMQPushConsumer consumer;
 
         private List<Subscription> subscriptions;
         private Map<String/*topic*/, ConsumeSubscription> subscriptionMap;
 
-        InternalConsumer(final String app) {
-            this.consumer = new DefaultMQPushConsumer(app);
+        // 订阅指定的消费线程数,为空则使用客户端默认值
+        private final Integer requestedThreads;
+        // 流控不收缩时的消费线程数
+        private final int consumeThreads;
+        // 流控不收缩时的拉取批次
+        private volatile int pullBatchSize;
+        // 是否因所有订阅暂停而挂起,只在流控线程中访问
+        private boolean suspended;
+        // 当前的消费线程数,只在流控线程中访问
+        private int corePoolSize;
+
+        InternalConsumer(final String app, final String group, final boolean orderly, final Integer requestedThreads) {
+            this.consumer = new DefaultMQPushConsumer(group);
             this.consumer.setNamesrvAddr(gatewayConfig.getNameServerAddress());
+            // 顺序消费失败时整批重新消费,默认逐条消费,避免已成功的消息重复回调
+            this.consumer.setConsumeMessageBatchMaxSize(orderly ? 1 : gatewayConfig.getConsumeMessageBatchMaxSize());
             this.app = app;
+            this.orderly = orderly;
+            if (requestedThreads != null && requestedThreads > 0) {
+                this.consumer.setConsumeThreadMin(Math.min(requestedThreads, MAX_CONSUME_THREADS - 1));
+            }
+            // 客户端只能把线程数调整到小于最大线程数,留出余量以便流控收缩后恢复;任务队列无界,线程数不会超过核心线程数
+            this.consumer.setConsumeThreadMax(consumer.getConsumeThreadMin() + 1);
+            this.requestedThreads = requestedThreads;
+            this.consumeThreads = consumer.getConsumeThreadMin();
+            this.corePoolSize = consumeThreads;
+            this.pullBatchSize = consumer.getPullBatchSize();
 
             this.subscriptions = new CopyOnWriteArrayList<>();
             this.subscriptionMap = new ConcurrentHashMap<>();
@@ -154,8 +462,19 @@ public final class ConsumerManager {
 
         public void doStart() throws Exception {
             super.doStart();
-            this.consumer.registerMessageListener(new DefaultMessageListenerConcurrently());
+            if (orderly) {
+                this.consumer.registerMessageListener(new DefaultMessageListenerOrderly());
+            } else {
+                this.consumer.registerMessageListener(new DefaultMessageListenerConcurrently());
+            }
             consumer.start();
+            if (gatewayConfig.isConsumeFilterOnBroker()) {
+                for (ConsumeSubscription subscription : subscriptionMap.values()) {
+                    if (subscription.getFilter() != null) {
+                        subscribeOnBroker(subscription.getTopic(), subscription.getTag(), subscription.getFilter());
+                    }
+                }
+            }
         }
 
         public void doStop() {
@@ -175,15 +494,111 @@ public final class ConsumerManager {
                 throw new MQClientException("topic is null", null);
             }
 
+            // 过滤表达式有误时不加入订阅
+            MessageFilter filter = MessageFilter.compile(subscription.getFilter());
             subscriptions.add(subscription);
-            HttpMessageListenerConcurrently listener =
-                    new HttpMessageListenerConcurrently(callback, topic, tag, app, httpClient, gatewayConfig.getGatewayAddress());
-            ConsumeSubscription old = subscriptionMap.put(topic, new ConsumeSubscription(topic, tag, listener));
+            int parallelism = subscription.getDeliveryParallelism() != null
+                    ? subscription.getDeliveryParallelism() : gatewayConfig.getConsumeDeliveryParallelism();
+            int batchSize = subscription.getCallbackBatchSize() != null
+                    ? Math.min(subscription.getCallbackBatchSize(), MAX_CONSUME_BATCH_SIZE) : 1;
+            // 一次回调的消息来自同一个消费批次,批次不能小于回调批量
+            if (batchSize > consumer.getConsumeMessageBatchMaxSize()) {
+                consumer.setConsumeMessageBatchMaxSize(batchSize);
+                pullBatchSize = Math.max(pullBatchSize, batchSize);
+                consumer.setPullBatchSize(pullBatchSize);
+            }
+            ConsumeSubscription consumeSubscription = new ConsumeSubscription(topic, tag,
+                    newListener(subscription, callback, subscription.getCallbackWeights(), parallelism, batchSize));
+            consumeSubscription.setFilter(filter);
+            // 每个分发目标有独立的负载均衡、流控和按key保序的通道,同一条消息的各目标互不等待重试
+            if (subscription.getFanoutCallbacks() != null && !subscription.getFanoutCallbacks().isEmpty()) {
+                List<HttpCallbackDelivery> fanoutListeners = new ArrayList<>(subscription.getFanoutCallbacks().size());
+                for (String fanoutCallback : subscription.getFanoutCallbacks()) {
+                    if (StringUtils.isNotBlank(fanoutCallback)) {
+                        fanoutListeners.add(newListener(subscription, fanoutCallback, null, parallelism, batchSize));
+                    }
+                }
+                consumeSubscription.setFanoutListeners(fanoutListeners);
+            }
+            ConsumeSubscription old = subscriptionMap.put(topic, consumeSubscription);
             if (old != null) {
                 logger.warn(String.format("duplicated subscription with topic[%s], override it.", topic));
             }
 
             consumer.subscribe(topic, tag);
+            // 消费者启动前的订阅在启动后交给broker过滤
+            if (consumeSubscription.getFilter() != null && gatewayConfig.isConsumeFilterOnBroker() && isStarted()) {
+                subscribeOnBroker(topic, consumeSubscription.getTag(), consumeSubscription.getFilter());
+            }
+        }
+
+        /**
+         * 过滤表达式交给broker按SQL92过滤，tag表达式转换为TAGS IN条件；broker不支持时恢复按tag订阅，只在网关过滤。
+         * 网关仍然判断每条消息，broker过滤只减少拉取的消息
+         *
+         * @param tag 为空表示订阅所有tag
+         */
+        private void subscribeOnBroker(final String topic, final String tag, final MessageFilter filter) {
+            StringBuilder sql = new StringBuilder();
+            if (tag != null) {
+                sql.append("TAGS IN (");
+                int count = 0;
+                for (String item : tag.split("\\|\\|")) {
+                    if (StringUtils.isNotBlank(item)) {
+                        sql.append(count++ > 0 ? ", '" : "'").append(item.trim().replace("'", "''")).append("'");
+                    }
+                }
+                sql.append(") AND ");
+            }
+            sql.append("(").append(filter.getExpression()).append(")");
+
+            try {
+                consumer.subscribe(topic, MessageSelector.bySql(sql.toString()));
+                consumer.getDefaultMQPushConsumerImpl().getmQClientFactory().checkClientInBroker();
+                logger.info("Consumer[{}] filter topic[{}] on broker with [{}].", consumer.getConsumerGroup(), topic, sql);
+            } catch (MQClientException e) {
+                logger.warn(String.format("Broker does not support filter of consumer[%s] topic[%s], filter on gateway.",
+                        consumer.getConsumerGroup(), topic), e);
+                try {
+                    consumer.subscribe(topic, tag != null ? tag : ConsumeSubscription.ALL_TAG);
+                } catch (MQClientException ex) {
+                    logger.error(String.format("Consumer[%s] resubscribe topic[%s] error.", consumer.getConsumerGroup(), topic), ex);
+                }
+            }
+        }
+
+        private HttpCallbackDelivery newListener(final Subscription subscription, final String callback,
+                                                            final List<Integer> weights, final int parallelism,
+                                                            final int batchSize) throws UnsupportedEncodingException {
+            String topic = subscription.getTopic();
+            // 顺序订阅本身按队列保序,不需要按key保序
+            Integer keyAffinityLanes = subscription.getKeyAffinityLanes();
+            SerialLanes lanes = !orderly && keyAffinityLanes != null && keyAffinityLanes > 0
+                    ? new SerialLanes(keyAffinityLanes) : null;
+            String balancer = subscription.getCallbackBalancer() != null
+                    ? subscription.getCallbackBalancer() : gatewayConfig.getConsumeCallbackBalancer();
+            CallbackBalancer callbackBalancer = new CallbackBalancer(callback, weights,
+                    CallbackBalancer.policyOf(balancer), circuitBreakers, gatewayConfig.getConsumeCallbackEwmaDecayMs());
+            return new HttpCallbackDelivery(callback, topic, subscription.getTag(), app,
+                    httpClient, callbackBalancer, gatewayConfig.getGatewayAddress(),
+                    new FlowController(app, topic, callback, parallelism, gatewayConfig), batchSize, lanes, deliveryLimiter);
+        }
+
+        /**
+         * 主题当前生效的订阅
+         *
+         * @return 没有订阅返回null
+         */
+        Subscription findSubscription(String topic) {
+            List<Subscription> subscriptions = this.subscriptions;
+            if (subscriptions != null) {
+                for (Subscription subscription : subscriptions) {
+                    if (topic.equals(subscription.getTopic())) {
+                        return subscription;
+                    }
+                }
+            }
+            return null;
         }
 
         void unsubscribe(Subscription subscription) {
@@ -197,6 +612,225 @@ public final class ConsumerManager {
             subscriptionMap.remove(topic);
         }
 
+        /**
+         * 订阅迁到其他消费组：取消订阅后立即重新负载，丢弃该主题的处理队列，已拉取未确认的消息不再确认，
+         * 再同步提交该主题的位点，由新消费组从该位点重新投递
+         */
+        void release(Subscription subscription, String target) {
+            String topic = subscription.getTopic();
+            unsubscribe(subscription);
+            if (!isStarted()) {
+                return;
+            }
+            DefaultMQPushConsumerImpl impl = consumer.getDefaultMQPushConsumerImpl();
+            impl.doRebalance();
+            OffsetStore offsetStore = impl.getOffsetStore();
+            for (Map.Entry<MessageQueue, Long> entry : offsetStore.cloneOffsetTable(topic).entrySet()) {
+                try {
+                    offsetStore.updateConsumeOffsetToBroker(entry.getKey(), entry.getValue(), false);
+                } catch (Exception e) {
+                    logger.error(String.format("Commit offset of consumer[%s] queue %s error.",
+                            consumer.getConsumerGroup(), entry.getKey()), e);
+                }
+            }
+            logger.info("Subscription of app[{}] topic[{}] moved from consumer[{}] to consumer[{}].",
+                    app, topic, consumer.getConsumerGroup(), target);
+        }
+
+        /**
+         * 按其他消费组已提交的位点设置本消费组的位点，取各消费组中最大的位点，本消费组的位点更大时不修改。
+         * 位点只会前移到其他消费组已消费的位置，不会跳过未消费的消息
+         *
+         * @param topic  主题
+         * @param groups 订阅可能所在的其他消费组
+         */
+        void seedOffsets(String topic, List<String> groups) throws Exception {
+            if (groups.isEmpty()) {
+                return;
+            }
+            MQClientInstance client = clientInstance();
+            client.updateTopicRouteInfoFromNameServer(topic);
+            TopicRouteData route = client.getTopicRouteTable().get(topic);
+            if (route == null) {
+                // 主题还不存在,没有位点
+                return;
+            }
+            String group = consumer.getConsumerGroup();
+            for (MessageQueue mq : MQClientInstance.topicRouteData2TopicSubscribeInfo(topic, route)) {
+                FindBrokerResult broker = client.findBrokerAddressInSubscribe(mq.getBrokerName(), MixAll.MASTER_ID, true);
+                if (broker == null) {
+                    throw new MQClientException(String.format("broker[%s] not exist", mq.getBrokerName()), null);
+                }
+                long current = queryOffset(client, broker.getBrokerAddr(), group, mq);
+                long offset = current;
+                String from = null;
+                for (String other : groups) {
+                    long otherOffset = queryOffset(client, broker.getBrokerAddr(), other, mq);
+                    if (otherOffset > offset) {
+                        offset = otherOffset;
+                        from = other;
+                    }
+                }
+                if (from == null) {
+                    continue;
+                }
+                UpdateConsumerOffsetRequestHeader header = new UpdateConsumerOffsetRequestHeader();
+                header.setConsumerGroup(group);
+                header.setTopic(topic);
+                header.setQueueId(mq.getQueueId());
+                header.setCommitOffset(offset);
+                client.getMQClientAPIImpl().updateConsumerOffset(broker.getBrokerAddr(), header, OFFSET_TIMEOUT_MS);
+                logger.info("Seed offset of consumer[{}] queue {} from consumer[{}], {} -> {}.",
+                        group, mq, from, current, offset);
+            }
+        }
+
+        /**
+         * 消费者的客户端实例，消费者启动前创建与其相同的实例
+         */
+        private MQClientInstance clientInstance() throws MQClientException {
+            MQClientInstance client = consumer.getDefaultMQPushConsumerImpl().getmQClientFactory();
+            if (client == null) {
+                consumer.changeInstanceNameToPID();
+                client = MQClientManager.getInstance().getOrCreateMQClientInstance(consumer);
+                client.start();
+            }
+            return client;
+        }
+
+        /**
+         * 迁到同一应用其他消费组的订阅，用于投递原消费组重试队列和释放前已拉取的该主题的消息
+         */
+        private ConsumeSubscription movedSubscription(String topic) {
+            for (InternalConsumer other : consumerMap.values()) {
+                Map<String, ConsumeSubscription> otherSubscriptionMap = other.subscriptionMap;
+                if (other != this && app.equals(other.app) && otherSubscriptionMap != null) {
+                    ConsumeSubscription subscription = otherSubscriptionMap.get(topic);
+                    if (subscription != null) {
+                        return subscription;
+                    }
+                }
+            }
+            return null;
+        }
+
+        @Override
+        public CompletableFuture<boolean[]> redeliver(MessageExt message) {
+            Map<String, ConsumeSubscription> subscriptionMap = this.subscriptionMap;
+            ConsumeSubscription subscription = subscriptionMap != null ? subscriptionMap.get(message.getTopic()) : null;
+            if (subscription == null || !isStarted()) {
+                return null;
+            }
+            return subscription.getListener().consumeAsync(Collections.singletonList(message));
+        }
+
+        @Override
+        public void sendBack(MessageExt message) throws Exception {
+            // 按消息的存储地址发回,由broker按重试次数决定延迟
+            consumer.sendMessageBack(message, 0, null);
+        }
+
+        /**
+         * 分发目标的本地重试，只重新投递给该目标；本地重试仍然失败时发回broker，所有目标都会重新投递
+         */
+        private final class FanoutTarget implements LocalRetryScheduler.Target {
+            private final String topic;
+            private final HttpCallbackDelivery listener;
+
+            FanoutTarget(final String topic, final HttpCallbackDelivery listener) {
+                this.topic = topic;
+                this.listener = listener;
+            }
+
+            @Override
+            public CompletableFuture<boolean[]> redeliver(MessageExt message) {
+                Map<String, ConsumeSubscription> subscriptionMap = InternalConsumer.this.subscriptionMap;
+                ConsumeSubscription subscription = subscriptionMap != null ? subscriptionMap.get(topic) : null;
+                // 订阅变更后分发目标已替换
+                if (subscription == null || !subscription.getFanoutListeners().contains(listener) || !isStarted()) {
+                    return null;
+                }
+                return listener.consumeAsync(Collections.singletonList(message));
+            }
+
+            @Override
+            public void sendBack(MessageExt message) throws Exception {
+                InternalConsumer.this.sendBack(message);
+            }
+        }
+
+        /**
+         * 一个分发目标对同一主题消息的投递
+         */
+        private final class FanoutDelivery {
+            private final String topic;
+            private final HttpCallbackDelivery listener;
+            // 消息在消费批次中的下标
+            private final List<Integer> indexes;
+            private final CompletableFuture<boolean[]> future;
+
+            FanoutDelivery(final String topic, final HttpCallbackDelivery listener, final List<Integer> indexes,
+                           final CompletableFuture<boolean[]> future) {
+                this.topic = topic;
+                this.listener = listener;
+                this.indexes = indexes;
+                this.future = future;
+            }
+        }
+
+        /**
+         * 调整各订阅的流控，并按订阅的整体情况调整消费线程数、拉取批次和拉取间隔，
+         * 所有订阅都暂停投递时挂起消费者，有订阅恢复时恢复消费者
+         */
+        void adjustFlowControl(final long now) {
+            Map<String, ConsumeSubscription> subscriptionMap = this.subscriptionMap;
+            if (subscriptionMap == null || subscriptionMap.isEmpty() || !isStarted()) {
+                return;
+            }
+
+            int windows = 0;
+            int maxWindows = 0;
+            boolean paused = true;
+            for (ConsumeSubscription subscription : subscriptionMap.values()) {
+                for (HttpCallbackDelivery listener : listenersOf(subscription)) {
+                    FlowController flowController = listener.getFlowController();
+                    if (flowController.adjust(now)) {
+                        logger.info("Flow control of app[{}] topic[{}] changed, {}", app, subscription.getTopic(),
+                                flowController.snapshot());
+                    }
+                    windows += flowController.getWindow();
+                    maxWindows += flowController.getMaxWindow();
+                    paused &= flowController.isPaused();
+                }
+            }
+
+            if (paused && !suspended) {
+                consumer.suspend();
+                suspended = true;
+                logger.warn("All callbacks of consumer[{}] are paused, suspend it.", consumer.getConsumerGroup());
+            } else if (!paused && suspended) {
+                consumer.resume();
+                suspended = false;
+                logger.info("Callbacks of consumer[{}] resumed, resume it.", consumer.getConsumerGroup());
+            }
+
+            // 按可用回调数的比例收缩,全部正常时恢复原配置
+            double ratio = (double) windows / maxWindows;
+            int threads = Math.max(1, (int) Math.ceil(consumeThreads * ratio));
+            int batchSize = Math.max(1, (int) Math.ceil(pullBatchSize * ratio));
+            long interval = Math.round((1 - ratio) * gatewayConfig.getConsumeFlowMaxPullIntervalMs());
+            if (threads != corePoolSize) {
+                consumer.updateCorePoolSize(threads);
+                corePoolSize = threads;
+            }
+            if (batchSize != consumer.getPullBatchSize()) {
+                consumer.setPullBatchSize(batchSize);
+            }
+            if (interval != consumer.getPullInterval()) {
+                consumer.setPullInterval(interval);
+            }
+        }
+
         private class DefaultMessageListenerConcurrently implements MessageListenerConcurrently {
 
             @Override
@@ -205,35 +839,320 @@ public final class ConsumerManager {
                     return ConsumeConcurrentlyStatus.CONSUME_SUCCESS;
                 }
 
-                Map<String/*topic*/, List<MessageExt>> data = messages.stream().collect(Collectors.groupingBy(MessageExt::getTopic));
+                // 按主题分组,保留消息在批次中的下标
+                Map<String/*topic*/, List<Integer>> topicIndexes = new HashMap<>();
+                for (int i = 0; i < messages.size(); i++) {
+                    String topic = messages.get(i).getTopic();
+                    List<Integer> indexes = topicIndexes.get(topic);
+                    if (indexes == null) {
+                        indexes = new ArrayList<>();
+                        topicIndexes.put(topic, indexes);
+                    }
+                    indexes.add(i);
+                }
 
-                RuntimeException ex = null;
-                for (Map.Entry<String, List<MessageExt>> messageEntry : data.entrySet()) {
-                    String topic = messageEntry.getKey();
+                // 每条消息是否消费成功
+                final boolean[] success = new boolean[messages.size()];
+                // 暂停投递的订阅要求的重试级别
+                int delayLevel = 0;
+                // 先发起所有主题的回调,再等待全部完成
+                List<CompletableFuture<Void>> futures = new ArrayList<>(topicIndexes.size());
+                // 分发目标的投递,与回调同时进行
+                List<FanoutDelivery> fanouts = new ArrayList<>();
+                for (Map.Entry<String, List<Integer>> entry : topicIndexes.entrySet()) {
+                    String topic = entry.getKey();
                     ConsumeSubscription consumeSubscription = subscriptionMap.get(topic);
+                    if (consumeSubscription == null) {
+                        consumeSubscription = movedSubscription(topic);
+                    }
                     if (consumeSubscription == null || consumeSubscription.getListener() == null) {
-                        ex = new RuntimeException(String.format("no message listener for topic[%s] app[%s]", topic, consumer.getConsumerGroup()));
-                        logger.error(ex.getMessage(), ex);
+                        logger.error(String.format("no message listener for topic[%s] app[%s]", topic, consumer.getConsumerGroup()));
+                        continue;
+                    }
+                    // 不匹配过滤表达式的消息不回调,直接确认
+                    final List<Integer> indexes = filter(consumeSubscription.getFilter(), messages, entry.getValue(), success);
+                    if (indexes.isEmpty()) {
                         continue;
                     }
 
+                    HttpCallbackDelivery listener = consumeSubscription.getListener();
+                    delayLevel = Math.max(delayLevel, listener.getFlowController().retryDelayLevel());
+
+                    List<MessageExt> topicMessages = new ArrayList<>(indexes.size());
+                    for (Integer index : indexes) {
+                        topicMessages.add(messages.get(index));
+                    }
+                    futures.add(listener.consumeAsync(topicMessages)
+                            .thenAccept(new Consumer<boolean[]>() {
+                                @Override
+                                public void accept(boolean[] results) {
+                                    for (int i = 0; i < results.length; i++) {
+                                        success[indexes.get(i)] = results[i];
+                                    }
+                                }
+                            }));
+                    for (HttpCallbackDelivery fanoutListener : consumeSubscription.getFanoutListeners()) {
+                        fanouts.add(new FanoutDelivery(topic, fanoutListener, indexes,
+                                fanoutListener.consumeAsync(topicMessages)));
+                    }
+                }
+
+                for (CompletableFuture<Void> future : futures) {
+                    future.join();
+                }
+                if (delayLevel > 0) {
+                    context.setDelayLevelWhenNextConsume(delayLevel);
+                }
+                boolean[] sendBack = null;
+                if (!fanouts.isEmpty()) {
+                    if (localRetryScheduler != null) {
+                        // 不等待分发目标,失败的消息异步进入该目标的本地重试
+                        retryFanouts(messages, fanouts);
+                    } else {
+                        sendBack = awaitFanouts(messages, fanouts);
+                    }
+                }
+
+                return acknowledge(messages, success, sendBack, context);
+            }
+
+            /**
+             * 过滤消息，不匹配的消息标记为消费成功
+             *
+             * @return 匹配的消息下标
+             */
+            private List<Integer> filter(MessageFilter filter, List<MessageExt> messages, List<Integer> indexes,
+                                         boolean[] success) {
+                if (filter == null) {
+                    return indexes;
+                }
+                List<Integer> matched = new ArrayList<>(indexes.size());
+                for (Integer index : indexes) {
+                    if (filter.matches(messages.get(index))) {
+                        matched.add(index);
+                    } else {
+                        success[index] = true;
+                    }
+                }
+                return matched;
+            }
+
+            /**
+             * 分发目标投递完成后，失败的消息进入该目标的本地重试，不影响已成功的其他目标；
+             * 超出内存预算时整条消息异步发回broker，所有目标重新投递。不等待分发目标，慢的目标不拖慢确认
+             */
+            private void retryFanouts(final List<MessageExt> messages, List<FanoutDelivery> fanouts) {
+                for (final FanoutDelivery fanout : fanouts) {
+                    fanout.future.whenComplete(new BiConsumer<boolean[], Throwable>() {
+                        @Override
+                        public void accept(boolean[] results, Throwable e) {
+                            FanoutTarget target = new FanoutTarget(fanout.topic, fanout.listener);
+                            for (int i = 0; i < fanout.indexes.size(); i++) {
+                                if (results != null && results[i]) {
+                                    continue;
+                                }
+                                MessageExt message = messages.get(fanout.indexes.get(i));
+                                if (!localRetryScheduler.schedule(target, message)) {
+                                    localRetryScheduler.sendBack(target, message);
+                                }
+                            }
+                        }
+                    });
+                }
+            }
+
+            /**
+             * 未开启本地重试时，在回调完成后最多等待consumeFanoutMaxWaitMs，分发目标失败或超时的消息整条发回broker，
+             * 所有目标都会重新投递，超时的目标可能重复收到消息
+             *
+             * @return 需要整条发回broker的消息，下标与消息一致
+             */
+            private boolean[] awaitFanouts(List<MessageExt> messages, List<FanoutDelivery> fanouts) {
+                boolean[] sendBack = new boolean[messages.size()];
+                long deadline = System.currentTimeMillis() + gatewayConfig.getConsumeFanoutMaxWaitMs();
+                for (FanoutDelivery fanout : fanouts) {
+                    boolean[] results = null;
                     try {
-                        ((HttpMessageListenerConcurrently) consumeSubscription.getListener()).consumeMessage(messageEntry.getValue(), context);
-                    } catch (Exception e) {
+                        results = fanout.future.get(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+                    } catch (TimeoutException e) {
+                        logger.warn("Fanout of app[{}] topic[{}] does not complete in {}ms, send {} messages back.",
+                                app, fanout.topic, gatewayConfig.getConsumeFanoutMaxWaitMs(), fanout.indexes.size());
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } catch (ExecutionException e) {
+                        logger.error(String.format("Fanout of app[%s] topic[%s] error.", app, fanout.topic), e);
+                    }
+                    for (int i = 0; i < fanout.indexes.size(); i++) {
+                        if (results == null || !results[i]) {
+                            sendBack[fanout.indexes.get(i)] = true;
+                        }
+                    }
+                }
+                return sendBack;
+            }
 
-                        ex = new RuntimeException(String.format("topic[%s] app[%s] consume message with listener error."
-                                + e.getMessage(), topic, consumer.getConsumerGroup()), e);
-                        logger.error(ex.getMessage(), ex);
+            /**
+             * 逐条确认：成功的消息提交，失败的消息发回broker按重试级别重新投递，不影响同批次的成功消息。
+             * 发回失败时，从该条消息起交给客户端重试。
+             *
+             * @param sendBack 未开启本地重试时分发目标失败或超时、需要整条发回broker的消息，其他情况为null
+             */
+            private ConsumeConcurrentlyStatus acknowledge(List<MessageExt> messages, boolean[] success, boolean[] sendBack,
+                                                          ConsumeConcurrentlyContext context) {
+                int failures = 0;
+                for (int i = 0; i < success.length; i++) {
+                    if (!success[i] || (sendBack != null && sendBack[i])) {
+                        failures++;
                     }
                 }
+                if (failures == 0) {
+                    return ConsumeConcurrentlyStatus.CONSUME_SUCCESS;
+                }
+                // 订阅暂停投递时已指定重试级别,直接发回broker
+                LocalRetryScheduler scheduler = context.getDelayLevelWhenNextConsume() > 0 ? null : localRetryScheduler;
+                if (failures == messages.size() && scheduler == null) {
+                    return ConsumeConcurrentlyStatus.RECONSUME_LATER;
+                }
 
-                if (ex != null) {
-                    throw ex;
+                String brokerName = context.getMessageQueue().getBrokerName();
+                for (int i = 0; i < messages.size(); i++) {
+                    boolean all = sendBack != null && sendBack[i];
+                    if (success[i] && !all) {
+                        continue;
+                    }
+                    MessageExt message = messages.get(i);
+                    // 本地重试只重新回调订阅的回调地址,需要所有目标重新投递的消息直接发回broker
+                    if (!all && scheduler != null && scheduler.schedule(InternalConsumer.this, message)) {
+                        continue;
+                    }
+                    try {
+                        consumer.sendMessageBack(message, context.getDelayLevelWhenNextConsume(), brokerName);
+                    } catch (Exception e) {
+                        logger.warn(String.format("app[%s] send message[%s] back error, retry from it.",
+                                consumer.getConsumerGroup(), message.getMsgId()), e);
+                        // ackIndex之后的消息由客户端重试
+                        context.setAckIndex(i - 1);
+                        break;
+                    }
                 }
 
+                logger.warn(String.format("app[%s] %d of %d messages consume failed, retry later.",
+                        consumer.getConsumerGroup(), failures, messages.size()));
                 return ConsumeConcurrentlyStatus.CONSUME_SUCCESS;
             }
         }
+
+        /**
+         * 顺序消费：同一队列的消息按顺序回调，失败时挂起该队列稍后整批重新消费，不影响其他队列
+         */
+        private class DefaultMessageListenerOrderly implements MessageListenerOrderly {
+
+            @Override
+            public ConsumeOrderlyStatus consumeMessage(List<MessageExt> messages, ConsumeOrderlyContext context) {
+                if (messages == null || messages.isEmpty()) {
+                    return ConsumeOrderlyStatus.SUCCESS;
+                }
+
+                // 同一次消费的消息来自同一个队列
+                String topic = context.getMessageQueue().getTopic();
+                ConsumeSubscription consumeSubscription = subscriptionMap.get(topic);
+                if (consumeSubscription == null) {
+                    consumeSubscription = movedSubscription(topic);
+                }
+                if (consumeSubscription == null || consumeSubscription.getListener() == null) {
+                    logger.error(String.format("no message listener for topic[%s] app[%s]", topic, consumer.getConsumerGroup()));
+                    return ConsumeOrderlyStatus.SUSPEND_CURRENT_QUEUE_A_MOMENT;
+                }
+
+                // 不匹配过滤表达式的消息不回调,不影响其余消息的顺序
+                MessageFilter filter = consumeSubscription.getFilter();
+                if (filter != null) {
+                    List<MessageExt> matched = new ArrayList<>(messages.size());
+                    for (MessageExt message : messages) {
+                        if (filter.matches(message)) {
+                            matched.add(message);
+                        }
+                    }
+                    if (matched.isEmpty()) {
+                        return ConsumeOrderlyStatus.SUCCESS;
+                    }
+                    messages = matched;
+                }
+
+                // 各目标同时按顺序投递,任一目标失败时整批重新投递给所有目标,保证每个目标收到的顺序
+                List<HttpCallbackDelivery> listeners = listenersOf(consumeSubscription);
+                List<CompletableFuture<boolean[]>> futures = new ArrayList<>(listeners.size());
+                for (HttpCallbackDelivery listener : listeners) {
+                    futures.add(listener.consumeOrderly(messages));
+                }
+                long suspendMs = 0;
+                for (int i = 0; i < listeners.size(); i++) {
+                    for (boolean ok : futures.get(i).join()) {
+                        if (!ok) {
+                            suspendMs = Math.max(suspendMs,
+                                    suspendMillis(messages.get(0).getReconsumeTimes(), listeners.get(i).getFlowController()));
+                            break;
+                        }
+                    }
+                }
+                if (suspendMs > 0) {
+                    context.setSuspendCurrentQueueTimeMillis(suspendMs);
+                    logger.warn(String.format("app[%s] queue[%s] consume failed, suspend it %dms.",
+                            consumer.getConsumerGroup(), context.getMessageQueue(), suspendMs));
+                    return ConsumeOrderlyStatus.SUSPEND_CURRENT_QUEUE_A_MOMENT;
+                }
+                return ConsumeOrderlyStatus.SUCCESS;
+            }
+
+            /**
+             * 队列挂起时间，按重新消费次数指数退避，订阅暂停投递时不短于剩余暂停时间
+             */
+            private long suspendMillis(final int reconsumeTimes, final FlowController flowController) {
+                long suspendMs = gatewayConfig.getConsumeOrderlySuspendMs() << Math.min(reconsumeTimes, 20);
+                suspendMs = Math.max(suspendMs, flowController.remainingPauseMs());
+                return Math.min(MAX_SUSPEND_MS, suspendMs);
+            }
+        }
+    }
+
+    /**
+     * 流控调整
+     */
+    private class FlowControlThread extends Thread {
+
+        private volatile boolean shutdown;
+
+        FlowControlThread(String name) {
+            super(name);
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (!shutdown) {
+                    synchronized (this) {
+                        wait(gatewayConfig.getConsumeFlowControlIntervalMs());
+                    }
+                    long now = System.currentTimeMillis();
+                    for (InternalConsumer consumer : consumerMap.values()) {
+                        try {
+                            consumer.adjustFlowControl(now);
+                        } catch (Exception e) {
+                            logger.error(String.format("Adjust flow control of consumer[%s] error.",
+                                    consumer.consumer.getConsumerGroup()), e);
+                        }
+                    }
+                }
+            } catch (InterruptedException ignored) {
+            }
+        }
+
+        void shutdown() {
+            shutdown = true;
+            synchronized (this) {
+                notifyAll();
+            }
+        }
     }
 
     public void setGatewayConfig(GatewayConfig gatewayConfig) {
@@ -0,0 +1,24 @@
+package org.apache.rocketmq.gateway.processor.consumer;
+
+import java.util.List;
+
+/**
+ * 消费状态的JMX接口，ObjectName为org.apache.rocketmq.gateway:type=ConsumerManager
+ */
+public interface ConsumerManagerMXBean {
+
+    /**
+     * 各订阅当前的流控状态
+     *
+     * @return 流控状态
+     */
+    List<FlowControlState> getFlowControlStates();
+
+    /**
+     * 各回调地址当前的熔断状态和状态切换次数
+     *
+     * @return 熔断状态
+     */
+    List<CircuitBreakerState> getCircuitBreakerStates();
+
+}
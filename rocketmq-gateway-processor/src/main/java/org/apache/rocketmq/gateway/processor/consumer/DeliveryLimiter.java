@@ -0,0 +1,113 @@
+package org.apache.rocketmq.gateway.processor.consumer;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * 全局回调并发限制
+ * <p>
+ * 所有消费者的回调共享maxInflight个名额，名额用完后回调按应用排队，名额释放时在有排队的应用之间轮流放行，
+ * 回调多的应用不会挤占其他应用的名额。排队不占用线程，放行的回调在释放名额的线程中发起。
+ */
+final class DeliveryLimiter {
+
+    private static final CompletableFuture<Void> GRANTED = CompletableFuture.completedFuture(null);
+
+    // 当前线程待放行的排队回调,回调同步完成时再次释放名额不会递归放行
+    private static final ThreadLocal<ArrayDeque<CompletableFuture<Void>>> HANDOFFS =
+            new ThreadLocal<ArrayDeque<CompletableFuture<Void>>>() {
+                @Override
+                protected ArrayDeque<CompletableFuture<Void>> initialValue() {
+                    return new ArrayDeque<>();
+                }
+            };
+
+    // 同时进行中的回调数上限
+    private final int maxInflight;
+
+    // 以下字段由this保护
+    // 进行中的回调数
+    private int inflight;
+    // 有排队回调的应用,按轮流放行的顺序
+    private final ArrayDeque<AppQueue> ready = new ArrayDeque<>();
+    private final Map<String/*app*/, AppQueue> queues = new HashMap<>();
+
+    DeliveryLimiter(final int maxInflight) {
+        this.maxInflight = Math.max(1, maxInflight);
+    }
+
+    /**
+     * 申请回调名额，完成后必须调用release
+     *
+     * @param app 应用标识
+     * @return 获得名额时完成
+     */
+    CompletableFuture<Void> acquire(final String app) {
+        synchronized (this) {
+            if (inflight < maxInflight && ready.isEmpty()) {
+                inflight++;
+                return GRANTED;
+            }
+            AppQueue queue = queues.get(app);
+            if (queue == null) {
+                queue = new AppQueue(app);
+                queues.put(app, queue);
+            }
+            CompletableFuture<Void> waiter = new CompletableFuture<>();
+            queue.waiters.add(waiter);
+            if (queue.waiters.size() == 1) {
+                ready.add(queue);
+            }
+            return waiter;
+        }
+    }
+
+    /**
+     * 释放回调名额，有排队的回调时直接转给下一个应用
+     */
+    void release() {
+        CompletableFuture<Void> next;
+        synchronized (this) {
+            AppQueue queue = ready.poll();
+            if (queue == null) {
+                inflight--;
+                return;
+            }
+            next = queue.waiters.poll();
+            if (queue.waiters.isEmpty()) {
+                queues.remove(queue.app);
+            } else {
+                ready.add(queue);
+            }
+        }
+        handoff(next);
+    }
+
+    private static void handoff(final CompletableFuture<Void> waiter) {
+        ArrayDeque<CompletableFuture<Void>> handoffs = HANDOFFS.get();
+        handoffs.add(waiter);
+        if (handoffs.size() > 1) {
+            // 外层的放行循环继续处理
+            return;
+        }
+        CompletableFuture<Void> next;
+        while ((next = handoffs.peek()) != null) {
+            next.complete(null);
+            handoffs.poll();
+        }
+    }
+
+    /**
+     * 一个应用排队中的回调
+     */
+    private static final class AppQueue {
+        private final String app;
+        private final ArrayDeque<CompletableFuture<Void>> waiters = new ArrayDeque<>();
+
+        AppQueue(final String app) {
+            this.app = app;
+        }
+    }
+}
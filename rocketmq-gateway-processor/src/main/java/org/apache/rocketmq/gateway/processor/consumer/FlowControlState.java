@@ -0,0 +1,105 @@
+package org.apache.rocketmq.gateway.processor.consumer;
+
+import com.alibaba.fastjson.JSON;
+
+/**
+ * 订阅的流控状态快照
+ */
+public final class FlowControlState {
+
+    // 应用标识
+    private String app;
+    // Topic
+    private String topic;
+    // 回调地址,分发订阅的每个目标各自流控
+    private String callback;
+    // 流控状态: NORMAL, CONGESTED, PAUSED, PROBING
+    private String state;
+    // 同一批消息同时进行中的回调数
+    private int window;
+    // 回调数上限
+    private int maxWindow;
+    // 上个周期的平均回调延迟(毫秒)
+    private long latencyMs;
+    // 上个周期的错误率(百分比)
+    private int errorRate;
+    // 暂停截止时间
+    private long pausedUntil;
+
+    public String getApp() {
+        return app;
+    }
+
+    public void setApp(String app) {
+        this.app = app;
+    }
+
+    public String getTopic() {
+        return topic;
+    }
+
+    public void setTopic(String topic) {
+        this.topic = topic;
+    }
+
+    public String getCallback() {
+        return callback;
+    }
+
+    public void setCallback(String callback) {
+        this.callback = callback;
+    }
+
+    public String getState() {
+        return state;
+    }
+
+    public void setState(String state) {
+        this.state = state;
+    }
+
+    public int getWindow() {
+        return window;
+    }
+
+    public void setWindow(int window) {
+        this.window = window;
+    }
+
+    public int getMaxWindow() {
+        return maxWindow;
+    }
+
+    public void setMaxWindow(int maxWindow) {
+        this.maxWindow = maxWindow;
+    }
+
+    public long getLatencyMs() {
+        return latencyMs;
+    }
+
+    public void setLatencyMs(long latencyMs) {
+        this.latencyMs = latencyMs;
+    }
+
+    public int getErrorRate() {
+        return errorRate;
+    }
+
+    public void setErrorRate(int errorRate) {
+        this.errorRate = errorRate;
+    }
+
+    public long getPausedUntil() {
+        return pausedUntil;
+    }
+
+    public void setPausedUntil(long pausedUntil) {
+        this.pausedUntil = pausedUntil;
+    }
+
+    @Override
+    public String toString() {
+        return JSON.toJSONString(this);
+    }
+}
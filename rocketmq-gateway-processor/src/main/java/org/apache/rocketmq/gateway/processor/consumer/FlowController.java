@@ -0,0 +1,246 @@
+package org.apache.rocketmq.gateway.processor.consumer;
+
+import org.apache.rocketmq.gateway.common.GatewayConfig;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 订阅的消费流控
+ * <p>
+ * 每个调整周期统计回调延迟和错误率，调整同一批消息同时进行中的回调数：
+ * 正常时每周期加1，延迟超过目标时减少1/4，错误率超过阈值时减半；
+ * 只剩1个回调仍然失败，或者回调返回429/503时暂停投递，暂停到期后以1个回调试探，成功后逐步恢复。
+ * <p>
+ * 统计由回调线程记录，调整只在流控线程中进行。
+ */
+final class FlowController {
+
+    // 流控状态
+    enum State {
+        // 回调正常,并发为上限
+        NORMAL,
+        // 回调变慢或出错,并发收缩中
+        CONGESTED,
+        // 暂停投递
+        PAUSED,
+        // 暂停到期,以1个回调试探
+        PROBING
+    }
+
+    // 没有Retry-After时首次暂停的时间(毫秒),连续暂停时翻倍
+    private static final long MIN_PAUSE_MS = 1000;
+    // 一个周期内按错误率判断的最少消息数,少于该值时全部失败才算失败
+    private static final int MIN_SAMPLES = 5;
+    // 重试级别对应的延迟(毫秒),与broker默认的messageDelayLevel一致
+    private static final long[] DELAY_LEVEL_MS = {1000, 5000, 10000, 30000, 60000, 120000, 180000, 240000,
+            300000, 360000, 420000, 480000, 540000, 600000, 1200000, 1800000, 3600000, 7200000};
+
+    private final String app;
+    private final String topic;
+    private final String callback;
+    // 是否开启流控
+    private final boolean enabled;
+    // 并发上限
+    private final int maxWindow;
+    // 目标延迟(纳秒)
+    private final long targetLatencyNanos;
+    // 错误率阈值(百分比)
+    private final int errorRatePercent;
+    // 最长暂停时间(毫秒)
+    private final long maxPauseMs;
+
+    // 本周期的回调数
+    private final LongAdder requests = new LongAdder();
+    // 本周期的回调耗时(纳秒)
+    private final LongAdder latencyNanos = new LongAdder();
+    // 本周期回调的消息数
+    private final LongAdder messages = new LongAdder();
+    // 本周期失败的消息数
+    private final LongAdder failures = new LongAdder();
+    // 本周期是否被限流
+    private volatile boolean throttled;
+
+    private volatile State state = State.NORMAL;
+    // 当前并发
+    private volatile int window;
+    // 暂停截止时间
+    private volatile long pausedUntil;
+    // 上个周期的平均延迟(毫秒)
+    private volatile long latencyMs;
+    // 上个周期的错误率(百分比)
+    private volatile int errorRate;
+    // 连续暂停次数,只在流控线程中访问
+    private int pauses;
+
+    FlowController(final String app, final String topic, final String callback, final int maxWindow,
+                   final GatewayConfig config) {
+        this.app = app;
+        this.topic = topic;
+        this.callback = callback;
+        this.enabled = config.isConsumeFlowControlEnabled();
+        this.maxWindow = Math.max(1, maxWindow);
+        this.targetLatencyNanos = config.getConsumeFlowTargetLatencyMs() * 1000000L;
+        this.errorRatePercent = config.getConsumeFlowErrorRatePercent();
+        this.maxPauseMs = config.getConsumeFlowMaxPauseMs();
+        this.window = this.maxWindow;
+    }
+
+    /**
+     * 记录一次回调
+     *
+     * @param nanos    耗时(纳秒)
+     * @param size     消息数
+     * @param failed   失败的消息数
+     */
+    void onComplete(final long nanos, final int size, final int failed) {
+        if (!enabled) {
+            return;
+        }
+        requests.increment();
+        latencyNanos.add(nanos);
+        messages.add(size);
+        if (failed > 0) {
+            failures.add(failed);
+        }
+    }
+
+    /**
+     * 记录回调返回429/503，有Retry-After时立即暂停
+     *
+     * @param retryAfterMs Retry-After(毫秒)，没有为-1
+     */
+    void onThrottled(final long retryAfterMs) {
+        if (!enabled) {
+            return;
+        }
+        throttled = true;
+        if (retryAfterMs >= 0) {
+            long until = System.currentTimeMillis() + Math.min(retryAfterMs, maxPauseMs);
+            if (until > pausedUntil) {
+                pausedUntil = until;
+            }
+        }
+    }
+
+    /**
+     * 按本周期的统计调整流控
+     *
+     * @param now 当前时间
+     * @return 状态是否变化
+     */
+    boolean adjust(final long now) {
+        long count = requests.sumThenReset();
+        long nanos = latencyNanos.sumThenReset();
+        long total = messages.sumThenReset();
+        long failed = failures.sumThenReset();
+        boolean limited = throttled;
+        throttled = false;
+
+        latencyMs = count > 0 ? nanos / count / 1000000 : 0;
+        errorRate = total > 0 ? (int) (failed * 100 / total) : 0;
+
+        State prev = state;
+        if (limited) {
+            // 有Retry-After时已经暂停,否则按连续暂停次数退避
+            pause(now, pausedUntil > now ? pausedUntil - now : backoff());
+        } else if (state == State.PAUSED) {
+            if (now >= pausedUntil) {
+                state = State.PROBING;
+                window = 1;
+            }
+        } else if (total > 0) {
+            boolean failing = failed > 0 && (failed == total
+                    || (total >= MIN_SAMPLES && failed * 100 >= (long) errorRatePercent * total));
+            if (failing) {
+                if (window == 1) {
+                    pause(now, backoff());
+                } else {
+                    window = Math.max(1, window / 2);
+                    state = State.CONGESTED;
+                }
+            } else if (count > 0 && nanos / count > targetLatencyNanos) {
+                pauses = 0;
+                window = Math.max(1, window - Math.max(1, window / 4));
+                state = State.CONGESTED;
+            } else {
+                pauses = 0;
+                window = Math.min(maxWindow, window + 1);
+                state = window == maxWindow ? State.NORMAL : State.CONGESTED;
+            }
+        }
+        return state != prev;
+    }
+
+    private long backoff() {
+        long pause = Math.min(maxPauseMs, MIN_PAUSE_MS << Math.min(pauses, 20));
+        pauses++;
+        return pause;
+    }
+
+    private void pause(final long now, final long millis) {
+        pausedUntil = now + Math.min(millis, maxPauseMs);
+        window = 1;
+        state = State.PAUSED;
+    }
+
+    /**
+     * 当前是否暂停投递
+     */
+    boolean isPaused() {
+        return System.currentTimeMillis() < pausedUntil;
+    }
+
+    /**
+     * 剩余的暂停时间
+     *
+     * @return 剩余时间(毫秒)，未暂停返回0
+     */
+    long remainingPauseMs() {
+        return Math.max(0, pausedUntil - System.currentTimeMillis());
+    }
+
+    /**
+     * 暂停期间消息发回broker的重试级别，取不小于剩余暂停时间的最小级别
+     *
+     * @return 重试级别，未暂停返回0，由broker按重试次数决定
+     */
+    int retryDelayLevel() {
+        long remaining = pausedUntil - System.currentTimeMillis();
+        if (remaining <= 0) {
+            return 0;
+        }
+        for (int i = 0; i < DELAY_LEVEL_MS.length; i++) {
+            if (DELAY_LEVEL_MS[i] >= remaining) {
+                return i + 1;
+            }
+        }
+        return DELAY_LEVEL_MS.length;
+    }
+
+    int getWindow() {
+        return window;
+    }
+
+    int getMaxWindow() {
+        return maxWindow;
+    }
+
+    State getState() {
+        return state;
+    }
+
+    FlowControlState snapshot() {
+        FlowControlState snapshot = new FlowControlState();
+        snapshot.setApp(app);
+        snapshot.setTopic(topic);
+        snapshot.setCallback(callback);
+        snapshot.setState(state.name());
+        snapshot.setWindow(window);
+        snapshot.setMaxWindow(maxWindow);
+        snapshot.setLatencyMs(latencyMs);
+        snapshot.setErrorRate(errorRate);
+        snapshot.setPausedUntil(pausedUntil);
+        return snapshot;
+    }
+
+}
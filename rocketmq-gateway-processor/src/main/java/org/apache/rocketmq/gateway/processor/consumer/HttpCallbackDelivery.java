@@ -0,0 +1,416 @@
+package org.apache.rocketmq.gateway.processor.consumer;
+
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.JSONArray;
+import com.alibaba.fastjson.JSONObject;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.rocketmq.common.message.MessageExt;
+import org.apache.rocketmq.gateway.common.protocol.MessageConsumerRequest;
+import org.apache.rocketmq.gateway.common.protocol.MessageConsumerResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import static org.apache.rocketmq.gateway.common.protocol.MessageConsumerEntity.HEADER_BATCH;
+import static org.apache.rocketmq.gateway.common.protocol.MessageConsumerEntity.HEADER_KEY;
+import static org.apache.rocketmq.gateway.common.protocol.MessageConsumerEntity.HEADER_TAG;
+import static org.apache.rocketmq.gateway.common.protocol.MessageEntity.HEADER_REQ_ID;
+import static org.apache.rocketmq.gateway.common.protocol.MessageEntity.HEADER_TOPIC;
+
+/**
+ * 单个回调地址的投递，不直接注册到消费者，由消费者的监听器统一确认消息
+ */
+final class HttpCallbackDelivery extends HttpExecutor {
+
+    private static final Logger logger = LoggerFactory.getLogger(HttpCallbackDelivery.class);
+
+    private static final String FIELD_MSG_ID = "msgId";
+    private static final String FIELD_KEY = "key";
+    private static final String FIELD_TAG = "tag";
+    private static final String FIELD_BODY = "body";
+
+    private final String topic;
+    private final String app;
+    private final String tag;
+    private final String callback;
+    // 回调地址的负载均衡,单个地址时总是选择该地址
+    private final CallbackBalancer balancer;
+    private final String gatewayAddress;
+    // 流控,决定同一批消息同时进行中的回调数
+    private final FlowController flowController;
+    // 每次回调投递的消息数
+    private final int batchSize;
+    // 按key保序投递的串行通道,未开启为null
+    private final SerialLanes lanes;
+    // 全局回调并发限制,未开启共享回调为null
+    private final DeliveryLimiter limiter;
+
+    HttpCallbackDelivery(final String callback,
+                         final String topic,
+                         final String tag,
+                         final String app,
+                         final CloseableHttpAsyncClient httpClient,
+                         final CallbackBalancer balancer,
+                         final String gatewayAddress,
+                         final FlowController flowController,
+                         final int batchSize,
+                         final SerialLanes lanes,
+                         final DeliveryLimiter limiter) {
+
+        this.callback = callback;
+        this.balancer = balancer;
+        this.topic = topic;
+        this.tag = tag;
+        this.app = app;
+        this.httpClient = httpClient;
+        this.gatewayAddress = gatewayAddress;
+        this.flowController = flowController;
+        this.batchSize = Math.max(1, batchSize);
+        this.lanes = lanes;
+        this.limiter = limiter;
+    }
+
+    /**
+     * 异步投递一批消息，每次回调投递batchSize条消息，最多同时进行流控允许的回调数，
+     * 一个回调完成后发起下一个，不占用调用线程等待应答；流控暂停时不回调，全部视为失败
+     *
+     * @param messages 消息
+     * @return 每条消息是否投递成功，下标与消息一致，不会异常完成
+     */
+    CompletableFuture<boolean[]> consumeAsync(List<MessageExt> messages) {
+        if (lanes != null) {
+            return consumeByKey(messages);
+        }
+        BatchDelivery delivery = new BatchDelivery(messages, false);
+        delivery.start(flowController.getWindow());
+        return delivery.future;
+    }
+
+    /**
+     * 按顺序投递一批消息，一次回调成功后再发起下一次，某次回调失败后不再投递之后的消息
+     *
+     * @param messages 同一个队列的消息
+     * @return 每条消息是否投递成功，失败消息之后的消息均为失败，不会异常完成
+     */
+    CompletableFuture<boolean[]> consumeOrderly(List<MessageExt> messages) {
+        BatchDelivery delivery = new BatchDelivery(messages, true);
+        delivery.start(1);
+        return delivery.future;
+    }
+
+    /**
+     * 按key保序投递：消息按key分到各通道，同一通道的消息按顺序回调，不同通道并行；
+     * 通道跨批次共享，同一key的消息在前一批完成后才回调。回调失败时该通道本批之后的消息不再投递，一起重试
+     *
+     * @param messages 消息
+     * @return 每条消息是否投递成功，下标与消息一致，不会异常完成
+     */
+    private CompletableFuture<boolean[]> consumeByKey(final List<MessageExt> messages) {
+        // 按通道分组,保留消息在批次中的下标
+        Map<Integer/*lane*/, List<Integer>> laneIndexes = new HashMap<>();
+        for (int i = 0; i < messages.size(); i++) {
+            MessageExt message = messages.get(i);
+            // 没有key的消息不需要保序,按消息ID分散
+            String key = StringUtils.isEmpty(message.getKeys()) ? message.getMsgId() : message.getKeys();
+            int lane = key != null ? lanes.laneOf(key) : i % lanes.size();
+            List<Integer> indexes = laneIndexes.get(lane);
+            if (indexes == null) {
+                indexes = new ArrayList<>();
+                laneIndexes.put(lane, indexes);
+            }
+            indexes.add(i);
+        }
+
+        final boolean[] results = new boolean[messages.size()];
+        CompletableFuture<?>[] futures = new CompletableFuture<?>[laneIndexes.size()];
+        int n = 0;
+        for (Map.Entry<Integer, List<Integer>> entry : laneIndexes.entrySet()) {
+            final List<Integer> indexes = entry.getValue();
+            final List<MessageExt> laneMessages = new ArrayList<>(indexes.size());
+            for (Integer index : indexes) {
+                laneMessages.add(messages.get(index));
+            }
+            futures[n++] = lanes.submit(entry.getKey(), new Supplier<CompletableFuture<boolean[]>>() {
+                @Override
+                public CompletableFuture<boolean[]> get() {
+                    return consumeOrderly(laneMessages);
+                }
+            }).thenAccept(new Consumer<boolean[]>() {
+                @Override
+                public void accept(boolean[] laneResults) {
+                    for (int i = 0; i < laneResults.length; i++) {
+                        results[indexes.get(i)] = laneResults[i];
+                    }
+                }
+            });
+        }
+        return CompletableFuture.allOf(futures).handle(new BiFunction<Void, Throwable, boolean[]>() {
+            @Override
+            public boolean[] apply(Void ignored, Throwable e) {
+                return results;
+            }
+        });
+    }
+
+    FlowController getFlowController() {
+        return flowController;
+    }
+
+    private CompletableFuture<boolean[]> deliver(MessageExt message) {
+        MessageConsumerRequest requestLog = newRequestLog();
+        requestLog.setKey(message.getKeys());
+
+        Map<String, String> headers = new HashMap<>();
+        headers.put(HEADER_TAG, message.getTags());
+        headers.put(HEADER_TOPIC, topic);
+        headers.put(HEADER_REQ_ID, requestLog.getInternalReqId());
+        headers.put(HEADER_KEY, message.getKeys());
+
+        return post(requestLog, headers, message.getBody(), 1);
+    }
+
+    /**
+     * 一次回调投递多条消息，消息体为JSON数组，每个元素包含msgId、key、tag和body
+     */
+    private CompletableFuture<boolean[]> deliver(List<MessageExt> messages) {
+        MessageConsumerRequest requestLog = newRequestLog();
+
+        JSONArray array = new JSONArray(messages.size());
+        for (MessageExt message : messages) {
+            JSONObject item = new JSONObject(4);
+            item.put(FIELD_MSG_ID, message.getMsgId());
+            item.put(FIELD_KEY, message.getKeys());
+            item.put(FIELD_TAG, message.getTags());
+            item.put(FIELD_BODY, new String(message.getBody(), StandardCharsets.UTF_8));
+            array.add(item);
+        }
+
+        Map<String, String> headers = new HashMap<>();
+        headers.put(HEADER_TOPIC, topic);
+        headers.put(HEADER_REQ_ID, requestLog.getInternalReqId());
+        headers.put(HEADER_BATCH, Boolean.TRUE.toString());
+
+        return post(requestLog, headers, JSON.toJSONBytes(array), messages.size());
+    }
+
+    private MessageConsumerRequest newRequestLog() {
+        MessageConsumerRequest requestLog = new MessageConsumerRequest();
+        requestLog.setTopic(topic);
+        requestLog.setTag(tag);
+        requestLog.setApp(app);
+        requestLog.setCallback(callback);
+        requestLog.setGatewayAddress(gatewayAddress);
+        requestLog.setTime(new Date());
+        requestLog.setInternalReqId(UUID.randomUUID().toString());
+        return requestLog;
+    }
+
+    /**
+     * 发起回调，开启共享回调时先获得全局回调名额
+     *
+     * @param size 回调的消息数，大于1时为批量回调
+     * @return 每条消息是否消费成功，不会异常完成
+     */
+    private CompletableFuture<boolean[]> post(final MessageConsumerRequest requestLog, final Map<String, String> headers,
+                                              final byte[] content, final int size) {
+        if (limiter == null) {
+            return send(requestLog, headers, content, size);
+        }
+        return limiter.acquire(app).thenCompose(new Function<Void, CompletionStage<boolean[]>>() {
+            @Override
+            public CompletionStage<boolean[]> apply(Void ignored) {
+                return send(requestLog, headers, content, size).whenComplete(new BiConsumer<boolean[], Throwable>() {
+                    @Override
+                    public void accept(boolean[] results, Throwable e) {
+                        limiter.release();
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * 选择回调地址发起回调并解析应答，排队等待名额的时间不计入回调延迟；没有可用的回调地址时按熔断处理
+     */
+    private CompletableFuture<boolean[]> send(final MessageConsumerRequest requestLog, Map<String, String> headers,
+                                              byte[] content, final int size) {
+        final CallbackBalancer.Call call = balancer.select();
+        final String target = call != null ? call.getCallback() : callback;
+        requestLog.setCallback(target);
+        if (logger.isDebugEnabled()) {
+            logger.debug(String.format("%s%s", MessageConsumerRequest.LOG_PREFIX, requestLog.toString()));
+        }
+
+        final long start = System.nanoTime();
+        CompletableFuture<String> future;
+        if (call != null) {
+            future = this.post(call.getPath(), call.getPermit(), headers, content);
+        } else {
+            future = new CompletableFuture<>();
+            future.completeExceptionally(new CircuitOpenException(callback, balancer.remainingOpenMs()));
+        }
+        return future.handle(new BiFunction<String, Throwable, boolean[]>() {
+            @Override
+            public boolean[] apply(String response, Throwable e) {
+                long nanos = System.nanoTime() - start;
+                if (call != null) {
+                    call.onComplete(nanos, e != null);
+                }
+                MessageConsumerResponse responseLog = new MessageConsumerResponse();
+                responseLog.setTopic(topic);
+                responseLog.setTag(tag);
+                responseLog.setApp(app);
+                responseLog.setCallback(target);
+                responseLog.setGatewayAddress(gatewayAddress);
+                responseLog.setInternalReqId(requestLog.getInternalReqId());
+                responseLog.setTime(new Date());
+
+                boolean[] results;
+                if (e != null) {
+                    responseLog.setContent(e.getMessage());
+                    results = new boolean[size];
+                    Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+                    if (cause instanceof CircuitOpenException) {
+                        // 熔断期间按剩余时间暂停投递,半开时试探名额用完的直接失败
+                        long remainingMs = ((CircuitOpenException) cause).getRemainingMs();
+                        if (remainingMs > 0) {
+                            flowController.onThrottled(remainingMs);
+                        }
+                        logger.warn(String.format("%s, callback %s", cause.getMessage(), target));
+                    } else {
+                        if (cause instanceof StatusException && ((StatusException) cause).isThrottled()) {
+                            flowController.onThrottled(((StatusException) cause).getRetryAfterMs());
+                        }
+                        logger.error(String.format("Post message to app error, callback %s", target), cause);
+                    }
+                } else if (StringUtils.isBlank(response)) {
+                    responseLog.setContent("No response");
+                    results = new boolean[size];
+                } else {
+                    responseLog.setContent(response);
+                    if (size == 1) {
+                        results = new boolean[]{CallbackResponse.isSuccess(response)};
+                    } else {
+                        results = CallbackResponse.results(response, size);
+                    }
+                }
+                int failed = failures(results);
+                responseLog.setSuccess(failed == 0);
+                flowController.onComplete(nanos, size, failed);
+
+                if (!responseLog.getSuccess()) {
+                    logger.error(String.format("%s%s", MessageConsumerResponse.LOG_PREFIX, responseLog.toString()));
+                } else {
+                    if (logger.isDebugEnabled()) {
+                        logger.debug(String.format("%s%s", MessageConsumerResponse.LOG_PREFIX, responseLog.toString()));
+                    }
+                }
+                return results;
+            }
+        });
+    }
+
+    private static int failures(boolean[] results) {
+        int failures = 0;
+        for (boolean result : results) {
+            if (!result) {
+                failures++;
+            }
+        }
+        return failures;
+    }
+
+    /**
+     * 一批消息的投递窗口，按batchSize分组，每组一次回调
+     */
+    private final class BatchDelivery {
+
+        private final List<MessageExt> messages;
+        // 每条消息是否投递成功
+        private final boolean[] results;
+        // 回调次数
+        private final int groups;
+        // 下一个待投递的分组
+        private final AtomicInteger next = new AtomicInteger();
+        // 未完成的分组数
+        private final AtomicInteger remaining;
+        // 是否按顺序投递,失败后不再投递之后的分组
+        private final boolean sequential;
+
+        private final CompletableFuture<boolean[]> future = new CompletableFuture<>();
+
+        BatchDelivery(final List<MessageExt> messages, final boolean sequential) {
+            this.messages = messages;
+            this.sequential = sequential;
+            this.results = new boolean[messages.size()];
+            this.groups = (messages.size() + batchSize - 1) / batchSize;
+            this.remaining = new AtomicInteger(groups);
+        }
+
+        void start(final int parallelism) {
+            if (groups == 0) {
+                future.complete(results);
+                return;
+            }
+            for (int i = 0, n = Math.min(parallelism, groups); i < n; i++) {
+                deliverNext();
+            }
+        }
+
+        private void deliverNext() {
+            int group;
+            while (true) {
+                group = next.getAndIncrement();
+                if (group >= groups) {
+                    return;
+                }
+                if (!flowController.isPaused()) {
+                    break;
+                }
+                // 暂停期间不再回调,剩余分组视为失败
+                if (remaining.decrementAndGet() == 0) {
+                    future.complete(results);
+                    return;
+                }
+            }
+            final int from = group * batchSize;
+            int to = Math.min(from + batchSize, messages.size());
+            CompletableFuture<boolean[]> delivery = batchSize == 1
+                    ? deliver(messages.get(from)) : deliver(messages.subList(from, to));
+            delivery.whenComplete(new BiConsumer<boolean[], Throwable>() {
+                @Override
+                public void accept(boolean[] groupResults, Throwable e) {
+                    if (groupResults != null) {
+                        System.arraycopy(groupResults, 0, results, from, groupResults.length);
+                    }
+                    if (sequential && (groupResults == null || failures(groupResults) > 0)) {
+                        // 之后的消息不能越过失败的消息
+                        future.complete(results);
+                        return;
+                    }
+                    if (remaining.decrementAndGet() > 0) {
+                        deliverNext();
+                    } else {
+                        future.complete(results);
+                    }
+                }
+            });
+        }
+    }
+
+
+}
+
+
@@ -1,20 +1,23 @@
 package org.apache.rocketmq.gateway.processor.consumer;
 
+import org.apache.http.Header;
 import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
 import org.apache.http.HttpStatus;
-import org.apache.http.client.config.RequestConfig;
-import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.utils.DateUtils;
+import org.apache.http.concurrent.FutureCallback;
 import org.apache.http.entity.ByteArrayEntity;
 import org.apache.http.entity.ContentType;
-import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
 import org.apache.http.util.EntityUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.IOException;
 import java.nio.charset.Charset;
+import java.util.Date;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 abstract class HttpExecutor {
 
@@ -23,14 +26,15 @@ abstract class HttpExecutor {
     private static final Charset UTF8 = Charset.forName("UTF-8");
     public static final String HEADER_CONTENT_TYPE = "Content-Type";
     public static final String HEADER_ACCEPT = "Accept";
+    public static final String HEADER_RETRY_AFTER = "Retry-After";
 
     // HTTP客户端
-    protected CloseableHttpClient httpClient;
-    // 是否开始请求和应答的报文日志
-    protected boolean printProtocolEnabled = true;
+    protected CloseableHttpAsyncClient httpClient;
+    // 是否开始请求和应答的报文日志,默认关闭,每个回调都会打印一次
+    protected boolean printProtocolEnabled = false;
 
     protected HttpExecutor() {
-        this(true);
+        this(false);
     }
 
     protected HttpExecutor(boolean printProtocolEnabled) {
@@ -38,7 +42,19 @@ abstract class HttpExecutor {
     }
 
 
-    protected String post(String path, Map<String, String> headers, byte[] content) throws Exception {
+    /**
+     * 异步发送POST请求，不阻塞调用线程，应答由HTTP客户端的IO线程处理
+     *
+     * @param path    地址
+     * @param permit  回调地址的熔断许可，请求结果计入熔断，为空表示不熔断
+     * @param headers 请求头
+     * @param content 请求体
+     * @return 应答消息体，非200状态或请求失败时异常完成
+     */
+    protected CompletableFuture<String> post(String path, final CircuitBreaker.Permit permit, Map<String, String> headers,
+                                             byte[] content) {
+        final CompletableFuture<String> future = new CompletableFuture<>();
+
         HttpPost post = new HttpPost(path);
         String json = ContentType.APPLICATION_JSON.toString();
         post.addHeader(HEADER_CONTENT_TYPE, json);
@@ -51,38 +67,83 @@ abstract class HttpExecutor {
 
         post.setEntity(new ByteArrayEntity(content));
 
-        RequestConfig.Builder builder = RequestConfig.custom();
-        post.setConfig(builder.build());
-
         try {
-            CloseableHttpResponse response = httpClient.execute(post);
-            try {
-                return handle(response);
-            } catch (Exception e) {
-                throw new RuntimeException("error to handle response", e);
-            } finally {
-                if (response != null) {
+            httpClient.execute(post, new FutureCallback<HttpResponse>() {
+                @Override
+                public void completed(HttpResponse response) {
                     try {
-                        response.close();
-                    } catch (IOException ignored) {
-                        // ignored
+                        String content = handle(response);
+                        onSuccess(permit);
+                        future.complete(content);
+                    } catch (StatusException e) {
+                        if (e.isServerError()) {
+                            onFailure(permit);
+                        } else {
+                            onSuccess(permit);
+                        }
+                        future.completeExceptionally(e);
+                    } catch (Exception e) {
+                        onFailure(permit);
+                        future.completeExceptionally(new RuntimeException("error to handle response", e));
                     }
                 }
-            }
+
+                @Override
+                public void failed(Exception e) {
+                    onFailure(permit);
+                    future.completeExceptionally(new RuntimeException("error to integrate with remote server", e));
+                }
+
+                @Override
+                public void cancelled() {
+                    onFailure(permit);
+                    future.completeExceptionally(new RuntimeException("request to remote server is cancelled"));
+                }
+            });
         } catch (Exception e) {
-            throw new RuntimeException("error to integrate with remote server", e);
-        } finally {
-            if (post != null) {
-                post.releaseConnection();
-            }
+            onFailure(permit);
+            future.completeExceptionally(new RuntimeException("error to integrate with remote server", e));
+        }
+        return future;
+    }
+
+    private static void onSuccess(CircuitBreaker.Permit permit) {
+        if (permit != null) {
+            permit.onSuccess();
+        }
+    }
+
+    private static void onFailure(CircuitBreaker.Permit permit) {
+        if (permit != null) {
+            permit.onFailure();
+        }
+    }
+
+    /**
+     * 解析Retry-After，支持秒数和HTTP日期
+     *
+     * @return 等待时间(毫秒)，没有或无法解析返回-1
+     */
+    private static long retryAfter(HttpResponse response) {
+        Header header = response.getFirstHeader(HEADER_RETRY_AFTER);
+        if (header == null || header.getValue() == null) {
+            return -1;
+        }
+        String value = header.getValue().trim();
+        try {
+            return Math.max(0, Long.parseLong(value) * 1000);
+        } catch (NumberFormatException e) {
+            Date date = DateUtils.parseDate(value);
+            return date != null ? Math.max(0, date.getTime() - System.currentTimeMillis()) : -1;
         }
     }
 
-    private String handle(CloseableHttpResponse response) {
+    private String handle(HttpResponse response) {
         int status = response.getStatusLine().getStatusCode();
 
         if (status != HttpStatus.SC_OK) {
-            throw new RuntimeException(String.format("Non-OK http status, %d", status));
+            EntityUtils.consumeQuietly(response.getEntity());
+            throw new StatusException(status, retryAfter(response));
         }
 
         HttpEntity entity = response.getEntity();
@@ -103,5 +164,63 @@ abstract class HttpExecutor {
         return content;
     }
 
+    /**
+     * 非200应答
+     */
+    static final class StatusException extends RuntimeException {
+
+        private static final int SC_TOO_MANY_REQUESTS = 429;
+
+        // HTTP状态码
+        private final int status;
+        // Retry-After(毫秒),没有为-1
+        private final long retryAfterMs;
+
+        StatusException(final int status, final long retryAfterMs) {
+            super(String.format("Non-OK http status, %d", status));
+            this.status = status;
+            this.retryAfterMs = retryAfterMs;
+        }
+
+        int getStatus() {
+            return status;
+        }
+
+        long getRetryAfterMs() {
+            return retryAfterMs;
+        }
+
+        /**
+         * 是否为限流应答，429或503
+         */
+        boolean isThrottled() {
+            return status == SC_TOO_MANY_REQUESTS || status == HttpStatus.SC_SERVICE_UNAVAILABLE;
+        }
+
+        /**
+         * 是否为回调地址不可用的应答，5xx或429，计入熔断
+         */
+        boolean isServerError() {
+            return status >= HttpStatus.SC_INTERNAL_SERVER_ERROR || status == SC_TOO_MANY_REQUESTS;
+        }
+    }
+
+    /**
+     * 回调地址已熔断，未发起请求
+     */
+    static final class CircuitOpenException extends RuntimeException {
+
+        // 熔断剩余时间(毫秒)
+        private final long remainingMs;
+
+        CircuitOpenException(final String endpoint, final long remainingMs) {
+            super(String.format("Circuit breaker of %s is open", endpoint), null, false, false);
+            this.remainingMs = remainingMs;
+        }
+
+        long getRemainingMs() {
+            return remainingMs;
+        }
+    }
 
 }
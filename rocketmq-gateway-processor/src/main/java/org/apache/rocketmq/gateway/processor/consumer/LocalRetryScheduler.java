@@ -0,0 +1,362 @@
+package org.apache.rocketmq.gateway.processor.consumer;
+
+import org.apache.rocketmq.common.message.MessageExt;
+import org.apache.rocketmq.gateway.common.GatewayConfig;
+import org.apache.rocketmq.gateway.common.utils.NamedThreadFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiConsumer;
+
+/**
+ * 网关本地重试
+ * <p>
+ * 回调失败的消息先在网关内存中按退避时间重试，不经过broker的重试主题；
+ * 本地重试maxAttempts次仍然失败，或者内存预算不足时，发回broker重试。
+ * <p>
+ * 进入本地重试的消息已向broker确认消费，网关停止时未完成的重试全部发回broker，进程异常退出时会丢失。
+ */
+final class LocalRetryScheduler {
+
+    private static final Logger logger = LoggerFactory.getLogger(LocalRetryScheduler.class);
+
+    // 时间轮每个桶的跨度(毫秒)
+    private static final long TICK_MS = 100;
+    // 时间轮每层的桶数
+    private static final int WHEEL_SIZE = 512;
+    // 每条消息除消息体外的内存估算(字节)
+    private static final int ENTRY_OVERHEAD = 512;
+    // 停止时等待进行中的重试回调完成的最长时间(毫秒)
+    private static final long STOP_TIMEOUT_MS = 30000;
+
+    private final GatewayConfig gatewayConfig;
+
+    // 其他线程加入的任务,以任务的next串成的栈,由调度线程取出
+    private final AtomicReference<RetryTask> inbox = new AtomicReference<>();
+    // 本地重试中的消息数
+    private final AtomicLong pendingCount = new AtomicLong();
+    // 本地重试中的消息占用的内存估算
+    private final AtomicLong pendingBytes = new AtomicLong();
+
+    private final TimingWheel wheel = new TimingWheel(TICK_MS, WHEEL_SIZE, System.currentTimeMillis());
+
+    // 发回broker是同步调用,不占用调度线程和HTTP客户端的IO线程
+    private ExecutorService sendBackExecutor;
+
+    private SchedulerThread schedulerThread;
+
+    private volatile boolean stopped;
+
+    LocalRetryScheduler(final GatewayConfig gatewayConfig) {
+        this.gatewayConfig = gatewayConfig;
+    }
+
+    void start() {
+        sendBackExecutor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<Runnable>(), new NamedThreadFactory("consume-local-retry-send-back", true));
+        schedulerThread = new SchedulerThread("consume-local-retry");
+        schedulerThread.setDaemon(true);
+        schedulerThread.start();
+    }
+
+    /**
+     * 停止调度，未完成的重试发回broker
+     */
+    void stop() {
+        stopped = true;
+        if (schedulerThread != null) {
+            schedulerThread.shutdown();
+            try {
+                schedulerThread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        long count = pendingCount.get();
+        if (count > 0) {
+            logger.info("Send {} pending local retries back to broker.", count);
+        }
+        RetryTask task = takeInbox();
+        while (task != null) {
+            RetryTask next = (RetryTask) task.next;
+            sendBack(task);
+            task = next;
+        }
+        TimingWheel.Entry entry = wheel.clear();
+        while (entry != null) {
+            TimingWheel.Entry next = entry.next;
+            sendBack((RetryTask) entry);
+            entry = next;
+        }
+
+        // 进行中的重试回调完成后发回broker或释放
+        long deadline = System.currentTimeMillis() + STOP_TIMEOUT_MS;
+        while (pendingCount.get() > 0 && System.currentTimeMillis() < deadline) {
+            try {
+                Thread.sleep(10);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+
+        if (sendBackExecutor != null) {
+            sendBackExecutor.shutdown();
+            try {
+                sendBackExecutor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * 加入本地重试
+     *
+     * @param target  消息所属的消费者
+     * @param message 回调失败的消息
+     * @return 超出内存预算或已停止返回false，由调用方发回broker
+     */
+    boolean schedule(final Target target, final MessageExt message) {
+        if (stopped || gatewayConfig.getConsumeLocalRetryMaxAttempts() <= 0) {
+            return false;
+        }
+        long bytes = size(message);
+        if (pendingBytes.addAndGet(bytes) > gatewayConfig.getConsumeLocalRetryMaxBytes()) {
+            pendingBytes.addAndGet(-bytes);
+            return false;
+        }
+        pendingCount.incrementAndGet();
+
+        RetryTask task = new RetryTask(target, message);
+        task.deadline = System.currentTimeMillis() + backoff(0);
+        push(task);
+        return true;
+    }
+
+    /**
+     * 异步发回broker，用于无法加入本地重试的消息，不受内存预算限制；发回失败时按最大退避时间留在本地再次发回
+     *
+     * @param target  消息所属的消费者
+     * @param message 消息
+     */
+    void sendBack(final Target target, final MessageExt message) {
+        pendingBytes.addAndGet(size(message));
+        pendingCount.incrementAndGet();
+
+        RetryTask task = new RetryTask(target, message);
+        // 不再本地重试
+        task.attempts = Integer.MAX_VALUE;
+        sendBackAsync(task);
+    }
+
+    long getPendingCount() {
+        return pendingCount.get();
+    }
+
+    long getPendingBytes() {
+        return pendingBytes.get();
+    }
+
+    private void push(final RetryTask task) {
+        RetryTask head;
+        do {
+            head = inbox.get();
+            task.next = head;
+        } while (!inbox.compareAndSet(head, task));
+    }
+
+    private RetryTask takeInbox() {
+        return inbox.getAndSet(null);
+    }
+
+    /**
+     * 第attempts次本地重试前的等待时间，指数退避并加随机抖动
+     */
+    private long backoff(final int attempts) {
+        long base = gatewayConfig.getConsumeLocalRetryBackoffMs();
+        long delay = Math.min(gatewayConfig.getConsumeLocalRetryMaxBackoffMs(), base << Math.min(attempts, 30));
+        int jitter = gatewayConfig.getConsumeLocalRetryJitterPercent();
+        if (jitter > 0 && delay > 0) {
+            long range = delay * jitter / 100;
+            delay += ThreadLocalRandom.current().nextLong(-range, range + 1);
+        }
+        return Math.max(TICK_MS, delay);
+    }
+
+    private static long size(final MessageExt message) {
+        return ENTRY_OVERHEAD + (message.getBody() != null ? message.getBody().length : 0);
+    }
+
+    /**
+     * 调度线程：取出新加入的任务和到期的任务，到期的任务异步重新回调
+     */
+    private void tick(final long now) {
+        TimingWheel.Entry entry = takeInbox();
+        while (entry != null) {
+            TimingWheel.Entry next = entry.next;
+            entry.next = null;
+            if (!wheel.add(entry)) {
+                execute((RetryTask) entry);
+            }
+            entry = next;
+        }
+
+        entry = wheel.advance(now);
+        while (entry != null) {
+            TimingWheel.Entry next = entry.next;
+            entry.next = null;
+            if (!wheel.add(entry)) {
+                execute((RetryTask) entry);
+            }
+            entry = next;
+        }
+    }
+
+    private void execute(final RetryTask task) {
+        if (task.attempts >= gatewayConfig.getConsumeLocalRetryMaxAttempts()) {
+            sendBackAsync(task);
+            return;
+        }
+
+        CompletableFuture<boolean[]> future = task.target.redeliver(task.message);
+        if (future == null) {
+            // 消费者已停止或取消订阅
+            logger.warn("Subscription of message[{}] topic[{}] is removed, drop local retry.",
+                    task.message.getMsgId(), task.message.getTopic());
+            release(task);
+            return;
+        }
+        future.whenComplete(new BiConsumer<boolean[], Throwable>() {
+            @Override
+            public void accept(boolean[] results, Throwable e) {
+                if (e == null && results != null && results.length > 0 && results[0]) {
+                    release(task);
+                    return;
+                }
+                task.attempts++;
+                if (stopped || task.attempts >= gatewayConfig.getConsumeLocalRetryMaxAttempts()) {
+                    sendBackAsync(task);
+                } else {
+                    task.deadline = System.currentTimeMillis() + backoff(task.attempts);
+                    push(task);
+                }
+            }
+        });
+    }
+
+    private void sendBackAsync(final RetryTask task) {
+        try {
+            sendBackExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    sendBack(task);
+                }
+            });
+        } catch (Exception e) {
+            // 已停止
+            sendBack(task);
+        }
+    }
+
+    /**
+     * 发回broker，失败时按最大退避时间继续留在本地，停止时不再重试
+     */
+    private void sendBack(final RetryTask task) {
+        try {
+            task.target.sendBack(task.message);
+            release(task);
+        } catch (Exception e) {
+            if (stopped) {
+                logger.error(String.format("Send message[%s] topic[%s] back to broker error, message lost.",
+                        task.message.getMsgId(), task.message.getTopic()), e);
+                release(task);
+            } else {
+                logger.warn(String.format("Send message[%s] topic[%s] back to broker error, retry later.",
+                        task.message.getMsgId(), task.message.getTopic()), e);
+                task.deadline = System.currentTimeMillis() + gatewayConfig.getConsumeLocalRetryMaxBackoffMs();
+                push(task);
+            }
+        }
+    }
+
+    private void release(final RetryTask task) {
+        pendingCount.decrementAndGet();
+        pendingBytes.addAndGet(-size(task.message));
+    }
+
+    /**
+     * 本地重试的消息所属的消费者
+     */
+    interface Target {
+
+        /**
+         * 重新回调
+         *
+         * @return 回调结果，消费者已停止或取消订阅返回null
+         */
+        CompletableFuture<boolean[]> redeliver(MessageExt message);
+
+        /**
+         * 发回broker重试
+         */
+        void sendBack(MessageExt message) throws Exception;
+    }
+
+    /**
+     * 重试任务
+     */
+    private static final class RetryTask extends TimingWheel.Entry {
+        private final Target target;
+        private final MessageExt message;
+        // 已进行的本地重试次数
+        private int attempts;
+
+        RetryTask(final Target target, final MessageExt message) {
+            this.target = target;
+            this.message = message;
+        }
+    }
+
+    private class SchedulerThread extends Thread {
+
+        private volatile boolean shutdown;
+
+        SchedulerThread(String name) {
+            super(name);
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (!shutdown) {
+                    synchronized (this) {
+                        wait(TICK_MS);
+                    }
+                    try {
+                        tick(System.currentTimeMillis());
+                    } catch (Exception e) {
+                        logger.error("Schedule local retry error.", e);
+                    }
+                }
+            } catch (InterruptedException ignored) {
+            }
+        }
+
+        void shutdown() {
+            shutdown = true;
+            synchronized (this) {
+                notifyAll();
+            }
+        }
+    }
+}
@@ -0,0 +1,528 @@
+package org.apache.rocketmq.gateway.processor.consumer;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.rocketmq.common.message.MessageExt;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 订阅的过滤表达式，编译后在网关回调前判断消息是否匹配
+ * <p>
+ * 语法与RocketMQ的SQL92过滤相同，同一个表达式也可以交给broker过滤：
+ * 标识符为消息属性，KEYS和TAGS分别为消息的key和tag；支持数值比较（&gt; &gt;= &lt; &lt;= = &lt;&gt;和BETWEEN），
+ * 字符串和布尔值的=与&lt;&gt;，IN，IS NULL，AND，OR，NOT和括号，关键字不区分大小写。
+ * 属性不存在或不是数值时比较结果未知，按三值逻辑计算，最终未知视为不匹配。
+ * <p>
+ * 判断时只查找消息属性和比较，不创建对象，可以被多个线程同时使用。
+ */
+public final class MessageFilter {
+
+    // 三值逻辑的结果
+    private static final int FALSE = 0;
+    private static final int TRUE = 1;
+    private static final int UNKNOWN = 2;
+
+    // 数值比较的运算符
+    private static final int EQ = 0;
+    private static final int NE = 1;
+    private static final int GT = 2;
+    private static final int GE = 3;
+    private static final int LT = 4;
+    private static final int LE = 5;
+    // 运算符和对应的编码,较长的运算符在前
+    private static final String[] OPERATORS = {"<>", "!=", ">=", "<=", "=", ">", "<"};
+    private static final int[] OPERATOR_CODES = {NE, NE, GE, LE, EQ, GT, LT};
+
+    // 可以精确表示的10的幂
+    private static final double[] POW10 = {1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22};
+    // 不超过该值的整数可以用double精确表示
+    private static final long MAX_EXACT_MANTISSA = 1L << 53;
+
+    private final String expression;
+    private final Node root;
+
+    private MessageFilter(final String expression, final Node root) {
+        this.expression = expression;
+        this.root = root;
+    }
+
+    /**
+     * 编译过滤表达式
+     *
+     * @param expression 过滤表达式
+     * @return 表达式为空返回null
+     * @throws IllegalArgumentException 表达式语法错误
+     */
+    public static MessageFilter compile(final String expression) {
+        if (StringUtils.isBlank(expression)) {
+            return null;
+        }
+        return new MessageFilter(expression.trim(), new Parser(expression).parse());
+    }
+
+    /**
+     * 消息是否匹配
+     */
+    public boolean matches(final MessageExt message) {
+        return root.evaluate(message) == TRUE;
+    }
+
+    public String getExpression() {
+        return expression;
+    }
+
+    @Override
+    public String toString() {
+        return expression;
+    }
+
+    /**
+     * 把属性值解析为数值，支持整数、小数和科学计数法
+     *
+     * @return 不是数值返回NaN
+     */
+    static double parseNumber(final String value) {
+        int length = value.length();
+        int i = 0;
+        boolean negative = false;
+        if (i < length && (value.charAt(i) == '-' || value.charAt(i) == '+')) {
+            negative = value.charAt(i) == '-';
+            i++;
+        }
+        long mantissa = 0;
+        int digits = 0;
+        int scale = 0;
+        boolean dot = false;
+        for (; i < length; i++) {
+            char c = value.charAt(i);
+            if (c >= '0' && c <= '9') {
+                if (mantissa > (MAX_EXACT_MANTISSA - 9) / 10) {
+                    return parseSlow(value);
+                }
+                mantissa = mantissa * 10 + (c - '0');
+                digits++;
+                if (dot) {
+                    scale--;
+                }
+            } else if (c == '.' && !dot) {
+                dot = true;
+            } else if (c == 'e' || c == 'E') {
+                return digits > 0 ? parseSlow(value) : Double.NaN;
+            } else {
+                return Double.NaN;
+            }
+        }
+        if (digits == 0) {
+            return Double.NaN;
+        }
+        double result = scale == 0 ? mantissa : -scale < POW10.length ? mantissa / POW10[-scale] : parseSlow(value);
+        return negative ? -result : result;
+    }
+
+    /**
+     * 位数较多或带指数的数值，不常见，由JDK解析
+     */
+    private static double parseSlow(final String value) {
+        try {
+            return Double.parseDouble(value);
+        } catch (NumberFormatException e) {
+            return Double.NaN;
+        }
+    }
+
+    private static int not(final int value) {
+        return value == UNKNOWN ? UNKNOWN : value == TRUE ? FALSE : TRUE;
+    }
+
+    private static int of(final boolean value) {
+        return value ? TRUE : FALSE;
+    }
+
+    /**
+     * 表达式节点，返回三值逻辑的结果
+     */
+    private abstract static class Node {
+        abstract int evaluate(MessageExt message);
+    }
+
+    private static final class Constant extends Node {
+        private final int value;
+
+        Constant(final boolean value) {
+            this.value = of(value);
+        }
+
+        @Override
+        int evaluate(final MessageExt message) {
+            return value;
+        }
+    }
+
+    private static final class And extends Node {
+        private final Node left;
+        private final Node right;
+
+        And(final Node left, final Node right) {
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        int evaluate(final MessageExt message) {
+            int l = left.evaluate(message);
+            if (l == FALSE) {
+                return FALSE;
+            }
+            int r = right.evaluate(message);
+            return r == FALSE ? FALSE : l == TRUE && r == TRUE ? TRUE : UNKNOWN;
+        }
+    }
+
+    private static final class Or extends Node {
+        private final Node left;
+        private final Node right;
+
+        Or(final Node left, final Node right) {
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        int evaluate(final MessageExt message) {
+            int l = left.evaluate(message);
+            if (l == TRUE) {
+                return TRUE;
+            }
+            int r = right.evaluate(message);
+            return r == TRUE ? TRUE : l == FALSE && r == FALSE ? FALSE : UNKNOWN;
+        }
+    }
+
+    private static final class Not extends Node {
+        private final Node node;
+
+        Not(final Node node) {
+            this.node = node;
+        }
+
+        @Override
+        int evaluate(final MessageExt message) {
+            return not(node.evaluate(message));
+        }
+    }
+
+    private static final class IsNull extends Node {
+        private final String property;
+
+        IsNull(final String property) {
+            this.property = property;
+        }
+
+        @Override
+        int evaluate(final MessageExt message) {
+            return of(message.getProperty(property) == null);
+        }
+    }
+
+    /**
+     * 数值比较，BETWEEN编译为两个比较
+     */
+    private static final class NumberCompare extends Node {
+        private final String property;
+        private final int operator;
+        private final double operand;
+
+        NumberCompare(final String property, final int operator, final double operand) {
+            this.property = property;
+            this.operator = operator;
+            this.operand = operand;
+        }
+
+        @Override
+        int evaluate(final MessageExt message) {
+            String value = message.getProperty(property);
+            if (value == null) {
+                return UNKNOWN;
+            }
+            double number = parseNumber(value);
+            if (Double.isNaN(number)) {
+                return UNKNOWN;
+            }
+            switch (operator) {
+                case EQ:
+                    return of(number == operand);
+                case NE:
+                    return of(number != operand);
+                case GT:
+                    return of(number > operand);
+                case GE:
+                    return of(number >= operand);
+                case LT:
+                    return of(number < operand);
+                default:
+                    return of(number <= operand);
+            }
+        }
+    }
+
+    /**
+     * 字符串和布尔值的相等比较，IN编译为多个候选值
+     */
+    private static final class StringEquals extends Node {
+        private final String property;
+        private final String[] operands;
+        // 布尔值不区分大小写
+        private final boolean ignoreCase;
+
+        StringEquals(final String property, final String[] operands, final boolean ignoreCase) {
+            this.property = property;
+            this.operands = operands;
+            this.ignoreCase = ignoreCase;
+        }
+
+        @Override
+        int evaluate(final MessageExt message) {
+            String value = message.getProperty(property);
+            if (value == null) {
+                return UNKNOWN;
+            }
+            for (String operand : operands) {
+                if (ignoreCase ? operand.equalsIgnoreCase(value) : operand.equals(value)) {
+                    return TRUE;
+                }
+            }
+            return FALSE;
+        }
+    }
+
+    /**
+     * 递归下降解析：or := and (OR and)*，and := not (AND not)*，not := NOT not | primary
+     */
+    private static final class Parser {
+
+        private final String text;
+        private int position;
+
+        Parser(final String text) {
+            this.text = text;
+        }
+
+        Node parse() {
+            Node node = parseOr();
+            skipWhitespace();
+            if (position < text.length()) {
+                throw error("unexpected '" + text.charAt(position) + "'");
+            }
+            return node;
+        }
+
+        private Node parseOr() {
+            Node node = parseAnd();
+            while (acceptKeyword("OR")) {
+                node = new Or(node, parseAnd());
+            }
+            return node;
+        }
+
+        private Node parseAnd() {
+            Node node = parseNot();
+            while (acceptKeyword("AND")) {
+                node = new And(node, parseNot());
+            }
+            return node;
+        }
+
+        private Node parseNot() {
+            if (acceptKeyword("NOT")) {
+                return new Not(parseNot());
+            }
+            return parsePrimary();
+        }
+
+        private Node parsePrimary() {
+            if (accept("(")) {
+                Node node = parseOr();
+                expect(")");
+                return node;
+            }
+            if (acceptKeyword("TRUE")) {
+                return new Constant(true);
+            }
+            if (acceptKeyword("FALSE")) {
+                return new Constant(false);
+            }
+
+            String property = identifier();
+            if (acceptKeyword("IS")) {
+                boolean negated = acceptKeyword("NOT");
+                expectKeyword("NULL");
+                Node node = new IsNull(property);
+                return negated ? new Not(node) : node;
+            }
+            boolean negated = acceptKeyword("NOT");
+            if (acceptKeyword("IN")) {
+                Node node = new StringEquals(property, strings(), false);
+                return negated ? new Not(node) : node;
+            }
+            if (acceptKeyword("BETWEEN")) {
+                double low = number();
+                expectKeyword("AND");
+                double high = number();
+                Node node = new And(new NumberCompare(property, GE, low), new NumberCompare(property, LE, high));
+                return negated ? new Not(node) : node;
+            }
+            if (negated) {
+                throw error("IN or BETWEEN expected after NOT");
+            }
+
+            int operator = operator();
+            skipWhitespace();
+            String value;
+            boolean ignoreCase = false;
+            if (position < text.length() && text.charAt(position) == '\'') {
+                value = string();
+            } else if (acceptKeyword("TRUE")) {
+                value = Boolean.TRUE.toString();
+                ignoreCase = true;
+            } else if (acceptKeyword("FALSE")) {
+                value = Boolean.FALSE.toString();
+                ignoreCase = true;
+            } else {
+                return new NumberCompare(property, operator, number());
+            }
+            if (operator != EQ && operator != NE) {
+                throw error("only = and <> are supported for string and boolean");
+            }
+            Node node = new StringEquals(property, new String[]{value}, ignoreCase);
+            return operator == NE ? new Not(node) : node;
+        }
+
+        private int operator() {
+            skipWhitespace();
+            for (int i = 0; i < OPERATORS.length; i++) {
+                if (text.startsWith(OPERATORS[i], position)) {
+                    position += OPERATORS[i].length();
+                    return OPERATOR_CODES[i];
+                }
+            }
+            throw error("comparison operator expected");
+        }
+
+        private String[] strings() {
+            expect("(");
+            List<String> values = new ArrayList<>();
+            do {
+                skipWhitespace();
+                values.add(string());
+            } while (accept(","));
+            expect(")");
+            return values.toArray(new String[0]);
+        }
+
+        /**
+         * 单引号字符串，两个单引号表示一个单引号
+         */
+        private String string() {
+            skipWhitespace();
+            if (position >= text.length() || text.charAt(position) != '\'') {
+                throw error("string expected");
+            }
+            StringBuilder builder = new StringBuilder();
+            position++;
+            while (position < text.length()) {
+                char c = text.charAt(position++);
+                if (c != '\'') {
+                    builder.append(c);
+                } else if (position < text.length() && text.charAt(position) == '\'') {
+                    builder.append(c);
+                    position++;
+                } else {
+                    return builder.toString();
+                }
+            }
+            throw error("unterminated string");
+        }
+
+        private double number() {
+            skipWhitespace();
+            int start = position;
+            while (position < text.length() && isNumberPart(text.charAt(position))) {
+                position++;
+            }
+            double number = start < position ? parseSlow(text.substring(start, position)) : Double.NaN;
+            if (Double.isNaN(number)) {
+                position = start;
+                throw error("number expected");
+            }
+            return number;
+        }
+
+        private String identifier() {
+            skipWhitespace();
+            int start = position;
+            if (position < text.length() && Character.isJavaIdentifierStart(text.charAt(position))) {
+                position++;
+                while (position < text.length() && (Character.isJavaIdentifierPart(text.charAt(position))
+                        || text.charAt(position) == '.')) {
+                    position++;
+                }
+            }
+            if (start == position) {
+                throw error("property expected");
+            }
+            return text.substring(start, position);
+        }
+
+        private boolean accept(final String token) {
+            skipWhitespace();
+            if (text.startsWith(token, position)) {
+                position += token.length();
+                return true;
+            }
+            return false;
+        }
+
+        private void expect(final String token) {
+            if (!accept(token)) {
+                throw error("'" + token + "' expected");
+            }
+        }
+
+        /**
+         * 关键字不区分大小写，且不能是更长标识符的前缀
+         */
+        private boolean acceptKeyword(final String keyword) {
+            skipWhitespace();
+            int end = position + keyword.length();
+            if (text.regionMatches(true, position, keyword, 0, keyword.length())
+                    && (end == text.length() || !Character.isJavaIdentifierPart(text.charAt(end)))) {
+                position = end;
+                return true;
+            }
+            return false;
+        }
+
+        private void expectKeyword(final String keyword) {
+            if (!acceptKeyword(keyword)) {
+                throw error(keyword + " expected");
+            }
+        }
+
+        private void skipWhitespace() {
+            while (position < text.length() && Character.isWhitespace(text.charAt(position))) {
+                position++;
+            }
+        }
+
+        private static boolean isNumberPart(final char c) {
+            return (c >= '0' && c <= '9') || c == '.' || c == '-' || c == '+' || c == 'e' || c == 'E';
+        }
+
+        private IllegalArgumentException error(final String message) {
+            return new IllegalArgumentException(String.format("Invalid filter [%s] at position %d, %s.",
+                    text, position, message));
+        }
+    }
+}
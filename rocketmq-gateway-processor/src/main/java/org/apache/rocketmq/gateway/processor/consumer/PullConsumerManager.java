@@ -0,0 +1,619 @@
+package org.apache.rocketmq.gateway.processor.consumer;
+
+import org.apache.rocketmq.client.consumer.DefaultLitePullConsumer;
+import org.apache.rocketmq.client.consumer.MessageQueueListener;
+import org.apache.rocketmq.client.exception.MQClientException;
+import org.apache.rocketmq.client.impl.MQClientManager;
+import org.apache.rocketmq.client.impl.factory.MQClientInstance;
+import org.apache.rocketmq.common.message.MessageExt;
+import org.apache.rocketmq.common.message.MessageQueue;
+import org.apache.rocketmq.gateway.common.GatewayConfig;
+import org.apache.rocketmq.gateway.common.utils.Service;
+import org.apache.rocketmq.gateway.processor.Subscription;
+import org.apache.rocketmq.remoting.common.RemotingHelper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 拉取消费
+ * <p>
+ * 每个拉取订阅使用一个独立消费组的DefaultLitePullConsumer，客户端通过网关的HTTP接口拉取消息，处理完成后按拉取标识确认消费。
+ * 没有消息时拉取请求挂起，检查线程定期取出新消息交给挂起的请求，挂起的请求不占用线程。
+ * 只有检查线程从消费者取消息和回退队列，处理请求的IO线程只从缓冲中取消息，不会等待broker。
+ * <p>
+ * 每个队列只提交到最小的未确认位点；拉取的消息超过consumePullInvisibleMs未确认时，队列回退到最小的未确认位点重新投递，
+ * 之后已拉取的消息也会重复投递。
+ */
+public final class PullConsumerManager {
+
+    private static final Logger logger = LoggerFactory.getLogger(PullConsumerManager.class);
+
+    // 拉取订阅的消费组后缀,与同一应用的回调订阅区分
+    private static final String PULL_GROUP_SUFFIX = "_PULL";
+
+    private final GatewayConfig gatewayConfig;
+
+    private final ConcurrentHashMap<String /* group */, PullConsumer> consumerMap = new ConcurrentHashMap<>();
+
+    private DispatchThread dispatchThread;
+
+    public PullConsumerManager(final GatewayConfig gatewayConfig) {
+        this.gatewayConfig = gatewayConfig;
+    }
+
+    public void start() {
+        dispatchThread = new DispatchThread("consume-pull-dispatch");
+        dispatchThread.setDaemon(true);
+        dispatchThread.start();
+    }
+
+    public void stop() {
+        if (dispatchThread != null) {
+            dispatchThread.shutdown();
+        }
+
+        Iterator<Map.Entry<String, PullConsumer>> iterator = consumerMap.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, PullConsumer> entry = iterator.next();
+            entry.getValue().stop();
+            iterator.remove();
+
+            logger.info("Stop pull consumer[{}] ok.", entry.getKey());
+        }
+    }
+
+    public void onSubscription(List<Subscription> subscriptions) {
+        Map<String /* group */, Subscription> groupSubscriptions = new HashMap<>();
+        for (Subscription subscription : subscriptions) {
+            if (Boolean.TRUE.equals(subscription.getPull())) {
+                groupSubscriptions.put(groupOf(subscription.getApp(), subscription.getTopic()), subscription);
+            }
+        }
+
+        for (Map.Entry<String, Subscription> entry : groupSubscriptions.entrySet()) {
+            String group = entry.getKey();
+            Subscription subscription = entry.getValue();
+            PullConsumer consumer = consumerMap.get(group);
+            if (consumer != null && !Objects.equals(consumer.tag, subscription.getTag())) {
+                // 未确认的消息在新的消费者中重新投递
+                consumer.stop();
+                consumerMap.remove(group, consumer);
+                consumer = null;
+
+                logger.info("Tag of pull consumer[{}] changed, recreate it.", group);
+            }
+            if (consumer == null) {
+                consumer = new PullConsumer(group, subscription);
+                try {
+                    consumer.start();
+                } catch (Exception e) {
+                    throw new RuntimeException(String.format("Start pull consumer %s error.", group), e);
+                }
+                consumerMap.put(group, consumer);
+
+                logger.info("Start pull consumer[{}] ok.", group);
+            }
+        }
+
+        // 停止取消订阅的消费者
+        Iterator<Map.Entry<String, PullConsumer>> iterator = consumerMap.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, PullConsumer> entry = iterator.next();
+            if (!groupSubscriptions.containsKey(entry.getKey())) {
+                entry.getValue().stop();
+                iterator.remove();
+
+                logger.info("Stop pull consumer[{}] and remove it.", entry.getKey());
+            }
+        }
+    }
+
+    /**
+     * 订阅对应的拉取消费者
+     *
+     * @return 没有拉取订阅返回null
+     */
+    PullConsumer find(final String app, final String topic) {
+        return consumerMap.get(groupOf(app, topic));
+    }
+
+    private static String groupOf(final String app, final String topic) {
+        return app + "_" + topic + PULL_GROUP_SUFFIX;
+    }
+
+    final class PullConsumer extends Service {
+        private final String group;
+        private final String topic;
+        private final String tag;
+        private final DefaultLitePullConsumer consumer;
+        // 用于区分不同broker上编号相同的队列
+        private MQClientInstance clientInstance;
+
+        // 分配给本网关的队列,由客户端的重新负载线程更新
+        private volatile Set<MessageQueue> assigned = Collections.emptySet();
+
+        // 以下字段由this保护
+        // 已从消费者取出,还未返回给请求的消息
+        private final ArrayDeque<BufferedMessage> buffer = new ArrayDeque<>();
+        // 挂起的拉取请求
+        private final ArrayDeque<PullWaiter> waiters = new ArrayDeque<>();
+        // 各队列未确认的位点
+        private final Map<MessageQueue, QueueOffsets> offsets = new HashMap<>();
+        // 未确认的拉取,按超时时间排序
+        private final LinkedHashMap<String /* pullId */, PullReceipt> receipts = new LinkedHashMap<>();
+        // 清理过的队列分配
+        private Set<MessageQueue> cleaned = Collections.emptySet();
+        // 队列位点的版本,队列回退或重新分配后之前拉取的消息不再确认
+        private long generations;
+
+        PullConsumer(final String group, final Subscription subscription) {
+            this.group = group;
+            this.topic = subscription.getTopic();
+            this.tag = subscription.getTag();
+            this.consumer = new DefaultLitePullConsumer(group);
+            this.consumer.setNamesrvAddr(gatewayConfig.getNameServerAddress());
+            // 按拉取标识确认,不按poll自动提交
+            this.consumer.setAutoCommit(false);
+        }
+
+        @Override
+        protected void doStart() throws Exception {
+            super.doStart();
+            consumer.subscribe(topic, tag);
+            // 记录分配的队列,用于确定消息所属的队列
+            final MessageQueueListener listener = consumer.getMessageQueueListener();
+            consumer.setMessageQueueListener(new MessageQueueListener() {
+                @Override
+                public void messageQueueChanged(String changedTopic, Set<MessageQueue> mqAll, Set<MessageQueue> mqDivided) {
+                    listener.messageQueueChanged(changedTopic, mqAll, mqDivided);
+                    assigned = new HashSet<>(mqDivided);
+                }
+            });
+            consumer.start();
+            clientInstance = MQClientManager.getInstance().getOrCreateMQClientInstance(consumer);
+            // 轻量拉取消费者启动时不会立即负载,与推送消费者一样先上报心跳再触发负载,否则要等到下一次定时负载才开始拉取
+            clientInstance.sendHeartbeatToAllBrokerWithLock();
+            clientInstance.rebalanceImmediately();
+        }
+
+        @Override
+        protected void doStop() {
+            // 挂起的请求不会再拉取到消息
+            List<PullWaiter> stopped = new ArrayList<>();
+            synchronized (this) {
+                for (PullWaiter waiter : waiters) {
+                    if (!waiter.done) {
+                        waiter.done = true;
+                        stopped.add(waiter);
+                    }
+                }
+                waiters.clear();
+            }
+            for (PullWaiter waiter : stopped) {
+                waiter.onStop();
+            }
+
+            // 确认的位点只更新在内存中,由客户端定时提交,停止前立即提交
+            if (consumer.getOffsetStore() != null) {
+                consumer.getOffsetStore().persistAll(assigned);
+            }
+            consumer.shutdown();
+            super.doStop();
+        }
+
+        /**
+         * 拉取消息
+         *
+         * @param waiter 拉取请求
+         * @param park   没有消息时是否挂起请求，消费者已停止时不挂起并通知请求
+         * @return 拉取到的消息，没有消息时返回null
+         */
+        PullBatch pull(final PullWaiter waiter, final boolean park) {
+            synchronized (this) {
+                PullBatch batch = take(waiter.maxMessages);
+                if (batch != null || !park) {
+                    return batch;
+                }
+                if (isStarted()) {
+                    waiters.add(waiter);
+                    return null;
+                }
+                waiter.done = true;
+            }
+            // 消费者已停止,不再挂起
+            waiter.onStop();
+            return null;
+        }
+
+        /**
+         * 取消挂起的请求
+         *
+         * @return 请求仍在挂起返回true，已经拉取到消息返回false
+         */
+        synchronized boolean cancel(final PullWaiter waiter) {
+            if (waiter.done) {
+                return false;
+            }
+            waiter.done = true;
+            return true;
+        }
+
+        /**
+         * 确认拉取的消息已消费
+         *
+         * @param pullId 拉取标识
+         * @return 拉取标识不存在，已确认或已超时重新投递返回false
+         */
+        synchronized boolean commit(final String pullId) {
+            PullReceipt receipt = receipts.remove(pullId);
+            if (receipt == null) {
+                return false;
+            }
+            Set<MessageQueue> queues = new HashSet<>();
+            for (int i = 0; i < receipt.size; i++) {
+                QueueOffsets queueOffsets = offsets.get(receipt.queues[i]);
+                if (queueOffsets != null && queueOffsets.generation == receipt.generations[i]
+                        && queueOffsets.inflight.remove(receipt.offsets[i])) {
+                    queues.add(receipt.queues[i]);
+                }
+            }
+            for (MessageQueue queue : queues) {
+                QueueOffsets queueOffsets = offsets.get(queue);
+                long offset = queueOffsets.inflight.isEmpty() ? queueOffsets.next : queueOffsets.inflight.first();
+                consumer.getOffsetStore().updateOffset(queue, offset, true);
+            }
+            return true;
+        }
+
+        /**
+         * 检查线程：回退超时未确认的队列，缓冲为空时从消费者取出新消息，交给挂起的请求。
+         * 回退和取消息需要访问broker或等待消费者的锁，在锁外进行，不阻塞拉取和确认
+         */
+        void dispatch(final long now) {
+            Map<MessageQueue, Long> rewinds;
+            boolean empty;
+            synchronized (this) {
+                clean();
+                rewinds = expire(now);
+                empty = buffer.isEmpty();
+            }
+
+            if (rewinds != null) {
+                for (Map.Entry<MessageQueue, Long> entry : rewinds.entrySet()) {
+                    rewind(entry.getKey(), entry.getValue());
+                }
+            }
+            List<BufferedMessage> polled = empty ? poll() : null;
+
+            List<PullWaiter> ready = null;
+            List<PullBatch> batches = null;
+            synchronized (this) {
+                if (polled != null) {
+                    buffer.addAll(polled);
+                }
+
+                while (!waiters.isEmpty() && waiters.peek().done) {
+                    waiters.poll();
+                }
+                if (waiters.isEmpty() || buffer.isEmpty()) {
+                    return;
+                }
+
+                PullWaiter waiter;
+                while (!buffer.isEmpty() && (waiter = waiters.poll()) != null) {
+                    if (waiter.done) {
+                        continue;
+                    }
+                    waiter.done = true;
+                    if (!waiter.isActive()) {
+                        // 连接已关闭
+                        continue;
+                    }
+                    PullBatch batch = take(waiter.maxMessages);
+                    if (batch == null) {
+                        break;
+                    }
+                    if (ready == null) {
+                        ready = new ArrayList<>();
+                        batches = new ArrayList<>();
+                    }
+                    ready.add(waiter);
+                    batches.add(batch);
+                }
+            }
+
+            if (ready != null) {
+                for (int i = 0; i < ready.size(); i++) {
+                    ready.get(i).onMessages(batches.get(i));
+                }
+            }
+        }
+
+        /**
+         * 从消费者取出已拉取的消息，不等待，只在检查线程中调用
+         *
+         * @return 没有消息返回null
+         */
+        private List<BufferedMessage> poll() {
+            if (!isStarted()) {
+                return null;
+            }
+            List<MessageExt> messages = consumer.poll(0);
+            if (messages == null || messages.isEmpty()) {
+                return null;
+            }
+            List<BufferedMessage> polled = new ArrayList<>(messages.size());
+            for (MessageExt message : messages) {
+                polled.add(new BufferedMessage(message, queueOf(message)));
+            }
+            return polled;
+        }
+
+        /**
+         * 取出最多maxMessages条消息，记录为未确认
+         *
+         * @return 没有消息返回null
+         */
+        private PullBatch take(final int maxMessages) {
+            if (buffer.isEmpty()) {
+                return null;
+            }
+            PullReceipt receipt = new PullReceipt(UUID.randomUUID().toString(),
+                    System.currentTimeMillis() + gatewayConfig.getConsumePullInvisibleMs(), Math.min(maxMessages, buffer.size()));
+            List<MessageExt> messages = new ArrayList<>(receipt.queues.length);
+            BufferedMessage buffered;
+            while (messages.size() < maxMessages && (buffered = buffer.poll()) != null) {
+                MessageExt message = buffered.message;
+                messages.add(message);
+                if (buffered.queue == null) {
+                    continue;
+                }
+                QueueOffsets queueOffsets = offsets.get(buffered.queue);
+                if (queueOffsets == null) {
+                    queueOffsets = new QueueOffsets(++generations);
+                    offsets.put(buffered.queue, queueOffsets);
+                }
+                queueOffsets.inflight.add(message.getQueueOffset());
+                queueOffsets.next = Math.max(queueOffsets.next, message.getQueueOffset() + 1);
+                receipt.add(buffered.queue, message.getQueueOffset(), queueOffsets.generation);
+            }
+            receipts.put(receipt.pullId, receipt);
+            return new PullBatch(receipt.pullId, messages);
+        }
+
+        /**
+         * 队列分配变化后丢弃不再分配给本网关的队列的消息和位点，由新分配的消费者从已提交的位点重新投递
+         */
+        private void clean() {
+            Set<MessageQueue> assigned = this.assigned;
+            if (assigned == cleaned) {
+                return;
+            }
+            cleaned = assigned;
+            offsets.keySet().retainAll(assigned);
+            Iterator<BufferedMessage> iterator = buffer.iterator();
+            while (iterator.hasNext()) {
+                MessageQueue queue = iterator.next().queue;
+                if (queue != null && !assigned.contains(queue)) {
+                    iterator.remove();
+                }
+            }
+        }
+
+        /**
+         * 移除超时未确认的消息所在队列的位点和缓冲的消息
+         *
+         * @return 需要回退的队列和最小的未确认位点，没有返回null
+         */
+        private Map<MessageQueue, Long> expire(final long now) {
+            Map<MessageQueue, Long> rewinds = null;
+            Iterator<PullReceipt> iterator = receipts.values().iterator();
+            while (iterator.hasNext()) {
+                PullReceipt receipt = iterator.next();
+                if (receipt.deadline > now) {
+                    break;
+                }
+                iterator.remove();
+                for (int i = 0; i < receipt.size; i++) {
+                    QueueOffsets queueOffsets = offsets.get(receipt.queues[i]);
+                    if (queueOffsets != null && queueOffsets.generation == receipt.generations[i]
+                            && queueOffsets.inflight.contains(receipt.offsets[i])) {
+                        if (rewinds == null) {
+                            rewinds = new HashMap<>();
+                        }
+                        rewinds.put(receipt.queues[i], queueOffsets.inflight.first());
+                    }
+                }
+            }
+            if (rewinds != null) {
+                offsets.keySet().removeAll(rewinds.keySet());
+                Iterator<BufferedMessage> buffered = buffer.iterator();
+                while (buffered.hasNext()) {
+                    if (rewinds.containsKey(buffered.next().queue)) {
+                        buffered.remove();
+                    }
+                }
+            }
+            return rewinds;
+        }
+
+        /**
+         * 队列回退到最小的未确认位点，会同步访问broker，不能持有this调用
+         */
+        private void rewind(final MessageQueue queue, final long offset) {
+            try {
+                consumer.seek(queue, offset);
+                logger.warn("Messages of pull consumer[{}] {} from offset {} are not committed in {}ms, redeliver them.",
+                        group, queue, offset, gatewayConfig.getConsumePullInvisibleMs());
+            } catch (MQClientException e) {
+                // 队列已重新分配,由新分配的消费者从已提交的位点重新投递
+                logger.warn(String.format("Rewind pull consumer[%s] %s to offset %d error.", group, queue, offset), e);
+            }
+        }
+
+        /**
+         * 消息所属的队列，只有一个编号相同的队列时直接使用，否则按消息的存储地址区分broker
+         *
+         * @return 队列已不再分配给本网关时返回null
+         */
+        private MessageQueue queueOf(final MessageExt message) {
+            MessageQueue found = null;
+            boolean ambiguous = false;
+            for (MessageQueue queue : assigned) {
+                if (queue.getQueueId() == message.getQueueId()) {
+                    ambiguous = found != null;
+                    found = queue;
+                    if (ambiguous) {
+                        break;
+                    }
+                }
+            }
+            if (!ambiguous) {
+                return found;
+            }
+            String storeHost = RemotingHelper.parseSocketAddressAddr(message.getStoreHost());
+            for (MessageQueue queue : assigned) {
+                if (queue.getQueueId() == message.getQueueId()
+                        && storeHost.equals(clientInstance.findBrokerAddressInPublish(queue.getBrokerName()))) {
+                    return queue;
+                }
+            }
+            logger.warn("Queue of message[{}] from {} not found in pull consumer[{}], it can not be committed.",
+                    message.getMsgId(), storeHost, group);
+            return null;
+        }
+    }
+
+    /**
+     * 挂起的拉取请求
+     */
+    abstract static class PullWaiter {
+        // 一次返回的最大消息数
+        final int maxMessages;
+        // 已拉取到消息或已取消,由PullConsumer保护
+        private boolean done;
+
+        PullWaiter(final int maxMessages) {
+            this.maxMessages = maxMessages;
+        }
+
+        /**
+         * 请求的连接是否仍然可用
+         */
+        abstract boolean isActive();
+
+        /**
+         * 挂起的请求拉取到消息，在检查线程中调用
+         */
+        abstract void onMessages(PullBatch batch);
+
+        /**
+         * 消费者已停止，挂起的请求不会再拉取到消息，在停止消费者的线程中调用
+         */
+        abstract void onStop();
+    }
+
+    /**
+     * 一次拉取的消息
+     */
+    static final class PullBatch {
+        final String pullId;
+        final List<MessageExt> messages;
+
+        PullBatch(final String pullId, final List<MessageExt> messages) {
+            this.pullId = pullId;
+            this.messages = messages;
+        }
+    }
+
+    private static final class BufferedMessage {
+        private final MessageExt message;
+        // 消息所属的队列,无法确定时为空,不记录位点
+        private final MessageQueue queue;
+
+        BufferedMessage(final MessageExt message, final MessageQueue queue) {
+            this.message = message;
+            this.queue = queue;
+        }
+    }
+
+    /**
+     * 队列中已拉取未确认的位点
+     */
+    private static final class QueueOffsets {
+        private final long generation;
+        private final TreeSet<Long> inflight = new TreeSet<>();
+        // 已拉取的最大位点的下一个位点,没有未确认的消息时提交到这里
+        private long next = -1;
+
+        QueueOffsets(final long generation) {
+            this.generation = generation;
+        }
+    }
+
+    /**
+     * 一次拉取的各条消息的队列、位点和位点版本
+     */
+    private static final class PullReceipt {
+        private final String pullId;
+        private final long deadline;
+        private final MessageQueue[] queues;
+        private final long[] offsets;
+        private final long[] generations;
+        private int size;
+
+        PullReceipt(final String pullId, final long deadline, final int capacity) {
+            this.pullId = pullId;
+            this.deadline = deadline;
+            this.queues = new MessageQueue[capacity];
+            this.offsets = new long[capacity];
+            this.generations = new long[capacity];
+        }
+
+        void add(final MessageQueue queue, final long offset, final long generation) {
+            queues[size] = queue;
+            offsets[size] = offset;
+            generations[size] = generation;
+            size++;
+        }
+    }
+
+    private class DispatchThread extends Thread {
+
+        private volatile boolean shutdown;
+
+        DispatchThread(String name) {
+            super(name);
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (!shutdown) {
+                    synchronized (this) {
+                        wait(gatewayConfig.getConsumePullIntervalMs());
+                    }
+                    long now = System.currentTimeMillis();
+                    for (PullConsumer consumer : consumerMap.values()) {
+                        try {
+                            consumer.dispatch(now);
+                        } catch (Exception e) {
+                            logger.error(String.format("Dispatch pull consumer[%s] error.", consumer.group), e);
+                        }
+                    }
+                }
+            } catch (InterruptedException ignored) {
+            }
+        }
+
+        void shutdown() {
+            shutdown = true;
+            synchronized (this) {
+                notifyAll();
+            }
+        }
+    }
+}
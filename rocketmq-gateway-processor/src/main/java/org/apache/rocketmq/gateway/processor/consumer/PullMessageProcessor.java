@@ -0,0 +1,236 @@
+package org.apache.rocketmq.gateway.processor.consumer;
+
+import com.alibaba.rocketmq.gateway.transport.PullRequestProcessor;
+import com.alibaba.rocketmq.gateway.transport.PullResponseCallback;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.util.AttributeKey;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.rocketmq.common.message.MessageExt;
+import org.apache.rocketmq.gateway.common.GatewayConfig;
+import org.apache.rocketmq.gateway.common.protocol.MessageProduceResponse.ResponseStatus;
+import org.apache.rocketmq.gateway.common.protocol.MessagePullRequest;
+import org.apache.rocketmq.gateway.common.protocol.MessagePullResponse;
+import org.apache.rocketmq.gateway.common.protocol.MessagePullResponse.PulledMessage;
+import org.apache.rocketmq.gateway.processor.consumer.PullConsumerManager.PullBatch;
+import org.apache.rocketmq.gateway.processor.consumer.PullConsumerManager.PullConsumer;
+import org.apache.rocketmq.gateway.processor.consumer.PullConsumerManager.PullWaiter;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 拉取消费请求处理，没有消息时在channel所属的事件循环上定时，超时后返回空结果。
+ * 流式消费的连接可写时持续推送，没有消息时挂起，拉取到消息后继续推送，直到连接不可写
+ */
+public final class PullMessageProcessor implements PullRequestProcessor {
+
+    // 连接上最近一次挂起的流式推送
+    private static final AttributeKey<StreamWaiter> STREAM_WAITER = AttributeKey.valueOf("pullStreamWaiter");
+
+    private PullConsumerManager pullConsumerManager;
+
+    private GatewayConfig gatewayConfig;
+
+    @Override
+    public void processPull(final ChannelHandlerContext ctx, final MessagePullRequest request,
+                            final PullResponseCallback callback) {
+        final PullConsumer consumer = pullConsumerManager.find(request.getApp(), request.getTopic());
+        if (consumer == null) {
+            callback.onResponse(notSubscribed(request));
+            return;
+        }
+
+        if (request.isCommit()) {
+            if (consumer.commit(request.getPullId())) {
+                callback.onResponse(new MessagePullResponse(request, ResponseStatus.OK));
+            } else {
+                callback.onResponse(new MessagePullResponse(request, new ResponseStatus(ResponseStatus.NOT_FOUND.getCode(),
+                        String.format("pull[%s] not found, it is committed or redelivered.", request.getPullId()))));
+            }
+            return;
+        }
+
+        long maxWaitMs = 0;
+        if (StringUtils.isNotBlank(request.getMaxWaitMs())) {
+            maxWaitMs = Math.min(gatewayConfig.getConsumePullMaxWaitMs(), Long.parseLong(request.getMaxWaitMs()));
+        }
+
+        final ChannelWaiter waiter = new ChannelWaiter(maxMessagesOf(request), ctx, request, callback);
+        PullBatch batch = consumer.pull(waiter, maxWaitMs > 0);
+        if (batch != null) {
+            callback.onResponse(response(request, batch));
+            return;
+        }
+        if (maxWaitMs <= 0) {
+            callback.onResponse(empty(request));
+            return;
+        }
+
+        waiter.timeout = ctx.executor().schedule(new Runnable() {
+            @Override
+            public void run() {
+                if (consumer.cancel(waiter)) {
+                    callback.onResponse(empty(request));
+                }
+            }
+        }, maxWaitMs, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void processStream(final ChannelHandlerContext ctx, final MessagePullRequest request,
+                              final PullResponseCallback callback) {
+        PullConsumer consumer = pullConsumerManager.find(request.getApp(), request.getTopic());
+        if (consumer == null) {
+            callback.onResponse(notSubscribed(request));
+            return;
+        }
+
+        StreamWaiter parked = ctx.channel().attr(STREAM_WAITER).get();
+        if (parked != null && parked.parked) {
+            // 已经在等待新消息
+            return;
+        }
+
+        int maxMessages = maxMessagesOf(request);
+        while (ctx.channel().isWritable()) {
+            StreamWaiter waiter = new StreamWaiter(maxMessages, ctx, request, callback);
+            PullBatch batch = consumer.pull(waiter, true);
+            if (batch == null) {
+                ctx.channel().attr(STREAM_WAITER).set(waiter);
+                return;
+            }
+            // 在事件循环中写入,写缓冲超过高水位后连接不可写,等恢复可写后再继续推送
+            callback.onResponse(response(request, batch));
+        }
+    }
+
+    private int maxMessagesOf(final MessagePullRequest request) {
+        int maxMessages = gatewayConfig.getConsumePullMaxMessages();
+        if (StringUtils.isNotBlank(request.getMaxMessages())) {
+            maxMessages = Math.min(maxMessages, Integer.parseInt(request.getMaxMessages()));
+        }
+        return Math.max(1, maxMessages);
+    }
+
+    private static MessagePullResponse notSubscribed(final MessagePullRequest request) {
+        return new MessagePullResponse(request, new ResponseStatus(ResponseStatus.BAD_REQUEST.getCode(),
+                String.format("no pull subscription of app[%s] topic[%s].", request.getApp(), request.getTopic())));
+    }
+
+    private static MessagePullResponse response(final MessagePullRequest request, final PullBatch batch) {
+        List<PulledMessage> messages = new ArrayList<>(batch.messages.size());
+        for (MessageExt message : batch.messages) {
+            messages.add(new PulledMessage(message.getMsgId(), message.getKeys(), message.getTags(),
+                    new String(message.getBody(), StandardCharsets.UTF_8)));
+        }
+        MessagePullResponse response = new MessagePullResponse(request, ResponseStatus.OK);
+        response.setPullId(batch.pullId);
+        response.setMessages(messages);
+        return response;
+    }
+
+    private static MessagePullResponse empty(final MessagePullRequest request) {
+        MessagePullResponse response = new MessagePullResponse(request, ResponseStatus.OK);
+        response.setMessages(Collections.<PulledMessage>emptyList());
+        return response;
+    }
+
+    public void setPullConsumerManager(PullConsumerManager pullConsumerManager) {
+        this.pullConsumerManager = pullConsumerManager;
+    }
+
+    public void setGatewayConfig(GatewayConfig gatewayConfig) {
+        this.gatewayConfig = gatewayConfig;
+    }
+
+    /**
+     * 挂起在连接上的拉取请求
+     */
+    private static final class ChannelWaiter extends PullWaiter {
+        private final ChannelHandlerContext ctx;
+        private final MessagePullRequest request;
+        private final PullResponseCallback callback;
+        // 等待超时的定时任务,拉取到消息后取消
+        private volatile ScheduledFuture<?> timeout;
+
+        ChannelWaiter(final int maxMessages, final ChannelHandlerContext ctx, final MessagePullRequest request,
+                      final PullResponseCallback callback) {
+            super(maxMessages);
+            this.ctx = ctx;
+            this.request = request;
+            this.callback = callback;
+        }
+
+        @Override
+        boolean isActive() {
+            return ctx.channel().isActive();
+        }
+
+        @Override
+        void onMessages(final PullBatch batch) {
+            ScheduledFuture<?> timeout = this.timeout;
+            if (timeout != null) {
+                timeout.cancel(false);
+            }
+            callback.onResponse(response(request, batch));
+        }
+
+        @Override
+        void onStop() {
+            ScheduledFuture<?> timeout = this.timeout;
+            if (timeout != null) {
+                timeout.cancel(false);
+            }
+            callback.onResponse(empty(request));
+        }
+    }
+
+    /**
+     * 挂起在流式连接上的推送，拉取到消息后在事件循环中继续推送
+     */
+    private final class StreamWaiter extends PullWaiter {
+        private final ChannelHandlerContext ctx;
+        private final MessagePullRequest request;
+        private final PullResponseCallback callback;
+        // 是否仍在等待新消息
+        private volatile boolean parked = true;
+
+        StreamWaiter(final int maxMessages, final ChannelHandlerContext ctx, final MessagePullRequest request,
+                     final PullResponseCallback callback) {
+            super(maxMessages);
+            this.ctx = ctx;
+            this.request = request;
+            this.callback = callback;
+        }
+
+        @Override
+        boolean isActive() {
+            return ctx.channel().isActive();
+        }
+
+        @Override
+        void onMessages(final PullBatch batch) {
+            parked = false;
+            callback.onResponse(response(request, batch));
+            ctx.executor().execute(new Runnable() {
+                @Override
+                public void run() {
+                    processStream(ctx, request, callback);
+                }
+            });
+        }
+
+        @Override
+        void onStop() {
+            parked = false;
+            // 订阅已取消或变更,由客户端重新连接
+            callback.onResponse(new MessagePullResponse(request, new ResponseStatus(ResponseStatus.EXCEPTION.getCode(),
+                    String.format("pull consumer of app[%s] topic[%s] stopped, reconnect later.",
+                            request.getApp(), request.getTopic()))));
+        }
+    }
+}
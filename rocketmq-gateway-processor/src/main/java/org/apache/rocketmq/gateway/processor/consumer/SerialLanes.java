@@ -0,0 +1,66 @@
+package org.apache.rocketmq.gateway.processor.consumer;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * 串行通道
+ * <p>
+ * 同一通道的任务按提交顺序依次执行，前一个任务完成后才开始下一个，不同通道之间并行；
+ * 任务是异步的，等待期间不占用线程，通道只记录最后一个任务的完成状态。
+ */
+final class SerialLanes {
+
+    // 每个通道最后提交的任务完成后完成
+    private final AtomicReferenceArray<CompletableFuture<Void>> tails;
+
+    SerialLanes(final int lanes) {
+        this.tails = new AtomicReferenceArray<>(Math.max(1, lanes));
+        for (int i = 0; i < tails.length(); i++) {
+            tails.set(i, CompletableFuture.<Void>completedFuture(null));
+        }
+    }
+
+    /**
+     * key所在的通道，相同key总是落在同一个通道
+     */
+    int laneOf(final String key) {
+        int h = key.hashCode();
+        h ^= h >>> 16;
+        return (h & Integer.MAX_VALUE) % tails.length();
+    }
+
+    int size() {
+        return tails.length();
+    }
+
+    /**
+     * 提交任务，通道中之前的任务都完成后才执行
+     *
+     * @param lane 通道
+     * @param task 任务，返回任务完成的future
+     * @return 任务的结果
+     */
+    <T> CompletableFuture<T> submit(final int lane, final Supplier<CompletableFuture<T>> task) {
+        final CompletableFuture<Void> tail = new CompletableFuture<>();
+        CompletableFuture<Void> prev = tails.getAndSet(lane, tail);
+        CompletableFuture<T> future = prev.thenCompose(new Function<Void, CompletionStage<T>>() {
+            @Override
+            public CompletionStage<T> apply(Void ignored) {
+                return task.get();
+            }
+        });
+        // 任务异常完成也要放行之后的任务
+        future.whenComplete(new BiConsumer<T, Throwable>() {
+            @Override
+            public void accept(T result, Throwable e) {
+                tail.complete(null);
+            }
+        });
+        return future;
+    }
+}
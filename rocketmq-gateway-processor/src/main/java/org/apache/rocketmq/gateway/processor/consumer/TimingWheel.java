@@ -0,0 +1,145 @@
+package org.apache.rocketmq.gateway.processor.consumer;
+
+import java.util.Arrays;
+
+/**
+ * 分层时间轮
+ * <p>
+ * 每层wheelSize个桶，第一层每个桶跨度为tickMs，上一层每个桶跨度为下一层的总跨度，超出本层跨度的任务放入上一层；
+ * 上层的桶到期后重新加入，落入下层更精确的桶。第一层按到期时间向上取整，任务不会早于到期时间执行，最多晚一个tick。
+ * <p>
+ * 桶是任务之间串起来的单链表，不额外分配节点。
+ * <p>
+ * 非线程安全，只在调度线程中访问。
+ */
+final class TimingWheel {
+
+    // 每个桶的跨度(毫秒)
+    private final long tickMs;
+    // 桶数
+    private final int wheelSize;
+    // 本层总跨度(毫秒)
+    private final long interval;
+    // 桶,任务单链表的表头
+    private final Entry[] buckets;
+    // 桶的到期时间
+    private final long[] expirations;
+    // 当前时间,tickMs的整数倍
+    private long currentTime;
+    // 是否为上层,上层按到期时间向下取整,提前落入下层
+    private final boolean overflow;
+    // 上一层
+    private TimingWheel overflowWheel;
+
+    TimingWheel(final long tickMs, final int wheelSize, final long startMs) {
+        this(tickMs, wheelSize, startMs, false);
+    }
+
+    private TimingWheel(final long tickMs, final int wheelSize, final long startMs, final boolean overflow) {
+        this.overflow = overflow;
+        this.tickMs = tickMs;
+        this.wheelSize = wheelSize;
+        this.interval = tickMs * wheelSize;
+        this.buckets = new Entry[wheelSize];
+        this.expirations = new long[wheelSize];
+        this.currentTime = startMs - startMs % tickMs;
+    }
+
+    /**
+     * 加入任务
+     *
+     * @param entry 任务
+     * @return 已经到期返回false，由调用方直接执行
+     */
+    boolean add(final Entry entry) {
+        long deadline = entry.deadline;
+        if (deadline <= currentTime) {
+            return false;
+        }
+        long virtualId = overflow ? deadline / tickMs : (deadline + tickMs - 1) / tickMs;
+        long expiration = virtualId * tickMs;
+        // 第一层当前tick的桶已经取出,向上取整后可以落到一圈后的同一个桶
+        if (expiration < currentTime + interval || (!overflow && expiration == currentTime + interval)) {
+            int index = (int) (virtualId % wheelSize);
+            entry.next = buckets[index];
+            buckets[index] = entry;
+            expirations[index] = expiration;
+            return true;
+        }
+        if (overflowWheel == null) {
+            overflowWheel = new TimingWheel(interval, wheelSize, currentTime, true);
+        }
+        return overflowWheel.add(entry);
+    }
+
+    /**
+     * 推进时间，取出各层到期的桶
+     *
+     * @param timeMs 当前时间
+     * @return 到期桶中的任务链表，需要重新加入，加入失败的即为到期任务
+     */
+    Entry advance(final long timeMs) {
+        Entry head = null;
+        if (timeMs >= currentTime + tickMs) {
+            // 跳过的tick超过一圈时,扫描所有桶
+            long ticks = Math.min((timeMs - currentTime) / tickMs, wheelSize);
+            long virtualId = currentTime / tickMs + 1;
+            for (long i = 0; i < ticks; i++, virtualId++) {
+                int index = (int) (virtualId % wheelSize);
+                Entry entry = buckets[index];
+                if (entry != null && expirations[index] <= timeMs) {
+                    buckets[index] = null;
+                    while (entry != null) {
+                        Entry next = entry.next;
+                        entry.next = head;
+                        head = entry;
+                        entry = next;
+                    }
+                }
+            }
+            currentTime = timeMs - timeMs % tickMs;
+        }
+
+        if (overflowWheel != null) {
+            Entry entry = overflowWheel.advance(currentTime);
+            while (entry != null) {
+                Entry next = entry.next;
+                entry.next = head;
+                head = entry;
+                entry = next;
+            }
+        }
+        return head;
+    }
+
+    /**
+     * 取出所有任务
+     *
+     * @return 任务链表
+     */
+    Entry clear() {
+        Entry head = overflowWheel != null ? overflowWheel.clear() : null;
+        for (int i = 0; i < wheelSize; i++) {
+            Entry entry = buckets[i];
+            buckets[i] = null;
+            while (entry != null) {
+                Entry next = entry.next;
+                entry.next = head;
+                head = entry;
+                entry = next;
+            }
+        }
+        Arrays.fill(expirations, 0);
+        return head;
+    }
+
+    /**
+     * 时间轮中的任务
+     */
+    static class Entry {
+        // 到期时间
+        long deadline;
+        // 同一个桶中的下一个任务
+        Entry next;
+    }
+}
@@ -0,0 +1,285 @@
+package org.apache.rocketmq.gateway.processor.producer;
+
+import org.apache.rocketmq.client.producer.DefaultMQProducer;
+import org.apache.rocketmq.client.producer.SendCallback;
+import org.apache.rocketmq.client.producer.SendResult;
+import org.apache.rocketmq.common.message.Message;
+import org.apache.rocketmq.common.message.MessageClientIDSetter;
+import org.apache.rocketmq.common.message.MessageQueue;
+import org.apache.rocketmq.gateway.common.GatewayConfig;
+import org.apache.rocketmq.gateway.common.utils.NamedThreadFactory;
+import org.apache.rocketmq.gateway.common.utils.Service;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 生产消息累积器
+ * <p>
+ * 按app+topic累积单条发送请求，达到等待时间(linger)或批量字节数后合并为一次批量发送，
+ * 再将每条消息的发送结果分发给各自的回调。
+ */
+public final class ProduceAccumulator extends Service {
+
+    private static final Logger logger = LoggerFactory.getLogger(ProduceAccumulator.class);
+
+    private GatewayConfig gatewayConfig;
+
+    // 正在累积的批次, key为app:topic
+    private final ConcurrentHashMap<String, Batch> batches = new ConcurrentHashMap<>();
+    // 等待时间到期触发发送
+    private ScheduledExecutorService lingerTimer;
+    // 批量发送线程, RocketMQ没有异步批量发送接口
+    private ExecutorService sender;
+
+    @Override
+    protected void doStart() throws Exception {
+        super.doStart();
+        lingerTimer = new ScheduledThreadPoolExecutor(1, new NamedThreadFactory("produce-linger", true));
+        sender = new ThreadPoolExecutor(
+                gatewayConfig.getProduceLingerSenderThreads(),
+                gatewayConfig.getProduceLingerSenderThreads(),
+                0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<Runnable>(gatewayConfig.getProduceLingerSenderQueueCapacity()),
+                new NamedThreadFactory("produce-batch-sender", true)
+        );
+    }
+
+    @Override
+    protected void doStop() {
+        // 发送所有未到期的批次
+        for (Map.Entry<String, Batch> entry : batches.entrySet()) {
+            flush(entry.getKey(), entry.getValue());
+        }
+
+        lingerTimer.shutdownNow();
+        sender.shutdown();
+        try {
+            sender.awaitTermination(gatewayConfig.getProduceLingerMs() + 5000L, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        super.doStop();
+    }
+
+    /**
+     * 追加消息到app+topic对应的批次
+     *
+     * @param app      应用
+     * @param producer 生产者
+     * @param message  消息
+     * @param lingerMs 最长等待时间(毫秒)
+     * @param callback 发送结果回调
+     */
+    public void append(final String app, final DefaultMQProducer producer, final Message message,
+                       final int lingerMs, final SendCallback callback) {
+        final String key = app + ProducerManager.APP_TOPIC_SUBSCRIPTION_SEPARATOR + message.getTopic();
+        final int size = messageSize(message);
+        final int maxBytes = gatewayConfig.getProduceBatchMaxBytes();
+
+        if (size >= maxBytes) {
+            // 超过批量上限的消息单独发送,不影响同批次的其他消息
+            final Batch single = new Batch(producer);
+            single.messages.add(message);
+            single.callbacks.add(callback);
+            single.closed = true;
+            submit(single);
+            return;
+        }
+
+        while (true) {
+            Batch batch = batches.get(key);
+            if (batch == null) {
+                batch = new Batch(producer);
+                Batch prev = batches.putIfAbsent(key, batch);
+                if (prev != null) {
+                    batch = prev;
+                } else {
+                    final Batch created = batch;
+                    lingerTimer.schedule(new Runnable() {
+                        @Override
+                        public void run() {
+                            flush(key, created);
+                        }
+                    }, lingerMs, TimeUnit.MILLISECONDS);
+                }
+            }
+
+            boolean added = false;
+            boolean full;
+            synchronized (batch) {
+                if (batch.closed) {
+                    // 批次已发送,重新创建
+                    continue;
+                }
+                // 加入后会超过上限时先发送当前批次,与ProduceMessageProcessor拆分批量请求的规则一致
+                full = !batch.messages.isEmpty() && batch.bytes + size > maxBytes;
+                if (!full) {
+                    batch.messages.add(message);
+                    batch.callbacks.add(callback);
+                    batch.bytes += size;
+                    added = true;
+                    full = batch.bytes >= maxBytes;
+                }
+            }
+            if (!added) {
+                flush(key, batch);
+                continue;
+            }
+
+            if (full) {
+                flush(key, batch);
+            }
+            return;
+        }
+    }
+
+    /**
+     * 关闭批次并提交发送
+     */
+    private void flush(final String key, final Batch batch) {
+        synchronized (batch) {
+            if (batch.closed) {
+                return;
+            }
+            batch.closed = true;
+        }
+        batches.remove(key, batch);
+        submit(batch);
+    }
+
+    /**
+     * 提交批次到发送线程池，队列已满时批次直接失败，不阻塞请求线程和等待定时器
+     */
+    private void submit(final Batch batch) {
+        try {
+            sender.execute(new Runnable() {
+                @Override
+                public void run() {
+                    batch.send();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            logger.warn(String.format("produce batch sender busy, reject batch, topic: %s, size: %d",
+                    batch.messages.get(0).getTopic(), batch.messages.size()));
+            batch.fail(e);
+        }
+    }
+
+    /**
+     * 估算消息在批量发送中的大小，字符串按UTF-8编码后的字节数计算，与客户端编码批量消息一致
+     *
+     * @param message 消息
+     * @return 字节数
+     */
+    static int messageSize(Message message) {
+        int size = utf8Length(message.getTopic()) + message.getBody().length;
+        Map<String, String> properties = message.getProperties();
+        if (properties != null) {
+            for (Map.Entry<String, String> entry : properties.entrySet()) {
+                // 属性编码为key\u0001value\u0002
+                size += utf8Length(entry.getKey()) + utf8Length(entry.getValue()) + 2;
+            }
+        }
+        // 日志头开销
+        return size + 20;
+    }
+
+    /**
+     * 字符串的UTF-8编码长度，不创建字节数组
+     */
+    private static int utf8Length(String value) {
+        int length = 0;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                length++;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < value.length()
+                    && Character.isLowSurrogate(value.charAt(i + 1))) {
+                length += 4;
+                i++;
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+
+    public void setGatewayConfig(GatewayConfig gatewayConfig) {
+        this.gatewayConfig = gatewayConfig;
+    }
+
+    /**
+     * 累积中的批次
+     */
+    private static final class Batch {
+        private final DefaultMQProducer producer;
+        private final List<Message> messages = new ArrayList<>();
+        private final List<SendCallback> callbacks = new ArrayList<>();
+        private int bytes;
+        private boolean closed;
+
+        Batch(final DefaultMQProducer producer) {
+            this.producer = producer;
+        }
+
+        void send() {
+            if (messages.size() == 1) {
+                try {
+                    producer.send(messages.get(0), callbacks.get(0));
+                } catch (Exception e) {
+                    callbacks.get(0).onException(e);
+                }
+                return;
+            }
+
+            SendResult result;
+            try {
+                result = producer.send(messages);
+            } catch (Exception e) {
+                logger.error(String.format("send accumulated batch error, topic: %s, size: %d",
+                        messages.get(0).getTopic(), messages.size()), e);
+                fail(e);
+                return;
+            }
+
+            // 批量发送的offsetMsgId以逗号分隔,队列位点连续
+            String[] offsetMsgIds = result.getOffsetMsgId() != null ? result.getOffsetMsgId().split(",") : null;
+            MessageQueue queue = result.getMessageQueue();
+            for (int i = 0; i < messages.size(); i++) {
+                String offsetMsgId = offsetMsgIds != null && offsetMsgIds.length == messages.size() ? offsetMsgIds[i] : null;
+                SendResult messageResult = new SendResult(result.getSendStatus(),
+                        MessageClientIDSetter.getUniqID(messages.get(i)), offsetMsgId, queue, result.getQueueOffset() + i);
+                try {
+                    callbacks.get(i).onSuccess(messageResult);
+                } catch (Exception e) {
+                    logger.error("send callback error.", e);
+                }
+            }
+        }
+
+        void fail(Throwable e) {
+            for (SendCallback callback : callbacks) {
+                try {
+                    callback.onException(e);
+                } catch (Exception ex) {
+                    logger.error("send callback error.", ex);
+                }
+            }
+        }
+    }
+
+}
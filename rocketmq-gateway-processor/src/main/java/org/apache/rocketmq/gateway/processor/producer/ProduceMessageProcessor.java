@@ -1,34 +1,61 @@
 package org.apache.rocketmq.gateway.processor.producer;
 
-import com.alibaba.rocketmq.gateway.transport.RequestProcessor;
+import com.alibaba.rocketmq.gateway.transport.AsyncRequestProcessor;
+import com.alibaba.rocketmq.gateway.transport.ResponseCallback;
 import io.netty.channel.ChannelHandlerContext;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.rocketmq.client.exception.MQClientException;
 import org.apache.rocketmq.client.producer.DefaultMQProducer;
 import org.apache.rocketmq.client.producer.MessageQueueSelector;
+import org.apache.rocketmq.client.producer.SendCallback;
 import org.apache.rocketmq.client.producer.SendResult;
 import org.apache.rocketmq.client.producer.SendStatus;
 import org.apache.rocketmq.common.UtilAll;
 import org.apache.rocketmq.common.message.Message;
+import org.apache.rocketmq.common.message.MessageClientIDSetter;
 import org.apache.rocketmq.common.message.MessageQueue;
 import org.apache.rocketmq.common.protocol.ResponseCode;
+import org.apache.rocketmq.gateway.common.GatewayConfig;
 import org.apache.rocketmq.gateway.common.protocol.MessageProduceRequest;
 import org.apache.rocketmq.gateway.common.protocol.MessageProduceRequest.MessageContent;
 import org.apache.rocketmq.gateway.common.protocol.MessageProduceResponse;
+import org.apache.rocketmq.gateway.common.protocol.MessageProduceResponse.MessageResult;
 import org.apache.rocketmq.gateway.common.protocol.MessageProduceResponse.ResponseStatus;
+import org.apache.rocketmq.gateway.common.utils.Charsets;
+import org.apache.rocketmq.gateway.processor.producer.ProducerManager.ProducerWrapper;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
 
-public final class ProduceMessageProcessor implements RequestProcessor {
+public final class ProduceMessageProcessor implements AsyncRequestProcessor {
 
     private static final Logger logger = LoggerFactory.getLogger(ProduceMessageProcessor.class);
 
+    // 按分片键选择队列,保证同一分片键的消息有序
+    private static final MessageQueueSelector SHARDING_KEY_SELECTOR = new MessageQueueSelector() {
+        @Override
+        public MessageQueue select(List<MessageQueue> mqs, Message msg, Object shardingKey) {
+            int select = Math.abs(shardingKey.hashCode());
+            if (select < 0) {
+                select = 0;
+            }
+            return mqs.get(select % mqs.size());
+        }
+    };
+
     private ProducerManager producerManager;
 
+    private GatewayConfig gatewayConfig;
+
+    private ProduceAccumulator accumulator;
+
     @Override
     public MessageProduceResponse process(ChannelHandlerContext ctx, MessageProduceRequest request) {
         MessageProduceResponse response = validateRequest(request);
@@ -36,61 +63,210 @@ public final class ProduceMessageProcessor implements RequestProcessor {
             return response;
         }
 
-
-        DefaultMQProducer producer;
+        ProducerWrapper wrapper;
         try {
-            producer = producerManager.getProducer(request.getApp());
-
-            if (producer == null) {
-                ResponseStatus status = ResponseStatus.EXCEPTION;
-                status.setMessage("get producer error");
-                return new MessageProduceResponse(request, status);
-            }
-
+            wrapper = acquireProducer(request);
         } catch (Exception e) {
             logger.error("get producer error.", e);
+            return exception(request, String.format("get producer error, %s", e.getMessage()));
+        }
+
+        try {
+            return send(wrapper.getProducer(request.getOrderlyShardingKey()), request);
+        } finally {
+            wrapper.release();
+        }
+    }
 
-            ResponseStatus status = ResponseStatus.EXCEPTION;
-            status.setMessage(String.format("get producer error, %s", e.getMessage()));
-            return new MessageProduceResponse(request, status);
+    private MessageProduceResponse send(DefaultMQProducer producer, MessageProduceRequest request) {
+        if (request.isBatch()) {
+            return sendBatch(producer, request);
+        }
+
+        Message message;
+        try {
+            message = createMessage(request, request.getContent());
+        } catch (IllegalArgumentException e) {
+            logger.error("encoding message error.", e);
+            return exception(request, String.format("encoding message error, %s", e.getMessage()));
         }
 
-        MessageContent content = request.getContent();
         SendResult result = null;
         long startTime = System.currentTimeMillis();
         try {
-            byte[] body = content.getBody().getBytes(request.getMessageCharset());
-            Message message = new Message(request.getTopic(), content.getTag(), content.getKey(), body);
-            if (request.getDelayTimeLevel() != null) {
-                message.setDelayTimeLevel(Integer.parseInt(request.getDelayTimeLevel()));
-            }
             if (request.isOneWay()) {
                 producer.sendOneway(message);
             } else if (!UtilAll.isBlank(request.getOrderlyShardingKey())) {
                 result = this.sendOrderly(producer, message, request.getOrderlyShardingKey());
+            } else if (lingerMs(request) > 0) {
+                result = sendAccumulated(producer, request, message);
             } else {
                 result = producer.send(message);
             }
-        } catch (UnsupportedEncodingException e) {
+        } catch (Exception e) {
+            logger.error("send message error.", e);
+            return exception(request, String.format("send message error, %s", e.getMessage()));
+        }
+
+        return toResponse(request, result, startTime);
+    }
+
+    @Override
+    public void processAsync(ChannelHandlerContext ctx, final MessageProduceRequest request, final ResponseCallback responseCallback) {
+        MessageProduceResponse response = validateRequest(request);
+        if (response != null) {
+            responseCallback.onResponse(response);
+            return;
+        }
+
+        final ProducerWrapper wrapper;
+        try {
+            wrapper = acquireProducer(request);
+        } catch (Exception e) {
+            logger.error("get producer error.", e);
+            responseCallback.onResponse(exception(request, String.format("get producer error, %s", e.getMessage())));
+            return;
+        }
+
+        // 每个请求只应答一次,应答时释放生产者;发送回调可能重复触发(如客户端异步超时),之后的应答忽略
+        final AtomicBoolean responded = new AtomicBoolean();
+        final ResponseCallback callback = new ResponseCallback() {
+            @Override
+            public void onResponse(MessageProduceResponse response) {
+                if (!responded.compareAndSet(false, true)) {
+                    logger.warn(String.format("duplicated response of request[%s] ignored, %s",
+                            request.getRequestId(), response));
+                    return;
+                }
+                wrapper.release();
+                responseCallback.onResponse(response);
+            }
+        };
+        DefaultMQProducer producer = wrapper.getProducer(request.getOrderlyShardingKey());
+
+        if (request.isBatch()) {
+            // RocketMQ没有异步批量发送接口,批量消息在工作线程中同步发送
+            callback.onResponse(sendBatch(producer, request));
+            return;
+        }
+
+        Message message;
+        try {
+            message = createMessage(request, request.getContent());
+        } catch (IllegalArgumentException e) {
             logger.error("encoding message error.", e);
+            callback.onResponse(exception(request, String.format("encoding message error, %s", e.getMessage())));
+            return;
+        }
 
-            ResponseStatus status = ResponseStatus.EXCEPTION;
-            status.setMessage(String.format("encoding message error, %s", e.getMessage()));
-            return new MessageProduceResponse(request, status);
+        final long startTime = System.currentTimeMillis();
+        try {
+            if (request.isOneWay()) {
+                producer.sendOneway(message);
+                callback.onResponse(toResponse(request, null, startTime));
+                return;
+            }
+
+            SendCallback sendCallback = new SendCallback() {
+                @Override
+                public void onSuccess(SendResult sendResult) {
+                    callback.onResponse(toResponse(request, sendResult, startTime));
+                }
+
+                @Override
+                public void onException(Throwable e) {
+                    logger.error("send message error.", e);
+                    callback.onResponse(exception(request, String.format("send message error, %s", e.getMessage())));
+                }
+            };
+
+            int lingerMs = lingerMs(request);
+            if (!UtilAll.isBlank(request.getOrderlyShardingKey())) {
+                producer.send(message, SHARDING_KEY_SELECTOR, request.getOrderlyShardingKey(), sendCallback);
+            } else if (lingerMs > 0) {
+                accumulator.append(request.getApp(), producer, message, lingerMs, sendCallback);
+            } else {
+                producer.send(message, sendCallback);
+            }
         } catch (Exception e) {
             logger.error("send message error.", e);
+            callback.onResponse(exception(request, String.format("send message error, %s", e.getMessage())));
+        }
+    }
 
-            ResponseStatus status = ResponseStatus.EXCEPTION;
-            status.setMessage(String.format("send message error, %s", e.getMessage()));
-            return new MessageProduceResponse(request, status);
+    /**
+     * 累积等待时间,单向、延时和顺序消息不参与累积
+     */
+    private int lingerMs(MessageProduceRequest request) {
+        if (accumulator == null || request.isOneWay() || request.getDelayTimeLevel() != null
+                || !UtilAll.isBlank(request.getOrderlyShardingKey())) {
+            return 0;
         }
+        return producerManager.getLingerMs(request.getApp(), request.getTopic());
+    }
+
+    /**
+     * 同步模式下通过累积器发送,等待批次发送完成
+     */
+    private SendResult sendAccumulated(DefaultMQProducer producer, MessageProduceRequest request, Message message)
+            throws Exception {
+        final CompletableFuture<SendResult> future = new CompletableFuture<>();
+        int lingerMs = lingerMs(request);
+        accumulator.append(request.getApp(), producer, message, lingerMs, new SendCallback() {
+            @Override
+            public void onSuccess(SendResult sendResult) {
+                future.complete(sendResult);
+            }
+
+            @Override
+            public void onException(Throwable e) {
+                future.completeExceptionally(e);
+            }
+        });
+
+        // 最多等待累积时间加一次发送的超时时间
+        long timeoutMs = lingerMs + producer.getSendMsgTimeout();
+        try {
+            return future.get(timeoutMs, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            throw new TimeoutException(String.format("send accumulated message timeout, app: %s, topic: %s, timeout(ms): %d",
+                    request.getApp(), request.getTopic(), timeoutMs));
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof Exception ? (Exception) cause : e;
+        }
+    }
+
+    private ProducerWrapper acquireProducer(MessageProduceRequest request) throws Exception {
+        ProducerWrapper wrapper = producerManager.acquireProducer(request.getApp());
+        if (wrapper == null) {
+            throw new IllegalStateException("producer is null");
+        }
+        return wrapper;
+    }
 
-        ResponseStatus status = ResponseStatus.OK;
+    /**
+     * 构造消息,字符集不支持时抛出IllegalArgumentException
+     */
+    private Message createMessage(MessageProduceRequest request, MessageContent content) {
+        byte[] body = content.getBodyBytes();
+        if (body == null) {
+            body = content.getBody().getBytes(Charsets.forName(request.getMessageCharset()));
+        }
+        Message message = new Message(request.getTopic(), content.getTag(), content.getKey(), body);
+        if (request.getDelayTimeLevel() != null) {
+            message.setDelayTimeLevel(Integer.parseInt(request.getDelayTimeLevel()));
+        }
+        return message;
+    }
+
+    private MessageProduceResponse toResponse(MessageProduceRequest request, SendResult result, long startTime) {
+        String message;
         if (result != null) {
             SendStatus sendStatus = result.getSendStatus();
-            status.setMessage(sendStatus != null ? sendStatus.name() : "no send status");
+            message = sendStatus != null ? sendStatus.name() : "no send status";
         } else {
-            status.setMessage("no send result");
+            message = "no send result";
         }
 
         long eclipseTime = System.currentTimeMillis() - startTime;
@@ -98,7 +274,91 @@ public final class ProduceMessageProcessor implements RequestProcessor {
             logger.warn(String.format("send message to broker eclipse time ge 500ms, time(ms): %s, app: %s, topic: %s",
                     eclipseTime, request.getApp(), request.getTopic()));
         }
-        return new MessageProduceResponse(request, status, result != null ? result.getMsgId() : null);
+        // 应答可能在不同线程并发生成,不能修改共享的状态常量
+        return new MessageProduceResponse(request, new ResponseStatus(ResponseStatus.OK.getCode(), message),
+                result != null ? result.getMsgId() : null);
+    }
+
+    /**
+     * 批量发送,按字节数拆分为多组,每组一次发送到broker,返回每条消息的结果
+     */
+    private MessageProduceResponse sendBatch(DefaultMQProducer producer, MessageProduceRequest request) {
+        List<MessageContent> contents = request.getContents();
+        List<Message> messages = new ArrayList<>(contents.size());
+        try {
+            for (MessageContent content : contents) {
+                messages.add(createMessage(request, content));
+            }
+        } catch (IllegalArgumentException e) {
+            logger.error("encoding message error.", e);
+            return exception(request, String.format("encoding message error, %s", e.getMessage()));
+        }
+
+        long startTime = System.currentTimeMillis();
+        List<MessageResult> results = new ArrayList<>(messages.size());
+        int failures = 0;
+        String error = null;
+        int from = 0;
+        while (from < messages.size()) {
+            int to = nextBatchEnd(messages, from);
+            try {
+                SendResult result = producer.send(messages.subList(from, to));
+                SendStatus sendStatus = result.getSendStatus();
+                String message = sendStatus != null ? sendStatus.name() : "no send status";
+                for (int i = from; i < to; i++) {
+                    results.add(new MessageResult(i, MessageClientIDSetter.getUniqID(messages.get(i)),
+                            new ResponseStatus(ResponseStatus.OK.getCode(), message)));
+                }
+            } catch (Exception e) {
+                logger.error(String.format("send batch message error, app: %s, topic: %s, messages: [%d, %d)",
+                        request.getApp(), request.getTopic(), from, to), e);
+                error = String.format("send message error, %s", e.getMessage());
+                failures += to - from;
+                for (int i = from; i < to; i++) {
+                    results.add(new MessageResult(i, null, new ResponseStatus(ResponseStatus.EXCEPTION.getCode(), error)));
+                }
+            }
+            from = to;
+        }
+
+        long eclipseTime = System.currentTimeMillis() - startTime;
+        if (eclipseTime > 500) {
+            logger.warn(String.format("send batch message to broker eclipse time ge 500ms, time(ms): %s, app: %s, topic: %s, size: %d",
+                    eclipseTime, request.getApp(), request.getTopic(), messages.size()));
+        }
+
+        ResponseStatus status;
+        if (failures == 0) {
+            status = new ResponseStatus(ResponseStatus.OK.getCode(), ResponseStatus.OK.getMessage());
+        } else if (failures == messages.size()) {
+            status = new ResponseStatus(ResponseStatus.EXCEPTION.getCode(), error);
+        } else {
+            status = new ResponseStatus(ResponseStatus.PARTIAL_FAILURE.getCode(),
+                    String.format("%d of %d messages failed", failures, messages.size()));
+        }
+        return new MessageProduceResponse(request, status, results);
+    }
+
+    /**
+     * 计算从from开始的一组消息的结束位置(不包含),保证每组大小不超过批量发送上限,至少包含一条消息
+     */
+    private int nextBatchEnd(List<Message> messages, int from) {
+        int maxBytes = gatewayConfig.getProduceBatchMaxBytes();
+        int bytes = 0;
+        int to = from;
+        while (to < messages.size()) {
+            int size = ProduceAccumulator.messageSize(messages.get(to));
+            if (to > from && bytes + size > maxBytes) {
+                break;
+            }
+            bytes += size;
+            to++;
+        }
+        return to;
+    }
+
+    private MessageProduceResponse exception(MessageProduceRequest request, String message) {
+        return new MessageProduceResponse(request, new ResponseStatus(ResponseStatus.EXCEPTION.getCode(), message));
     }
 
     /**
@@ -110,46 +370,41 @@ public final class ProduceMessageProcessor implements RequestProcessor {
     private MessageProduceResponse validateRequest(MessageProduceRequest request) {
         final String appCode = request.getApp();
         final String topicCode = request.getTopic();
-        final Set<String> appTopicSubscriptionLocal = producerManager.getAppTopicSubscriptionSet();
 
         if (StringUtils.isBlank(appCode) || StringUtils.isBlank(topicCode)) {
-            ResponseStatus status = ResponseStatus.BAD_REQUEST;
-            status.setMessage(String.format("subscription[app: %s, topic: %s] is null.", appCode, topicCode));
-            return new MessageProduceResponse(request, status);
+            return badRequest(request, String.format("subscription[app: %s, topic: %s] is null.", appCode, topicCode));
         }
 
-        String key = appCode + ProducerManager.APP_TOPIC_SUBSCRIPTION_SEPARATOR + topicCode;
-        if (!appTopicSubscriptionLocal.contains(key)) {
-            ResponseStatus status = ResponseStatus.BAD_REQUEST;
-            status.setMessage(String.format("subscription[app: %s, topic: %s] is not found.", appCode, topicCode));
-            return new MessageProduceResponse(request, status);
+        if (producerManager.getSubscription(appCode, topicCode) == null) {
+            return badRequest(request, String.format("subscription[app: %s, topic: %s] is not found.", appCode, topicCode));
         }
 
         return null;
     }
 
+    private MessageProduceResponse badRequest(MessageProduceRequest request, String message) {
+        return new MessageProduceResponse(request, new ResponseStatus(ResponseStatus.BAD_REQUEST.getCode(), message));
+    }
+
     public void setProducerManager(ProducerManager producerManager) {
         this.producerManager = producerManager;
     }
 
+    public void setGatewayConfig(GatewayConfig gatewayConfig) {
+        this.gatewayConfig = gatewayConfig;
+    }
+
+    public void setAccumulator(ProduceAccumulator accumulator) {
+        this.accumulator = accumulator;
+    }
+
     public SendResult sendOrderly(DefaultMQProducer defaultMQProducer, final Message message,
                                   final String shardingKey) throws MQClientException {
         if (UtilAll.isBlank(shardingKey)) {
             throw new MQClientException(ResponseCode.MESSAGE_ILLEGAL, "\'shardingKey\' is blank.");
         }
         try {
-            SendResult sendResult =
-                    defaultMQProducer.send(message, new MessageQueueSelector() {
-                        @Override
-                        public MessageQueue select(List<MessageQueue> mqs, Message msg, Object shardingKey) {
-                            int select = Math.abs(shardingKey.hashCode());
-                            if (select < 0) {
-                                select = 0;
-                            }
-                            return mqs.get(select % mqs.size());
-                        }
-                    }, shardingKey);
-            return sendResult;
+            return defaultMQProducer.send(message, SHARDING_KEY_SELECTOR, shardingKey);
         } catch (Exception e) {
             throw new MQClientException("defaultMQProducer send order exception", e);
         }
@@ -0,0 +1,94 @@
+package org.apache.rocketmq.gateway.processor.producer;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.rocketmq.gateway.processor.Subscription;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 生产订阅索引，应用 -> 主题 -> 订阅，创建后不可变，订阅变更时整体替换。
+ * <p>
+ * 直接用请求头中的应用和主题两级查找，不需要拼接字符串。
+ */
+public final class ProduceSubscriptionIndex {
+
+    public static final ProduceSubscriptionIndex EMPTY = new ProduceSubscriptionIndex(
+            new HashMap<String, Map<String, Subscription>>(0), 0);
+
+    // 应用 -> 主题 -> 订阅
+    private final Map<String, Map<String, Subscription>> appTopics;
+
+    // 订阅数
+    private final int size;
+
+    private ProduceSubscriptionIndex(final Map<String, Map<String, Subscription>> appTopics, final int size) {
+        this.appTopics = appTopics;
+        this.size = size;
+    }
+
+    /**
+     * 构建索引，忽略应用或主题为空的订阅
+     *
+     * @param subscriptions 订阅
+     * @return 索引
+     */
+    public static ProduceSubscriptionIndex build(final List<Subscription> subscriptions) {
+        if (subscriptions == null || subscriptions.isEmpty()) {
+            return EMPTY;
+        }
+
+        Map<String, Map<String, Subscription>> appTopics = new HashMap<>();
+        int size = 0;
+        for (Subscription subscription : subscriptions) {
+            if (StringUtils.isBlank(subscription.getApp()) || StringUtils.isBlank(subscription.getTopic())) {
+                continue;
+            }
+            Map<String, Subscription> topics = appTopics.get(subscription.getApp());
+            if (topics == null) {
+                topics = new HashMap<>();
+                appTopics.put(subscription.getApp(), topics);
+            }
+            if (topics.put(subscription.getTopic(), subscription) == null) {
+                size++;
+            }
+        }
+        return new ProduceSubscriptionIndex(appTopics, size);
+    }
+
+    /**
+     * 查找订阅
+     *
+     * @param app   应用
+     * @param topic 主题
+     * @return 订阅，未订阅返回null
+     */
+    public Subscription get(final String app, final String topic) {
+        if (app == null || topic == null) {
+            return null;
+        }
+        Map<String, Subscription> topics = appTopics.get(app);
+        return topics != null ? topics.get(topic) : null;
+    }
+
+    public Set<String> getApps() {
+        return Collections.unmodifiableSet(appTopics.keySet());
+    }
+
+    public Set<String> getTopics(final String app) {
+        Map<String, Subscription> topics = appTopics.get(app);
+        return topics != null ? Collections.unmodifiableSet(topics.keySet()) : Collections.<String>emptySet();
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+}
@@ -3,14 +3,19 @@ package org.apache.rocketmq.gateway.processor.producer;
 
 import org.apache.commons.lang3.StringUtils;
 import org.apache.rocketmq.client.producer.DefaultMQProducer;
-import org.apache.rocketmq.client.producer.MQProducer;
 import org.apache.rocketmq.gateway.common.GatewayConfig;
+import org.apache.rocketmq.gateway.common.utils.NamedThreadFactory;
 import org.apache.rocketmq.gateway.processor.Subscription;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.ReentrantLock;
 
 
@@ -18,44 +23,78 @@ public final class ProducerManager {
 
     private static final Logger logger = LoggerFactory.getLogger(ProducerManager.class);
 
-    private static HashMap<String, ProducerWrapper> appProducerMap = new HashMap<>();
+    private final ConcurrentHashMap<String, ProducerWrapper> appProducerMap = new ConcurrentHashMap<>();
 
     public static final String APP_TOPIC_SUBSCRIPTION_SEPARATOR = ":";
 
+    // 生产者分片实例名分隔符
+    private static final String PRODUCER_SHARD_SEPARATOR = "-shard-";
+
     /**
-     * app code  和topic code 映射关系
-     * key appCode + : + topicCode
+     * 生产订阅索引, 应用 -> 主题 -> 订阅
      */
-    private volatile Set<String> appTopicSubscriptionSet = new HashSet<>();
+    private volatile ProduceSubscriptionIndex subscriptionIndex = ProduceSubscriptionIndex.EMPTY;
 
     private GatewayConfig gatewayConfig;
 
     // 空闲生产者检测
     private IdleProducerMonitorThread idleMonitor;
 
+    // 生产者预热
+    private ThreadPoolExecutor prewarmExecutor;
+
     public ProducerManager() {
         idleMonitor = new IdleProducerMonitorThread("idle-producer-monitor");
         idleMonitor.setDaemon(true);
     }
 
-    public DefaultMQProducer getProducer(String app) throws Exception {
+    /**
+     * 租用应用的生产者，已启动的生产者无锁获取，仅首次创建时按应用加锁。
+     * 使用完毕后必须调用{@link ProducerWrapper#release()}，异步发送在回调中释放。
+     *
+     * @param app 应用
+     * @return 生产者包装器
+     * @throws Exception 创建生产者失败
+     */
+    public ProducerWrapper acquireProducer(final String app) throws Exception {
+        while (true) {
+            ProducerWrapper wrapper = appProducerMap.get(app);
+            if (wrapper == null) {
+                wrapper = createProducer(app);
+            }
+            if (wrapper.acquire()) {
+                return wrapper;
+            }
+            // 生产者已被淘汰,移除后重新获取
+            appProducerMap.remove(app, wrapper);
+        }
+    }
+
+    private ProducerWrapper createProducer(final String app) throws Exception {
         ReentrantLock lock = getLock(app);
 
         lock.lock();
         try {
             ProducerWrapper wrapper = appProducerMap.get(app);
             if (wrapper == null) {
-                DefaultMQProducer defaultMQProducer = new DefaultMQProducer(app);
-                defaultMQProducer.setNamesrvAddr(gatewayConfig.getNameServerAddress());
+                int shards = Math.max(1, gatewayConfig.getProducerShards());
+                DefaultMQProducer[] producers = new DefaultMQProducer[shards];
+                for (int i = 0; i < shards; i++) {
+                    DefaultMQProducer defaultMQProducer = new DefaultMQProducer(app);
+                    defaultMQProducer.setNamesrvAddr(gatewayConfig.getNameServerAddress());
+                    if (shards > 1) {
+                        // 不同实例名使用独立的客户端实例(连接和回调线程)
+                        defaultMQProducer.setInstanceName(app + PRODUCER_SHARD_SEPARATOR + i);
+                    }
+                    producers[i] = defaultMQProducer;
+                }
 
-                wrapper = new ProducerWrapper(defaultMQProducer);
-                wrapper.producer.start();
+                wrapper = new ProducerWrapper(app, producers);
+                wrapper.start();
 
                 appProducerMap.put(app, wrapper);
             }
-
-            wrapper.lastActiveNanoTime = System.nanoTime();
-            return wrapper.producer;
+            return wrapper;
 
         } finally {
             lock.unlock();
@@ -63,14 +102,117 @@ public final class ProducerManager {
     }
 
     public void start() {
+        int threads = Math.max(1, gatewayConfig.getProducerPrewarmThreads());
+        prewarmExecutor = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new NamedThreadFactory("producer-prewarm", true));
+        prewarmExecutor.allowCoreThreadTimeOut(true);
+
         idleMonitor.start();
     }
 
     public void stop() {
         idleMonitor.shutdown();
+        prewarmExecutor.shutdownNow();
         shutdownAllProducers();
     }
 
+    /**
+     * 预热新增订阅的生产者，新增应用并行创建并启动生产者，已有应用只预取新增主题的路由。
+     * 首次加载订阅时等待完成或超时，之后的变更异步预热，不阻塞订阅刷新。
+     * <p>
+     * 预热不更新生产者的活跃时间，也不重新创建已作为空闲淘汰的生产者。
+     *
+     * @param previous 变更前的订阅索引
+     * @param index    变更后的订阅索引
+     */
+    private void prewarm(final ProduceSubscriptionIndex previous, final ProduceSubscriptionIndex index) {
+        int timeoutMs = gatewayConfig.getProducerPrewarmTimeoutMs();
+        if (timeoutMs <= 0 || index.isEmpty() || prewarmExecutor == null) {
+            return;
+        }
+
+        // 应用 -> 新增主题
+        final Map<String, Set<String>> added = new HashMap<>();
+        for (String app : index.getApps()) {
+            Set<String> topics = new HashSet<>(index.getTopics(app));
+            topics.removeAll(previous.getTopics(app));
+            if (!topics.isEmpty()) {
+                added.put(app, topics);
+            }
+        }
+        if (added.isEmpty()) {
+            return;
+        }
+
+        long startTime = System.currentTimeMillis();
+        final CountDownLatch latch = new CountDownLatch(added.size());
+        for (final Map.Entry<String, Set<String>> entry : added.entrySet()) {
+            final boolean create = previous.getTopics(entry.getKey()).isEmpty();
+            prewarmExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        prewarm(entry.getKey(), entry.getValue(), create);
+                    } finally {
+                        latch.countDown();
+                    }
+                }
+            });
+        }
+
+        if (!previous.isEmpty()) {
+            logger.info(String.format("prewarm producers of %d apps with added topics in background.", added.size()));
+            return;
+        }
+
+        try {
+            if (latch.await(timeoutMs, TimeUnit.MILLISECONDS)) {
+                logger.info(String.format("prewarm producers of %d apps in %dms.",
+                        added.size(), System.currentTimeMillis() - startTime));
+            } else {
+                logger.warn(String.format("prewarm producers timeout[%dms], %d of %d apps are still in progress.",
+                        timeoutMs, latch.getCount(), added.size()));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * 预热应用的生产者
+     *
+     * @param app    应用
+     * @param topics 预取路由的主题
+     * @param create 生产者不存在时是否创建，只有新增的应用才创建
+     */
+    private void prewarm(final String app, final Set<String> topics, final boolean create) {
+        ProducerWrapper wrapper = appProducerMap.get(app);
+        if (wrapper == null) {
+            if (!create) {
+                // 已作为空闲淘汰或尚未发送过消息,等首次发送时再创建
+                return;
+            }
+            try {
+                wrapper = createProducer(app);
+            } catch (Exception e) {
+                logger.error(String.format("prewarm producer[%s] error.", app), e);
+                return;
+            }
+        }
+        if (!wrapper.lease()) {
+            // 正在淘汰
+            return;
+        }
+
+        try {
+            for (String topic : topics) {
+                wrapper.prefetchRoute(topic);
+            }
+        } finally {
+            wrapper.release();
+        }
+    }
+
     /**
      * 关闭所有的生产者
      */
@@ -88,7 +230,6 @@ public final class ProducerManager {
     private void shutdownProducers0(boolean isShutdown) {
         String app;
         ProducerWrapper wrapper;
-        MQProducer producer;
         long idleTime;
 
         boolean needClose;
@@ -114,11 +255,16 @@ public final class ProducerManager {
                     needClose = true;
                 }
 
-                if (needClose) {
-                    iterator.remove();
+                if (isShutdown) {
+                    // 不再接受新的租用,正在发送的请求全部释放后才真正关闭
+                    wrapper.close();
+                } else if (needClose) {
+                    // 仍有正在发送的请求则不是空闲生产者
+                    needClose = wrapper.tryClose();
+                }
 
-                    producer = wrapper.producer;
-                    producer.shutdown();
+                if (needClose) {
+                    appProducerMap.remove(app, wrapper);
 
                     if (isShutdown) {
                         logger.info(String.format("gateway shutdown, close producer[%s]", app));
@@ -133,7 +279,7 @@ public final class ProducerManager {
         }
     }
 
-    private static ConcurrentHashMap<String /*应用编码*/, ReentrantLock> appMutexMap = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String /*应用编码*/, ReentrantLock> appMutexMap = new ConcurrentHashMap<>();
 
     private ReentrantLock getLock(final String app) {
         ReentrantLock lock = appMutexMap.get(app);
@@ -184,44 +330,201 @@ public final class ProducerManager {
         this.gatewayConfig = gatewayConfig;
     }
 
-    public Set<String> getAppTopicSubscriptionSet() {
-        return appTopicSubscriptionSet;
+    /**
+     * 查找生产订阅
+     *
+     * @param app   应用
+     * @param topic 主题
+     * @return 订阅, 未订阅返回null
+     */
+    public Subscription getSubscription(String app, String topic) {
+        return subscriptionIndex.get(app, topic);
+    }
+
+    /**
+     * 获取订阅的累积等待时间
+     *
+     * @param app   应用
+     * @param topic 主题
+     * @return 等待时间(毫秒), 0表示不累积
+     */
+    public int getLingerMs(String app, String topic) {
+        Subscription subscription = subscriptionIndex.get(app, topic);
+        return subscription != null && subscription.getLingerMs() != null
+                ? subscription.getLingerMs() : gatewayConfig.getProduceLingerMs();
     }
 
     public void onSubscription(List<Subscription> subscriptions) {
-        Set<String> appTopicSubscriptionLocal;
         if (subscriptions == null || subscriptions.isEmpty()) {
             logger.warn("No subscription.");
-            appTopicSubscriptionLocal = new HashSet<>(0);
-        } else {
-            appTopicSubscriptionLocal = new HashSet<>(subscriptions.size());
-            for (Subscription subscription : subscriptions) {
-                if (StringUtils.isNotBlank(subscription.getApp())
-                        && StringUtils.isNotBlank(subscription.getTopic())) {
-                    appTopicSubscriptionLocal.add(subscription.getApp() + APP_TOPIC_SUBSCRIPTION_SEPARATOR + subscription.getTopic());
-                }
-            }
         }
 
-        appTopicSubscriptionSet = appTopicSubscriptionLocal;
+        ProduceSubscriptionIndex previous = subscriptionIndex;
+        ProduceSubscriptionIndex index = ProduceSubscriptionIndex.build(subscriptions);
+        subscriptionIndex = index;
+
+        prewarm(previous, index);
     }
 
     /**
-     * 生产者包装器
+     * 生产者包装器，同一应用的所有生产者分片作为整体租用和淘汰
+     * <p>
+     * 状态的符号位为关闭标记，其余位为正在使用的请求数，关闭后不再接受新的租用。
+     * 空闲淘汰只关闭没有正在使用的请求的生产者，保证淘汰不会影响正在发送的消息。
      */
-    private class ProducerWrapper {
+    public static final class ProducerWrapper {
+
+        // 关闭标记
+        private static final int CLOSED = Integer.MIN_VALUE;
+
+        // 最新活跃时间的更新间隔(纳秒)
+        private static final long ACTIVE_UPDATE_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+        // 应用
+        private final String app;
 
-        // 生产者
-        private final DefaultMQProducer producer;
+        // 生产者分片
+        private final DefaultMQProducer[] producers;
 
-        // 最新活跃时间(纳秒)
-        private long lastActiveNanoTime;
+        // 轮询分片计数
+        private final AtomicInteger roundRobin = new AtomicInteger();
 
-        ProducerWrapper(final DefaultMQProducer producer) {
-            this.producer = producer;
+        // 关闭标记 | 正在使用的请求数
+        private final AtomicInteger state = new AtomicInteger();
+
+        // 最新活跃时间(纳秒),按间隔更新,避免热点应用的所有线程反复写同一缓存行
+        private volatile long lastActiveNanoTime;
+
+        ProducerWrapper(final String app, final DefaultMQProducer[] producers) {
+            this.app = app;
+            this.producers = producers;
             this.lastActiveNanoTime = System.nanoTime();
         }
 
+        /**
+         * 选择生产者分片，有顺序分片键时按分片键选择，保证同一分片键的消息由同一生产者发送，否则轮询
+         *
+         * @param shardingKey 顺序分片键
+         * @return 生产者
+         */
+        public DefaultMQProducer getProducer(final String shardingKey) {
+            if (producers.length == 1) {
+                return producers[0];
+            }
+            int index = StringUtils.isEmpty(shardingKey) ? roundRobin.getAndIncrement() : shardingKey.hashCode();
+            return producers[(index & Integer.MAX_VALUE) % producers.length];
+        }
+
+        /**
+         * 从name server预取主题路由，避免首次发送时同步查询路由
+         *
+         * @param topic 主题
+         */
+        void prefetchRoute(final String topic) {
+            for (DefaultMQProducer producer : producers) {
+                try {
+                    // 路由未变化时返回false,主题不存在时由客户端记录日志
+                    producer.getDefaultMQProducerImpl().getmQClientFactory().updateTopicRouteInfoFromNameServer(topic);
+                } catch (Exception e) {
+                    logger.error(String.format("prefetch route of topic[%s] for producer[%s] error.", topic, app), e);
+                }
+            }
+        }
+
+        void start() throws Exception {
+            for (int i = 0; i < producers.length; i++) {
+                try {
+                    producers[i].start();
+                } catch (Exception e) {
+                    // 关闭已启动的分片
+                    for (int j = 0; j < i; j++) {
+                        producers[j].shutdown();
+                    }
+                    throw e;
+                }
+            }
+        }
+
+        /**
+         * 租用，已关闭返回false
+         */
+        boolean acquire() {
+            if (!lease()) {
+                return false;
+            }
+
+            long now = System.nanoTime();
+            if (now - lastActiveNanoTime > ACTIVE_UPDATE_INTERVAL_NANOS) {
+                lastActiveNanoTime = now;
+            }
+            return true;
+        }
+
+        /**
+         * 租用但不更新活跃时间，用于预热等非发送请求，已关闭返回false
+         */
+        boolean lease() {
+            int current;
+            do {
+                current = state.get();
+                if (current < 0) {
+                    return false;
+                }
+            } while (!state.compareAndSet(current, current + 1));
+            return true;
+        }
+
+        /**
+         * 释放租用，已关闭且为最后一个请求时关闭生产者
+         */
+        public void release() {
+            if (state.decrementAndGet() == CLOSED) {
+                shutdown();
+            }
+        }
+
+        /**
+         * 没有正在使用的请求时关闭生产者
+         *
+         * @return 关闭成功返回true
+         */
+        boolean tryClose() {
+            if (state.compareAndSet(0, CLOSED)) {
+                shutdown();
+                return true;
+            }
+            return false;
+        }
+
+        /**
+         * 标记关闭，没有正在使用的请求时立即关闭生产者，否则由最后一个释放的请求关闭
+         */
+        void close() {
+            int current;
+            do {
+                current = state.get();
+                if (current < 0) {
+                    return;
+                }
+            } while (!state.compareAndSet(current, current | CLOSED));
+
+            if (current == 0) {
+                shutdown();
+            } else {
+                logger.info(String.format("producer[%s] has %d in-flight requests, close it after released.", app, current));
+            }
+        }
+
+        private void shutdown() {
+            for (DefaultMQProducer producer : producers) {
+                try {
+                    producer.shutdown();
+                } catch (Exception e) {
+                    logger.error(String.format("shutdown producer[%s] error.", app), e);
+                }
+            }
+        }
+
     }
 
 }
@@ -0,0 +1,14 @@
+package com.alibaba.rocketmq.gateway.transport;
+
+
+import io.netty.channel.ChannelHandlerContext;
+import org.apache.rocketmq.gateway.common.protocol.MessageProduceRequest;
+
+/**
+ * 异步请求处理器，处理完成后通过回调返回应答，不阻塞调用线程
+ */
+public interface AsyncRequestProcessor extends RequestProcessor {
+
+    void processAsync(ChannelHandlerContext ctx, MessageProduceRequest request, ResponseCallback callback);
+
+}
@@ -0,0 +1,21 @@
+package com.alibaba.rocketmq.gateway.transport;
+
+
+import io.netty.channel.ChannelHandlerContext;
+import org.apache.rocketmq.gateway.common.protocol.MessagePullRequest;
+
+/**
+ * 拉取请求处理器，在channel所属的事件循环中调用，不能阻塞；
+ * 没有消息时请求挂起，有消息或等待超时后通过回调返回应答
+ */
+public interface PullRequestProcessor {
+
+    void processPull(ChannelHandlerContext ctx, MessagePullRequest request, PullResponseCallback callback);
+
+    /**
+     * 流式推送，连接可写时持续通过回调推送消息，不可写时暂停；
+     * 在连接建立和恢复可写时调用，应答状态不是成功时关闭连接
+     */
+    void processStream(ChannelHandlerContext ctx, MessagePullRequest request, PullResponseCallback callback);
+
+}
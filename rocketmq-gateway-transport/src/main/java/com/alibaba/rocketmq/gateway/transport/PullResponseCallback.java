@@ -0,0 +1,11 @@
+package com.alibaba.rocketmq.gateway.transport;
+
+
+import org.apache.rocketmq.gateway.common.protocol.MessagePullResponse;
+
+
+public interface PullResponseCallback {
+
+    void onResponse(MessagePullResponse response);
+
+}
@@ -0,0 +1,531 @@
+package com.alibaba.rocketmq.gateway.transport.netty;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.util.ByteProcessor;
+import org.apache.rocketmq.gateway.common.protocol.MessageProduceRequest.MessageContent;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 直接在请求缓冲区上扫描JSON信封，解析tag/key，并将消息体一次性切出为字节数组，
+ * 避免"缓冲区->字符串->对象->字节数组"的多次拷贝。
+ * <p>
+ * 仅适用于结构字符与ASCII一致、且多字节字符不会包含ASCII字节的字符集(UTF-8, US-ASCII, ISO-8859-1)，
+ * 其他字符集由调用方退回到fastjson解析。
+ * <p>
+ * 消息体为字符串时，无转义字符则直接切出原始字节，否则解码为字符串；
+ * 消息体为对象、数组或其他JSON值时，校验语法后切出该值的原始文本。
+ * <p>
+ * 批量请求的请求体为上述消息内容组成的数组。
+ */
+final class MessageContentDecoder {
+
+    private static final String FIELD_TAG = "tag";
+    private static final String FIELD_KEY = "key";
+    private static final String FIELD_BODY = "body";
+
+    // 嵌套对象和数组的最大深度
+    private static final int MAX_DEPTH = 512;
+
+    // 查找字符串结束符或转义符
+    private static final ByteProcessor FIND_QUOTE_OR_BACKSLASH = new ByteProcessor() {
+        @Override
+        public boolean process(byte value) {
+            return value != '"' && value != '\\';
+        }
+    };
+
+    private final ByteBuf buffer;
+    private final Charset charset;
+    private final int end;
+    private int pos;
+
+    private MessageContentDecoder(final ByteBuf buffer, final Charset charset) {
+        this.buffer = buffer;
+        this.charset = charset;
+        this.pos = buffer.readerIndex();
+        this.end = buffer.writerIndex();
+    }
+
+    /**
+     * 是否支持直接在字节上扫描
+     *
+     * @param charset 字符集
+     * @return 支持返回true
+     */
+    static boolean supports(final Charset charset) {
+        String name = charset.name();
+        return "UTF-8".equals(name) || "US-ASCII".equals(name) || "ISO-8859-1".equals(name);
+    }
+
+    /**
+     * 解析消息内容
+     *
+     * @param buffer  请求体
+     * @param charset 字符集
+     * @return 消息内容，请求体为空白时返回null
+     * @throws IllegalArgumentException JSON格式错误
+     */
+    static MessageContent decode(final ByteBuf buffer, final Charset charset) {
+        MessageContentDecoder decoder = new MessageContentDecoder(buffer, charset);
+        decoder.skipWhitespace();
+        if (decoder.pos >= decoder.end) {
+            return null;
+        }
+        MessageContent content = decoder.decodeObject();
+        decoder.expectEnd();
+        return content;
+    }
+
+    /**
+     * 解析批量消息内容
+     *
+     * @param buffer  请求体，消息内容数组
+     * @param charset 字符集
+     * @return 消息内容列表，请求体为空白时返回null
+     * @throws IllegalArgumentException JSON格式错误
+     */
+    static List<MessageContent> decodeList(final ByteBuf buffer, final Charset charset) {
+        MessageContentDecoder decoder = new MessageContentDecoder(buffer, charset);
+        decoder.skipWhitespace();
+        if (decoder.pos >= decoder.end) {
+            return null;
+        }
+        List<MessageContent> contents = decoder.decodeArray();
+        decoder.expectEnd();
+        return contents;
+    }
+
+    private List<MessageContent> decodeArray() {
+        expect('[');
+
+        List<MessageContent> contents = new ArrayList<>();
+        skipWhitespace();
+        if (peek() == ']') {
+            pos++;
+            return contents;
+        }
+
+        while (true) {
+            skipWhitespace();
+            contents.add(decodeObject());
+            skipWhitespace();
+            byte b = next();
+            if (b == ']') {
+                return contents;
+            }
+            if (b != ',') {
+                throw error("',' or ']' expected");
+            }
+        }
+    }
+
+    private MessageContent decodeObject() {
+        expect('{');
+
+        MessageContent content = new MessageContent();
+        skipWhitespace();
+        if (peek() == '}') {
+            pos++;
+            return content;
+        }
+
+        while (true) {
+            skipWhitespace();
+            expect('"');
+            String field = readString();
+            skipWhitespace();
+            expect(':');
+            skipWhitespace();
+
+            if (FIELD_TAG.equals(field)) {
+                content.setTag(readText());
+            } else if (FIELD_KEY.equals(field)) {
+                content.setKey(readText());
+            } else if (FIELD_BODY.equals(field)) {
+                readBody(content);
+            } else {
+                skipValue();
+            }
+
+            skipWhitespace();
+            byte b = next();
+            if (b == '}') {
+                return content;
+            }
+            if (b != ',') {
+                throw error("',' or '}' expected");
+            }
+        }
+    }
+
+    /**
+     * 读取消息体
+     */
+    private void readBody(final MessageContent content) {
+        content.setBody(null);
+        content.setBodyBytes(null);
+
+        byte b = peek();
+        if (b == '"') {
+            pos++;
+            int start = pos;
+            int quote = findStringEnd();
+            if (quote < 0) {
+                // 含转义字符,解码为字符串,由处理器按字符集编码
+                content.setBody(readString(start));
+            } else {
+                content.setBodyBytes(slice(start, quote));
+                pos = quote + 1;
+            }
+        } else if (b == 'n' && matches("null")) {
+            pos += 4;
+        } else {
+            int start = pos;
+            skipValue();
+            content.setBodyBytes(slice(start, pos));
+        }
+    }
+
+    /**
+     * 读取字符串、数字或布尔值的文本
+     */
+    private String readText() {
+        byte b = peek();
+        if (b == '"') {
+            pos++;
+            return readString();
+        }
+        if (b == 'n' && matches("null")) {
+            pos += 4;
+            return null;
+        }
+        if (b == '{' || b == '[') {
+            throw error("string expected");
+        }
+        int start = pos;
+        skipValue();
+        return buffer.toString(start, pos - start, charset);
+    }
+
+    /**
+     * 读取字符串，当前位置在起始引号之后
+     */
+    private String readString() {
+        int start = pos;
+        int quote = findStringEnd();
+        if (quote >= 0) {
+            pos = quote + 1;
+            return buffer.toString(start, quote - start, charset);
+        }
+        return readString(start);
+    }
+
+    /**
+     * 无转义时返回结束引号位置，有转义时返回-1，当前位置不变
+     */
+    private int findStringEnd() {
+        int index = buffer.forEachByte(pos, end - pos, FIND_QUOTE_OR_BACKSLASH);
+        if (index < 0) {
+            throw error("unterminated string");
+        }
+        return buffer.getByte(index) == '"' ? index : -1;
+    }
+
+    /**
+     * 读取含转义字符的字符串，start为起始引号之后的位置
+     */
+    private String readString(final int start) {
+        int index = start;
+        while (index < end) {
+            byte b = buffer.getByte(index);
+            if (b == '\\') {
+                index += 2;
+            } else if (b == '"') {
+                break;
+            } else {
+                index++;
+            }
+        }
+        if (index >= end) {
+            throw error("unterminated string");
+        }
+        pos = index + 1;
+
+        // 转义序列都是ASCII字符,解码后再反转义不受字符集影响
+        String raw = buffer.toString(start, index - start, charset);
+        StringBuilder builder = new StringBuilder(raw.length());
+        for (int i = 0; i < raw.length(); i++) {
+            char c = raw.charAt(i);
+            if (c != '\\') {
+                builder.append(c);
+                continue;
+            }
+            if (++i >= raw.length()) {
+                throw error("invalid escape");
+            }
+            c = raw.charAt(i);
+            switch (c) {
+                case '"':
+                case '\\':
+                case '/':
+                    builder.append(c);
+                    break;
+                case 'b':
+                    builder.append('\b');
+                    break;
+                case 'f':
+                    builder.append('\f');
+                    break;
+                case 'n':
+                    builder.append('\n');
+                    break;
+                case 'r':
+                    builder.append('\r');
+                    break;
+                case 't':
+                    builder.append('\t');
+                    break;
+                case 'u':
+                    if (i + 4 >= raw.length()) {
+                        throw error("invalid unicode escape");
+                    }
+                    int code = 0;
+                    for (int j = i + 1; j <= i + 4; j++) {
+                        int digit = Character.digit(raw.charAt(j), 16);
+                        if (digit < 0) {
+                            throw error("invalid unicode escape");
+                        }
+                        code = (code << 4) | digit;
+                    }
+                    builder.append((char) code);
+                    i += 4;
+                    break;
+                default:
+                    throw error("invalid escape");
+            }
+        }
+        return builder.toString();
+    }
+
+    /**
+     * 跳过一个JSON值，校验语法
+     */
+    private void skipValue() {
+        skipValue(0);
+    }
+
+    private void skipValue(final int depth) {
+        byte b = peek();
+        switch (b) {
+            case '"':
+                pos++;
+                skipString();
+                break;
+            case '{':
+                skipObject(depth + 1);
+                break;
+            case '[':
+                skipArray(depth + 1);
+                break;
+            case 't':
+                skipLiteral("true");
+                break;
+            case 'f':
+                skipLiteral("false");
+                break;
+            case 'n':
+                skipLiteral("null");
+                break;
+            default:
+                skipNumber();
+        }
+    }
+
+    private void skipObject(final int depth) {
+        if (depth > MAX_DEPTH) {
+            throw error("nesting too deep");
+        }
+        expect('{');
+        skipWhitespace();
+        if (peek() == '}') {
+            pos++;
+            return;
+        }
+        while (true) {
+            skipWhitespace();
+            expect('"');
+            skipString();
+            skipWhitespace();
+            expect(':');
+            skipWhitespace();
+            skipValue(depth);
+            skipWhitespace();
+            byte b = next();
+            if (b == '}') {
+                return;
+            }
+            if (b != ',') {
+                throw error("',' or '}' expected");
+            }
+        }
+    }
+
+    private void skipArray(final int depth) {
+        if (depth > MAX_DEPTH) {
+            throw error("nesting too deep");
+        }
+        expect('[');
+        skipWhitespace();
+        if (peek() == ']') {
+            pos++;
+            return;
+        }
+        while (true) {
+            skipWhitespace();
+            skipValue(depth);
+            skipWhitespace();
+            byte b = next();
+            if (b == ']') {
+                return;
+            }
+            if (b != ',') {
+                throw error("',' or ']' expected");
+            }
+        }
+    }
+
+    /**
+     * 跳过字符串并校验转义，当前位置在起始引号之后，不创建字符串
+     */
+    private void skipString() {
+        while (true) {
+            int index = buffer.forEachByte(pos, end - pos, FIND_QUOTE_OR_BACKSLASH);
+            if (index < 0) {
+                throw error("unterminated string");
+            }
+            pos = index + 1;
+            if (buffer.getByte(index) == '"') {
+                return;
+            }
+            byte b = next();
+            if (b == 'u') {
+                for (int i = 0; i < 4; i++) {
+                    if (Character.digit(next(), 16) < 0) {
+                        throw error("invalid unicode escape");
+                    }
+                }
+            } else if (b != '"' && b != '\\' && b != '/' && b != 'b' && b != 'f' && b != 'n' && b != 'r' && b != 't') {
+                throw error("invalid escape");
+            }
+        }
+    }
+
+    private void skipLiteral(final String literal) {
+        if (!matches(literal)) {
+            throw error("value expected");
+        }
+        pos += literal.length();
+    }
+
+    /**
+     * 跳过数字: -?(0|[1-9][0-9]*)(.[0-9]+)?([eE][+-]?[0-9]+)?
+     */
+    private void skipNumber() {
+        if (pos < end && buffer.getByte(pos) == '-') {
+            pos++;
+        }
+        if (pos < end && buffer.getByte(pos) == '0') {
+            pos++;
+        } else if (skipDigits() == 0) {
+            throw error("value expected");
+        }
+        if (pos < end && buffer.getByte(pos) == '.') {
+            pos++;
+            if (skipDigits() == 0) {
+                throw error("digit expected");
+            }
+        }
+        if (pos < end && (buffer.getByte(pos) == 'e' || buffer.getByte(pos) == 'E')) {
+            pos++;
+            if (pos < end && (buffer.getByte(pos) == '+' || buffer.getByte(pos) == '-')) {
+                pos++;
+            }
+            if (skipDigits() == 0) {
+                throw error("digit expected");
+            }
+        }
+    }
+
+    private int skipDigits() {
+        int start = pos;
+        while (pos < end && buffer.getByte(pos) >= '0' && buffer.getByte(pos) <= '9') {
+            pos++;
+        }
+        return pos - start;
+    }
+
+    private byte[] slice(final int from, final int to) {
+        byte[] bytes = new byte[to - from];
+        buffer.getBytes(from, bytes);
+        return bytes;
+    }
+
+    private boolean matches(final String literal) {
+        if (pos + literal.length() > end) {
+            return false;
+        }
+        for (int i = 0; i < literal.length(); i++) {
+            if (buffer.getByte(pos + i) != literal.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void skipWhitespace() {
+        while (pos < end && isWhitespace(buffer.getByte(pos))) {
+            pos++;
+        }
+    }
+
+    private static boolean isWhitespace(final byte b) {
+        return b == ' ' || b == '\t' || b == '\r' || b == '\n';
+    }
+
+    private byte peek() {
+        if (pos >= end) {
+            throw error("unexpected end of content");
+        }
+        return buffer.getByte(pos);
+    }
+
+    private byte next() {
+        byte b = peek();
+        pos++;
+        return b;
+    }
+
+    /**
+     * 顶层值之后只允许空白
+     */
+    private void expectEnd() {
+        skipWhitespace();
+        if (pos < end) {
+            throw error("unexpected content");
+        }
+    }
+
+    private void expect(final char c) {
+        if (next() != c) {
+            throw error("'" + c + "' expected");
+        }
+    }
+
+    private IllegalArgumentException error(final String message) {
+        return new IllegalArgumentException(String.format("invalid json content, %s at %d", message, pos - buffer.readerIndex()));
+    }
+
+}
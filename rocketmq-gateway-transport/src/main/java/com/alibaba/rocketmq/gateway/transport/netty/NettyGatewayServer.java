@@ -1,10 +1,19 @@
 package com.alibaba.rocketmq.gateway.transport.netty;
 
+import com.alibaba.rocketmq.gateway.transport.AsyncRequestProcessor;
+import com.alibaba.rocketmq.gateway.transport.PullRequestProcessor;
+import com.alibaba.rocketmq.gateway.transport.PullResponseCallback;
 import com.alibaba.rocketmq.gateway.transport.RequestProcessor;
+import com.alibaba.rocketmq.gateway.transport.ResponseCallback;
 import com.alibaba.rocketmq.gateway.transport.util.TransportUtils;
 import io.netty.bootstrap.ServerBootstrap;
 import io.netty.channel.*;
 import io.netty.channel.ChannelHandler.Sharable;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollChannelOption;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.epoll.EpollMode;
+import io.netty.channel.epoll.EpollServerSocketChannel;
 import io.netty.channel.nio.NioEventLoopGroup;
 import io.netty.channel.socket.SocketChannel;
 import io.netty.channel.socket.nio.NioServerSocketChannel;
@@ -16,6 +25,8 @@ import io.netty.handler.timeout.IdleStateHandler;
 import org.apache.rocketmq.gateway.common.GatewayConfig;
 import org.apache.rocketmq.gateway.common.protocol.MessageProduceRequest;
 import org.apache.rocketmq.gateway.common.protocol.MessageProduceResponse;
+import org.apache.rocketmq.gateway.common.protocol.MessagePullRequest;
+import org.apache.rocketmq.gateway.common.protocol.MessagePullResponse;
 import org.apache.rocketmq.gateway.common.utils.NamedThreadFactory;
 import org.apache.rocketmq.gateway.common.utils.Service;
 import org.slf4j.Logger;
@@ -39,27 +50,57 @@ public final class NettyGatewayServer extends Service {
     private final EventLoopGroup eventGroupBoss;
     // worker线程组
     private final EventLoopGroup eventGroupWorker;
+    // 是否使用epoll
+    private final boolean useEpoll;
     // 请求处理线程
     private ExecutorService workerService;
     // 请求处理器
     private RequestProcessor processor;
+    // 异步请求处理器,未开启异步发送时为空
+    private AsyncRequestProcessor asyncProcessor;
+    // 拉取请求处理器,为空则不提供拉取消费
+    private PullRequestProcessor pullProcessor;
 
 
     public NettyGatewayServer(GatewayConfig gatewayConfig) {
         this.gatewayConfig = gatewayConfig;
         this.serverBootstrap = new ServerBootstrap();
-        this.eventGroupBoss = new NioEventLoopGroup(1, new NamedThreadFactory("boss"));
-        this.eventGroupWorker = new NioEventLoopGroup(gatewayConfig.getSelectorThreads(), new NamedThreadFactory("selector"));
+        this.useEpoll = gatewayConfig.isEpollEnabled() && Epoll.isAvailable();
+
+        // epoll下每个监听独占一个boss线程,由内核通过SO_REUSEPORT分发连接
+        int acceptors = useEpoll ? Math.max(1, gatewayConfig.getAcceptorThreads()) : 1;
+        if (useEpoll) {
+            this.eventGroupBoss = new EpollEventLoopGroup(acceptors, new NamedThreadFactory("boss"));
+            this.eventGroupWorker = new EpollEventLoopGroup(gatewayConfig.getSelectorThreads(), new NamedThreadFactory("selector"));
+        } else {
+            if (gatewayConfig.isEpollEnabled()) {
+                logger.warn("epoll is not available, fall back to nio.", Epoll.unavailabilityCause());
+            }
+            this.eventGroupBoss = new NioEventLoopGroup(acceptors, new NamedThreadFactory("boss"));
+            this.eventGroupWorker = new NioEventLoopGroup(gatewayConfig.getSelectorThreads(), new NamedThreadFactory("selector"));
+        }
     }
 
     public void setProcessor(RequestProcessor processor) {
         this.processor = processor;
     }
 
+    public void setPullProcessor(PullRequestProcessor pullProcessor) {
+        this.pullProcessor = pullProcessor;
+    }
+
     @Override
     protected void doStart() throws Exception {
         super.doStart();
 
+        if (gatewayConfig.isAsyncProduceEnabled()) {
+            if (processor instanceof AsyncRequestProcessor) {
+                asyncProcessor = (AsyncRequestProcessor) processor;
+            } else {
+                logger.warn(String.format("processor %s does not support async produce, use sync mode.",
+                        processor.getClass().getName()));
+            }
+        }
 
         workerService = new ThreadPoolExecutor(
                 gatewayConfig.getWorkerThreads(),
@@ -70,8 +111,9 @@ public final class NettyGatewayServer extends Service {
         );
 
         serverBootstrap.group(eventGroupBoss, eventGroupWorker)
-                .channel(NioServerSocketChannel.class)
                 .localAddress(new InetSocketAddress(gatewayConfig.getListenPort()))
+                .option(ChannelOption.SO_BACKLOG, gatewayConfig.getSoBacklog())
+                .childOption(ChannelOption.TCP_NODELAY, gatewayConfig.isTcpNoDelay())
                 .childHandler(new ChannelInitializer<SocketChannel>() {
                     @Override
                     protected void initChannel(SocketChannel ch) throws Exception {
@@ -79,7 +121,17 @@ public final class NettyGatewayServer extends Service {
                                 new IdleStateHandler(0, 0, gatewayConfig.getChannelMaxIdleTimeSeconds(), TimeUnit.SECONDS),
                                 new NettyConnectionManageHandler(),
                                 new HttpServerCodec(),
-                                new HttpObjectAggregator(gatewayConfig.getHttpTransferMaxContentLength()),
+                                new HttpObjectAggregator(gatewayConfig.getHttpTransferMaxContentLength()));
+                        if (pullProcessor != null) {
+                            // 拉取和流式消费路径的请求在这里处理,其他请求继续按发送消息处理
+                            ch.pipeline().addLast(
+                                    new PullResponseEncoder(),
+                                    new StreamHandshakeHandler(NettyGatewayServer.this.gatewayConfig, pullProcessor),
+                                    new PullRequestDecoder(NettyGatewayServer.this.gatewayConfig.getGatewayAddress()),
+                                    new PullRequestValidator(),
+                                    new PullServerHandler());
+                        }
+                        ch.pipeline().addLast(
                                 new RequestDecoder(NettyGatewayServer.this.gatewayConfig.getGatewayAddress()),
                                 new ResponseEncoder(),
                                 new GatewayLoggingHandler(),
@@ -89,14 +141,33 @@ public final class NettyGatewayServer extends Service {
                     }
                 });
 
+        int acceptors = 1;
+        if (useEpoll) {
+            EpollMode mode = gatewayConfig.isEpollEdgeTriggered() ? EpollMode.EDGE_TRIGGERED : EpollMode.LEVEL_TRIGGERED;
+            serverBootstrap.channel(EpollServerSocketChannel.class)
+                    .option(EpollChannelOption.SO_REUSEPORT, true)
+                    .option(EpollChannelOption.EPOLL_MODE, mode)
+                    .childOption(EpollChannelOption.EPOLL_MODE, mode);
+            if (gatewayConfig.getTcpFastOpen() > 0) {
+                serverBootstrap.option(EpollChannelOption.TCP_FASTOPEN, gatewayConfig.getTcpFastOpen());
+            }
+            acceptors = Math.max(1, gatewayConfig.getAcceptorThreads());
+        } else {
+            serverBootstrap.channel(NioServerSocketChannel.class);
+        }
+
         try {
-            serverBootstrap.bind().sync();
+            // 每次bind都会注册到boss线程组的下一个线程上
+            for (int i = 0; i < acceptors; i++) {
+                serverBootstrap.bind().sync();
+            }
         } catch (InterruptedException e) {
             throw new RuntimeException("server bootstrap start error.", e);
         }
 
-        logger.info(String.format("netty gateway server started, server %s, listen %d",
-                this.gatewayConfig.getGatewayAddress(), gatewayConfig.getListenPort()));
+        logger.info(String.format("netty gateway server started, server %s, listen %d, transport %s, acceptors %d, produce %s, pull %s",
+                this.gatewayConfig.getGatewayAddress(), gatewayConfig.getListenPort(), useEpoll ? "epoll" : "nio", acceptors,
+                asyncProcessor != null ? "async" : "sync", pullProcessor != null ? "enabled" : "disabled"));
     }
 
     @Override
@@ -122,33 +193,18 @@ public final class NettyGatewayServer extends Service {
             workerService.submit(new Runnable() {
                 @Override
                 public void run() {
-                    long startTime = System.currentTimeMillis();
-
-                    final MessageProduceResponse response = processor.process(ctx, request);
-                    if (response != null) {
-                        if (ctx.executor().inEventLoop()) {
-                            ctx.writeAndFlush(response);
-                        } else {
-                            ctx.executor().submit(new Runnable() {
-                                @Override
-                                public void run() {
-                                    ctx.writeAndFlush(response);
-                                }
-                            });
-                        }
-                        boolean error = isError(response);
-                        if (error) {
-                            logger.error("produce fail request: {}, response: {}", request, response);
-                        }
-
-                        long eclipseTime = System.currentTimeMillis() - startTime;
-                        if (eclipseTime > 1000) {
-                            logger.warn(String.format("send message to processor eclipse time(ms) ge 1000ms, time: %s, app: %s, topic: %s",
-                                    eclipseTime, request.getApp(), request.getTopic()));
-                        } else if (eclipseTime > 500) {
-                            logger.warn(String.format("send message to processor eclipse time(ms) ge 500ms, time: %s, app: %s, topic: %s",
-                                    eclipseTime, request.getApp(), request.getTopic()));
-                        }
+                    final long startTime = System.currentTimeMillis();
+
+                    if (asyncProcessor != null) {
+                        // 异步模式,工作线程只负责投递,应答由发送回调完成
+                        asyncProcessor.processAsync(ctx, request, new ResponseCallback() {
+                            @Override
+                            public void onResponse(MessageProduceResponse response) {
+                                complete(ctx, request, response, startTime);
+                            }
+                        });
+                    } else {
+                        complete(ctx, request, processor.process(ctx, request), startTime);
                     }
                 }
 
@@ -163,18 +219,73 @@ public final class NettyGatewayServer extends Service {
             }
 
             // 过载保护
-            final MessageProduceResponse response = new MessageProduceResponse(request, TOO_MANY_REQ);
-            if (ctx.executor().inEventLoop()) {
-                ctx.writeAndFlush(response);
-            } else {
-                ctx.executor().submit(new Runnable() {
-                    @Override
-                    public void run() {
+            write(ctx, new MessageProduceResponse(request, TOO_MANY_REQ));
+        }
+    }
+
+    private void complete(final ChannelHandlerContext ctx, final MessageProduceRequest request,
+                          final MessageProduceResponse response, final long startTime) {
+        if (response == null) {
+            return;
+        }
+
+        write(ctx, response);
+
+        boolean error = isError(response);
+        if (error) {
+            logger.error("produce fail request: {}, response: {}", request, response);
+        }
+
+        long eclipseTime = System.currentTimeMillis() - startTime;
+        if (eclipseTime > 1000) {
+            logger.warn(String.format("send message to processor eclipse time(ms) ge 1000ms, time: %s, app: %s, topic: %s",
+                    eclipseTime, request.getApp(), request.getTopic()));
+        } else if (eclipseTime > 500) {
+            logger.warn(String.format("send message to processor eclipse time(ms) ge 500ms, time: %s, app: %s, topic: %s",
+                    eclipseTime, request.getApp(), request.getTopic()));
+        }
+    }
+
+    /**
+     * 在channel所属的事件循环中写应答
+     */
+    private void write(final ChannelHandlerContext ctx, final MessageProduceResponse response) {
+        if (ctx.executor().inEventLoop()) {
+            ctx.writeAndFlush(response);
+        } else {
+            ctx.executor().execute(new Runnable() {
+                @Override
+                public void run() {
+                    ctx.writeAndFlush(response);
+                }
+            });
+        }
+    }
+
+    /**
+     * 拉取请求在事件循环中直接交给处理器，挂起等待消息时不占用工作线程
+     */
+    private void executePull(final ChannelHandlerContext ctx, final MessagePullRequest request) {
+        try {
+            pullProcessor.processPull(ctx, request, new PullResponseCallback() {
+                @Override
+                public void onResponse(final MessagePullResponse response) {
+                    if (ctx.executor().inEventLoop()) {
                         ctx.writeAndFlush(response);
+                    } else {
+                        ctx.executor().execute(new Runnable() {
+                            @Override
+                            public void run() {
+                                ctx.writeAndFlush(response);
+                            }
+                        });
                     }
-                });
-            }
-
+                }
+            });
+        } catch (Exception e) {
+            logger.error(String.format("process pull request error, %s", request), e);
+            ctx.writeAndFlush(new MessagePullResponse(request, new MessageProduceResponse.ResponseStatus(
+                    MessageProduceResponse.ResponseStatus.EXCEPTION.getCode(), e.getMessage())));
         }
     }
 
@@ -199,6 +310,16 @@ public final class NettyGatewayServer extends Service {
 
     }
 
+    @Sharable
+    private class PullServerHandler extends SimpleChannelInboundHandler<MessagePullRequest> {
+
+        @Override
+        protected void channelRead0(ChannelHandlerContext ctx, MessagePullRequest msg) throws Exception {
+            executePull(ctx, msg);
+        }
+
+    }
+
     @Sharable
     private class NettyConnectionManageHandler extends ChannelDuplexHandler {
         @Override
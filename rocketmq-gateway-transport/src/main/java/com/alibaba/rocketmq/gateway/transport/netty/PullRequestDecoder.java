@@ -0,0 +1,97 @@
+package com.alibaba.rocketmq.gateway.transport.netty;
+
+import io.netty.channel.ChannelHandler.Sharable;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.MessageToMessageDecoder;
+import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.HttpHeaders;
+import io.netty.handler.codec.http.QueryStringDecoder;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.rocketmq.gateway.common.protocol.MessagePullRequest;
+
+import java.util.List;
+
+import static org.apache.rocketmq.gateway.common.protocol.MessageEntity.*;
+import static org.apache.rocketmq.gateway.common.protocol.MessagePullEntity.*;
+
+
+/**
+ * 拉取和确认消费请求解码，只处理拉取路径的请求，其他请求交给发送消息的解码器
+ */
+@Sharable
+final class PullRequestDecoder extends MessageToMessageDecoder<FullHttpRequest> {
+
+    // 拉取消息的路径
+    static final String PULL_PATH = "/pull";
+    // 确认消费的路径
+    static final String COMMIT_PATH = "/commit";
+
+    private final String gatewayAddress;
+
+    PullRequestDecoder(final String gatewayAddress) {
+        this.gatewayAddress = gatewayAddress;
+    }
+
+    @Override
+    public boolean acceptInboundMessage(Object msg) throws Exception {
+        if (!super.acceptInboundMessage(msg)) {
+            return false;
+        }
+        String path = pathOf((FullHttpRequest) msg);
+        return PULL_PATH.equals(path) || COMMIT_PATH.equals(path);
+    }
+
+    @Override
+    protected void decode(ChannelHandlerContext ctx, FullHttpRequest msg, List<Object> out) throws Exception {
+        out.add(decode(msg, gatewayAddress));
+    }
+
+    /**
+     * 按请求头解码，流式消费的握手请求也使用
+     */
+    static MessagePullRequest decode(final FullHttpRequest msg, final String gatewayAddress) {
+        MessagePullRequest request = new MessagePullRequest(gatewayAddress);
+        HttpHeaders headers = msg.headers();
+
+        final String topic = headers.get(HEADER_TOPIC);
+        if (StringUtils.isNotBlank(topic)) {
+            request.setTopic(topic.trim());
+        }
+
+        final String app = headers.get(HEADER_APP);
+        if (StringUtils.isNotBlank(app)) {
+            request.setApp(app.trim());
+        }
+
+        final String requestId = headers.get(HEADER_REQ_ID);
+        if (StringUtils.isNotBlank(requestId)) {
+            request.setRequestId(requestId.trim());
+        }
+
+        final String pullId = headers.get(HEADER_PULL_ID);
+        if (StringUtils.isNotBlank(pullId)) {
+            request.setPullId(pullId.trim());
+        }
+
+        final String maxMessages = headers.get(HEADER_MAX_MESSAGES);
+        if (StringUtils.isNotBlank(maxMessages)) {
+            request.setMaxMessages(maxMessages.trim());
+        }
+
+        final String maxWaitMs = headers.get(HEADER_MAX_WAIT_MS);
+        if (StringUtils.isNotBlank(maxWaitMs)) {
+            request.setMaxWaitMs(maxWaitMs.trim());
+        }
+
+        request.setCommit(COMMIT_PATH.equals(pathOf(msg)));
+        request.setMethod(msg.getMethod().name());
+        request.setProtocolVersion(msg.getProtocolVersion().text());
+
+        return request;
+    }
+
+    static String pathOf(FullHttpRequest msg) {
+        return new QueryStringDecoder(msg.getUri()).path();
+    }
+
+}
@@ -0,0 +1,103 @@
+package com.alibaba.rocketmq.gateway.transport.netty;
+
+
+import io.netty.channel.ChannelHandler.Sharable;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.handler.codec.http.HttpMethod;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.rocketmq.gateway.common.protocol.MessageProduceResponse.ResponseStatus;
+import org.apache.rocketmq.gateway.common.protocol.MessagePullRequest;
+import org.apache.rocketmq.gateway.common.protocol.MessagePullResponse;
+
+import static org.apache.rocketmq.gateway.common.protocol.MessageEntity.*;
+import static org.apache.rocketmq.gateway.common.protocol.MessagePullEntity.*;
+
+
+@Sharable
+final class PullRequestValidator extends ChannelInboundHandlerAdapter {
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+        if (!(msg instanceof MessagePullRequest)) {
+            // 发送消息的请求
+            super.channelRead(ctx, msg);
+            return;
+        }
+
+        MessagePullRequest request = (MessagePullRequest) msg;
+
+        ResponseStatus status = validate(request);
+        if (status != null) {
+            ctx.writeAndFlush(new MessagePullResponse(request, status));
+
+            return;
+        }
+
+        super.channelRead(ctx, msg);
+    }
+
+    /**
+     * 校验拉取、确认消费和流式消费的请求
+     *
+     * @return 校验失败的应答状态，校验通过返回null
+     */
+    static ResponseStatus validate(MessagePullRequest request) {
+        ResponseStatus status = ResponseStatus.BAD_REQUEST;
+        try {
+            if (!HttpMethod.GET.name().equals(request.getMethod()) && !HttpMethod.POST.name().equals(request.getMethod())) {
+                status = ResponseStatus.METHOD_NOT_SUPPORTED;
+                throw new Exception(String.format("method[%s] not supported, only support GET and POST",
+                        request.getMethod()));
+            }
+            if (StringUtils.isBlank(request.getTopic())) {
+                throw new Exception(String.format("HEADER[%s] required.", HEADER_TOPIC));
+            }
+            if (StringUtils.isBlank(request.getApp())) {
+                throw new Exception(String.format("HEADER[%s] required.", HEADER_APP));
+            }
+            if (StringUtils.isBlank(request.getRequestId())) {
+                throw new Exception(String.format("HEADER[%s] required.", HEADER_REQ_ID));
+            }
+
+            if (request.isCommit()) {
+                if (StringUtils.isBlank(request.getPullId())) {
+                    throw new Exception(String.format("HEADER[%s] required.", HEADER_PULL_ID));
+                }
+            } else {
+                validatePull(request);
+            }
+
+        } catch (Exception e) {
+            return new ResponseStatus(status.getCode(), e.getMessage());
+        }
+
+        return null;
+    }
+
+    private static void validatePull(MessagePullRequest request) throws Exception {
+        if (StringUtils.isNotBlank(request.getMaxMessages())) {
+            int maxMessages;
+            try {
+                maxMessages = Integer.parseInt(request.getMaxMessages());
+            } catch (Exception e) {
+                throw new Exception(String.format("HEADER[%s] must be int.", HEADER_MAX_MESSAGES));
+            }
+            if (maxMessages <= 0) {
+                throw new Exception(String.format("HEADER[%s] must be positive.", HEADER_MAX_MESSAGES));
+            }
+        }
+        if (StringUtils.isNotBlank(request.getMaxWaitMs())) {
+            long maxWaitMs;
+            try {
+                maxWaitMs = Long.parseLong(request.getMaxWaitMs());
+            } catch (Exception e) {
+                throw new Exception(String.format("HEADER[%s] must be long.", HEADER_MAX_WAIT_MS));
+            }
+            if (maxWaitMs < 0) {
+                throw new Exception(String.format("HEADER[%s] must not be negative.", HEADER_MAX_WAIT_MS));
+            }
+        }
+    }
+
+}
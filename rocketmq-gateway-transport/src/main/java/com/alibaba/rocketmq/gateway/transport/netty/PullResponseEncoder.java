@@ -0,0 +1,104 @@
+package com.alibaba.rocketmq.gateway.transport.netty;
+
+import com.alibaba.fastjson.JSON;
+import com.alibaba.rocketmq.gateway.transport.util.TransportUtils;
+import io.netty.channel.ChannelHandler.Sharable;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.MessageToMessageEncoder;
+import io.netty.handler.codec.http.*;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.rocketmq.gateway.common.protocol.MessageProduceResponse.ResponseStatus;
+import org.apache.rocketmq.gateway.common.protocol.MessagePullResponse;
+import org.apache.rocketmq.gateway.common.protocol.MessagePullResponse.PulledMessage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.apache.rocketmq.gateway.common.protocol.MessageEntity.*;
+import static org.apache.rocketmq.gateway.common.protocol.MessagePullEntity.HEADER_PULL_ID;
+
+
+@Sharable
+final class PullResponseEncoder extends MessageToMessageEncoder<MessagePullResponse> {
+
+    private static final Logger logger = LoggerFactory.getLogger(PullResponseEncoder.class);
+
+    @Override
+    protected void encode(ChannelHandlerContext ctx, MessagePullResponse msg, List<Object> out) throws Exception {
+        HttpVersion version = HttpVersion.HTTP_1_0;
+        if (HttpVersion.HTTP_1_1.text().equals(msg.getProtocolVersion())) {
+            version = HttpVersion.HTTP_1_1;
+        }
+
+        final String topic = StringUtils.isEmpty(msg.getTopic()) ? "" : msg.getTopic();
+        final String app = StringUtils.isEmpty(msg.getApp()) ? "" : msg.getApp();
+        final String requestId = StringUtils.isEmpty(msg.getRequestId()) ? "" : msg.getRequestId();
+        final String pullId = StringUtils.isEmpty(msg.getPullId()) ? "" : msg.getPullId();
+
+        try {
+            final byte[] content = body(msg).getBytes(StandardCharsets.UTF_8);
+
+            FullHttpResponse response = new DefaultFullHttpResponse(version, HttpResponseStatus.OK);
+            response.headers()
+                    .add(HEADER_TOPIC, topic)
+                    .add(HEADER_APP, app)
+                    .add(HEADER_REQ_ID, requestId)
+                    .add(HEADER_PULL_ID, pullId)
+                    .add(HttpHeaders.Names.CONTENT_TYPE, "application/json")
+                    .add(HttpHeaders.Names.CONTENT_LENGTH, content.length)
+                    .add(HttpHeaders.Names.CONNECTION, HttpHeaders.Values.KEEP_ALIVE);
+
+            response.content().writeBytes(content);
+
+            out.add(response);
+
+        } catch (Exception e) {
+            logger.error(String.format("encode pull response error, %s", msg), e);
+            TransportUtils.closeChannel(ctx.channel());
+        }
+
+    }
+
+    /**
+     * 应答消息体，流式消费的推送和确认帧使用相同的格式
+     */
+    static String body(MessagePullResponse msg) {
+        return JSON.toJSONString(new ResponseBody(msg.getStatus(), msg.getPullId(), msg.getMessages()));
+    }
+
+    // 应答消息体
+    private static class ResponseBody implements Serializable {
+
+        private ResponseStatus status;
+
+        private String pullId;
+
+        private List<PulledMessage> messages;
+
+        public ResponseBody() {
+            // nothing to do.
+        }
+
+        public ResponseBody(ResponseStatus status, String pullId, List<PulledMessage> messages) {
+            this.status = status;
+            this.pullId = pullId;
+            this.messages = messages;
+        }
+
+        public ResponseStatus getStatus() {
+            return status;
+        }
+
+        public String getPullId() {
+            return pullId;
+        }
+
+        public List<PulledMessage> getMessages() {
+            return messages;
+        }
+    }
+
+}
@@ -10,6 +10,7 @@ import io.netty.handler.codec.http.HttpHeaders;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.rocketmq.gateway.common.protocol.MessageProduceRequest;
 import org.apache.rocketmq.gateway.common.protocol.MessageProduceRequest.MessageContent;
+import org.apache.rocketmq.gateway.common.utils.Charsets;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -60,6 +61,10 @@ final class RequestDecoder extends MessageToMessageDecoder<FullHttpRequest> {
             request.setOneWay(true);
         }
 
+        if (headers.contains(HEADER_BATCH)) {
+            request.setBatch(true);
+        }
+
         final String delayTimeLevel = headers.get(HEADER_DELAY_TIME_LEVEL);
         if (StringUtils.isNotBlank(delayTimeLevel)) {
             request.setDelayTimeLevel(delayTimeLevel);
@@ -76,9 +81,24 @@ final class RequestDecoder extends MessageToMessageDecoder<FullHttpRequest> {
 
         try {
             ByteBuf buffer = msg.content();
-            String content = buffer != null ? buffer.toString(Charset.forName(request.getMessageCharset())) : null;
-            if (StringUtils.isNotBlank(content)) {
-                request.setContent(JSON.parseObject(content.trim(), MessageContent.class));
+            if (buffer != null && buffer.isReadable()) {
+                Charset messageCharset = Charsets.forName(request.getMessageCharset());
+                if (MessageContentDecoder.supports(messageCharset)) {
+                    if (request.isBatch()) {
+                        request.setContents(MessageContentDecoder.decodeList(buffer, messageCharset));
+                    } else {
+                        request.setContent(MessageContentDecoder.decode(buffer, messageCharset));
+                    }
+                } else {
+                    String content = buffer.toString(messageCharset);
+                    if (StringUtils.isNotBlank(content)) {
+                        if (request.isBatch()) {
+                            request.setContents(JSON.parseArray(content.trim(), MessageContent.class));
+                        } else {
+                            request.setContent(JSON.parseObject(content.trim(), MessageContent.class));
+                        }
+                    }
+                }
             }
 
         } catch (Exception e) {
@@ -13,8 +13,10 @@ import org.apache.rocketmq.gateway.common.protocol.MessageProduceResponse.Respon
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.List;
+
 import static org.apache.rocketmq.gateway.common.protocol.MessageEntity.*;
-import static org.apache.rocketmq.gateway.common.protocol.MessageProduceEntity.HEADER_DELAY_TIME_LEVEL;
+import static org.apache.rocketmq.gateway.common.protocol.MessageProduceEntity.*;
 
 
 @Sharable
@@ -57,16 +59,20 @@ final class RequestValidator extends ChannelInboundHandlerAdapter {
                 }
             }
 
-            if (content == null) {
-                throw new Exception("HTTP body required, maybe you not set or its json format invalid and or charset error.");
-            }
-            if (StringUtils.isBlank(content.getBody())) {
-                throw new Exception("message content required.");
+            if (request.isBatch()) {
+                validateBatch(request);
+            } else {
+                if (content == null) {
+                    throw new Exception("HTTP body required, maybe you not set or its json format invalid and or charset error.");
+                }
+                if (!content.hasBody()) {
+                    throw new Exception("message content required.");
+                }
             }
 
         } catch (Exception e) {
-            status.setMessage(e.getMessage());
-            ctx.writeAndFlush(new MessageProduceResponse(request, status));
+            // 状态常量是共享的,每次拒绝构造新的状态对象
+            ctx.writeAndFlush(new MessageProduceResponse(request, new ResponseStatus(status.getCode(), e.getMessage())));
 
             return;
         }
@@ -75,4 +81,30 @@ final class RequestValidator extends ChannelInboundHandlerAdapter {
 
     }
 
+    /**
+     * 校验批量请求，RocketMQ批量消息不支持延时消息，单向发送和顺序发送也不适用于批量
+     */
+    private void validateBatch(MessageProduceRequest request) throws Exception {
+        if (StringUtils.isNotBlank(request.getDelayTimeLevel())) {
+            throw new Exception(String.format("HEADER[%s] not supported in batch mode.", HEADER_DELAY_TIME_LEVEL));
+        }
+        if (request.isOneWay()) {
+            throw new Exception(String.format("HEADER[%s] not supported in batch mode.", HEADER_ONE_WAY));
+        }
+        if (StringUtils.isNotBlank(request.getOrderlyShardingKey())) {
+            throw new Exception(String.format("HEADER[%s] not supported in batch mode.", HEADER_ORDERLY_SHARDING_KEY));
+        }
+
+        List<MessageContent> contents = request.getContents();
+        if (contents == null || contents.isEmpty()) {
+            throw new Exception("HTTP body required, maybe you not set or its json array format invalid and or charset error.");
+        }
+        for (int i = 0; i < contents.size(); i++) {
+            MessageContent content = contents.get(i);
+            if (content == null || !content.hasBody()) {
+                throw new Exception(String.format("message[%d] content required.", i));
+            }
+        }
+    }
+
 }
@@ -8,7 +8,9 @@ import io.netty.handler.codec.MessageToMessageEncoder;
 import io.netty.handler.codec.http.*;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.rocketmq.gateway.common.protocol.MessageProduceResponse;
+import org.apache.rocketmq.gateway.common.protocol.MessageProduceResponse.MessageResult;
 import org.apache.rocketmq.gateway.common.protocol.MessageProduceResponse.ResponseStatus;
+import org.apache.rocketmq.gateway.common.utils.Charsets;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -35,7 +37,8 @@ final class ResponseEncoder extends MessageToMessageEncoder<MessageProduceRespon
         final String requestId = StringUtils.isEmpty(msg.getRequestId()) ? "" : msg.getRequestId();
 
         try {
-            final String content = JSON.toJSONString(new ResponseBody(msg.getStatus(), msg.getMsgId()));
+            final byte[] content = JSON.toJSONString(new ResponseBody(msg.getStatus(), msg.getMsgId(), msg.getResults()))
+                    .getBytes(Charsets.forName(msg.getMessageCharset()));
 
             FullHttpResponse response = new DefaultFullHttpResponse(version, HttpResponseStatus.OK);
             response.headers()
@@ -43,10 +46,10 @@ final class ResponseEncoder extends MessageToMessageEncoder<MessageProduceRespon
                     .add(HEADER_APP, app)
                     .add(HEADER_REQ_ID, requestId)
                     .add(HttpHeaders.Names.CONTENT_TYPE, "application/json")
-                    .add(HttpHeaders.Names.CONTENT_LENGTH, content.length())
+                    .add(HttpHeaders.Names.CONTENT_LENGTH, content.length)
                     .add(HttpHeaders.Names.CONNECTION, HttpHeaders.Values.KEEP_ALIVE);
 
-            response.content().writeBytes(content.getBytes(msg.getMessageCharset()));
+            response.content().writeBytes(content);
 
             out.add(response);
 
@@ -64,13 +67,16 @@ final class ResponseEncoder extends MessageToMessageEncoder<MessageProduceRespon
 
         private String msgId;
 
+        private List<MessageResult> results;
+
         public ResponseBody() {
             // nothing to do.
         }
 
-        public ResponseBody(ResponseStatus status, String msgId) {
+        public ResponseBody(ResponseStatus status, String msgId, List<MessageResult> results) {
             this.status = status;
             this.msgId = msgId;
+            this.results = results;
         }
 
         public ResponseStatus getStatus() {
@@ -80,6 +86,10 @@ final class ResponseEncoder extends MessageToMessageEncoder<MessageProduceRespon
         public String getMsgId() {
             return msgId;
         }
+
+        public List<MessageResult> getResults() {
+            return results;
+        }
     }
 
 }
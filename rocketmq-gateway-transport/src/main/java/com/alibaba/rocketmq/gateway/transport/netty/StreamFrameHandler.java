@@ -0,0 +1,203 @@
+package com.alibaba.rocketmq.gateway.transport.netty;
+
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.JSONObject;
+import com.alibaba.rocketmq.gateway.transport.PullRequestProcessor;
+import com.alibaba.rocketmq.gateway.transport.PullResponseCallback;
+import com.alibaba.rocketmq.gateway.transport.util.TransportUtils;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.websocketx.*;
+import io.netty.handler.timeout.IdleState;
+import io.netty.handler.timeout.IdleStateEvent;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.rocketmq.gateway.common.protocol.MessageProduceResponse.ResponseStatus;
+import org.apache.rocketmq.gateway.common.protocol.MessagePullRequest;
+import org.apache.rocketmq.gateway.common.protocol.MessagePullResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * 流式消费连接，连接可写时推送消息帧，客户端发送文本帧{"pullId":"..."}确认消费，每个连接一个实例
+ */
+final class StreamFrameHandler extends SimpleChannelInboundHandler<WebSocketFrame> {
+
+    private static final Logger logger = LoggerFactory.getLogger(StreamFrameHandler.class);
+
+    // 订阅不存在或消费者停止时的关闭码(Policy Violation)
+    private static final int CLOSE_STATUS_POLICY_VIOLATION = 1008;
+
+    // 长时间收不到客户端的帧时的关闭码(Going Away)
+    private static final int CLOSE_STATUS_GOING_AWAY = 1001;
+
+    private final WebSocketServerHandshaker handshaker;
+    // 握手请求,确认消费时使用相同的应用、主题和请求标识
+    private final MessagePullRequest request;
+
+    private final PullRequestProcessor processor;
+
+    private ChannelHandlerContext ctx;
+
+    // 推送消息,推送失败时关闭连接
+    private final PullResponseCallback streamCallback = new PullResponseCallback() {
+        @Override
+        public void onResponse(MessagePullResponse response) {
+            write(response, true);
+        }
+    };
+
+    // 确认消费的应答
+    private final PullResponseCallback commitCallback = new PullResponseCallback() {
+        @Override
+        public void onResponse(MessagePullResponse response) {
+            write(response, false);
+        }
+    };
+
+    StreamFrameHandler(final WebSocketServerHandshaker handshaker, final MessagePullRequest request,
+                       final PullRequestProcessor processor) {
+        this.handshaker = handshaker;
+        this.request = request;
+        this.processor = processor;
+    }
+
+    @Override
+    public void handlerAdded(ChannelHandlerContext ctx) throws Exception {
+        this.ctx = ctx;
+    }
+
+    /**
+     * 握手成功后开始推送
+     */
+    void open() {
+        stream();
+    }
+
+    @Override
+    protected void channelRead0(ChannelHandlerContext ctx, WebSocketFrame frame) throws Exception {
+        if (frame instanceof CloseWebSocketFrame) {
+            handshaker.close(ctx.channel(), (CloseWebSocketFrame) frame.retain());
+            return;
+        }
+        if (frame instanceof PingWebSocketFrame) {
+            ctx.writeAndFlush(new PongWebSocketFrame(frame.content().retain()));
+            return;
+        }
+        if (frame instanceof PongWebSocketFrame) {
+            return;
+        }
+
+        String pullId = null;
+        if (frame instanceof TextWebSocketFrame) {
+            try {
+                JSONObject ack = JSON.parseObject(((TextWebSocketFrame) frame).text());
+                pullId = ack == null ? null : ack.getString("pullId");
+            } catch (Exception ignored) {
+            }
+        }
+        MessagePullRequest commit = commitOf(pullId);
+        if (StringUtils.isBlank(pullId)) {
+            write(new MessagePullResponse(commit, new ResponseStatus(ResponseStatus.BAD_REQUEST.getCode(),
+                    "text frame {\"pullId\":\"...\"} required.")), false);
+            return;
+        }
+
+        try {
+            processor.processPull(ctx, commit, commitCallback);
+        } catch (Exception e) {
+            logger.error(String.format("process stream commit error, %s", commit), e);
+            write(new MessagePullResponse(commit, new ResponseStatus(ResponseStatus.EXCEPTION.getCode(), e.getMessage())), false);
+        }
+    }
+
+    @Override
+    public void channelWritabilityChanged(ChannelHandlerContext ctx) throws Exception {
+        if (ctx.channel().isWritable()) {
+            // 写缓冲已低于低水位,继续推送
+            stream();
+        }
+        super.channelWritabilityChanged(ctx);
+    }
+
+    @Override
+    public void userEventTriggered(ChannelHandlerContext ctx, Object evt) throws Exception {
+        if (evt instanceof IdleStateEvent) {
+            IdleState state = ((IdleStateEvent) evt).state();
+            if (state == IdleState.WRITER_IDLE) {
+                // 客户端回复Pong,连接不会读空闲
+                ctx.writeAndFlush(new PingWebSocketFrame());
+            } else if (state == IdleState.READER_IDLE) {
+                logger.warn("stream of app[{}] topic[{}] receives no frame, close it, remote {}.", request.getApp(),
+                        request.getTopic(), TransportUtils.parseChannelRemoteAddr(ctx.channel()));
+                handshaker.close(ctx.channel(), new CloseWebSocketFrame(CLOSE_STATUS_GOING_AWAY, "idle timeout"));
+            }
+            return;
+        }
+        super.userEventTriggered(ctx, evt);
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        logger.info("stream of app[{}] topic[{}] closed, remote {}.", request.getApp(), request.getTopic(),
+                TransportUtils.parseChannelRemoteAddr(ctx.channel()));
+        super.channelInactive(ctx);
+    }
+
+    @Override
+    public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) throws Exception {
+        logger.warn("stream of app[{}] topic[{}] error, remote {}.", request.getApp(), request.getTopic(),
+                TransportUtils.parseChannelRemoteAddr(ctx.channel()), cause);
+        TransportUtils.closeChannel(ctx.channel());
+    }
+
+    private void stream() {
+        try {
+            processor.processStream(ctx, request, streamCallback);
+        } catch (Exception e) {
+            logger.error(String.format("process stream error, %s", request), e);
+            write(new MessagePullResponse(request, new ResponseStatus(ResponseStatus.EXCEPTION.getCode(), e.getMessage())), true);
+        }
+    }
+
+    private MessagePullRequest commitOf(final String pullId) {
+        MessagePullRequest commit = new MessagePullRequest(request.getGatewayAddress());
+        commit.setApp(request.getApp());
+        commit.setTopic(request.getTopic());
+        commit.setRequestId(request.getRequestId());
+        commit.setProtocolVersion(request.getProtocolVersion());
+        commit.setMethod(HttpMethod.GET.name());
+        commit.setCommit(true);
+        commit.setPullId(pullId);
+        return commit;
+    }
+
+    /**
+     * 在channel所属的事件循环中写应答帧
+     *
+     * @param closeOnError 应答状态不是成功时是否关闭连接
+     */
+    private void write(final MessagePullResponse response, final boolean closeOnError) {
+        if (!ctx.executor().inEventLoop()) {
+            ctx.executor().execute(new Runnable() {
+                @Override
+                public void run() {
+                    write(response, closeOnError);
+                }
+            });
+            return;
+        }
+
+        if (!ctx.channel().isActive()) {
+            return;
+        }
+        ctx.writeAndFlush(new TextWebSocketFrame(PullResponseEncoder.body(response)));
+
+        if (closeOnError && response.getStatus().getCode() != ResponseStatus.OK.getCode()) {
+            handshaker.close(ctx.channel(), new CloseWebSocketFrame(CLOSE_STATUS_POLICY_VIOLATION,
+                    response.getStatus().getMessage()));
+        }
+    }
+
+}
@@ -0,0 +1,110 @@
+package com.alibaba.rocketmq.gateway.transport.netty;
+
+import com.alibaba.rocketmq.gateway.transport.PullRequestProcessor;
+import com.alibaba.rocketmq.gateway.transport.util.TransportUtils;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandler.Sharable;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.channel.WriteBufferWaterMark;
+import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.HttpHeaders;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.websocketx.WebSocketServerHandshaker;
+import io.netty.handler.codec.http.websocketx.WebSocketServerHandshakerFactory;
+import io.netty.handler.timeout.IdleStateHandler;
+import org.apache.rocketmq.gateway.common.GatewayConfig;
+import org.apache.rocketmq.gateway.common.protocol.MessageProduceResponse.ResponseStatus;
+import org.apache.rocketmq.gateway.common.protocol.MessagePullRequest;
+import org.apache.rocketmq.gateway.common.protocol.MessagePullResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 流式消费的WebSocket握手，请求头与拉取消息相同；握手成功后连接只传输WebSocket帧，由{@link StreamFrameHandler}处理
+ */
+@Sharable
+final class StreamHandshakeHandler extends SimpleChannelInboundHandler<FullHttpRequest> {
+
+    private static final Logger logger = LoggerFactory.getLogger(StreamHandshakeHandler.class);
+
+    // 流式消费的路径
+    static final String STREAM_PATH = "/stream";
+
+    private final GatewayConfig gatewayConfig;
+
+    private final PullRequestProcessor processor;
+
+    StreamHandshakeHandler(final GatewayConfig gatewayConfig, final PullRequestProcessor processor) {
+        this.gatewayConfig = gatewayConfig;
+        this.processor = processor;
+    }
+
+    @Override
+    public boolean acceptInboundMessage(Object msg) throws Exception {
+        return super.acceptInboundMessage(msg) && STREAM_PATH.equals(PullRequestDecoder.pathOf((FullHttpRequest) msg));
+    }
+
+    @Override
+    protected void channelRead0(final ChannelHandlerContext ctx, FullHttpRequest msg) throws Exception {
+        final MessagePullRequest request = PullRequestDecoder.decode(msg, gatewayConfig.getGatewayAddress());
+
+        ResponseStatus status = PullRequestValidator.validate(request);
+        if (status == null && (!HttpMethod.GET.equals(msg.getMethod())
+                || !HttpHeaders.Values.WEBSOCKET.equalsIgnoreCase(msg.headers().get(HttpHeaders.Names.UPGRADE)))) {
+            status = new ResponseStatus(ResponseStatus.BAD_REQUEST.getCode(), "websocket upgrade required.");
+        }
+        if (status != null) {
+            ctx.writeAndFlush(new MessagePullResponse(request, status));
+            return;
+        }
+
+        String location = "ws://" + msg.headers().get(HttpHeaders.Names.HOST) + STREAM_PATH;
+        WebSocketServerHandshaker handshaker = new WebSocketServerHandshakerFactory(location, null, false)
+                .newHandshaker(msg);
+        if (handshaker == null) {
+            WebSocketServerHandshakerFactory.sendUnsupportedVersionResponse(ctx.channel());
+            return;
+        }
+
+        // 握手应答写出前替换,之后收到的都是WebSocket帧
+        final StreamFrameHandler frameHandler = new StreamFrameHandler(handshaker, request, processor);
+        ctx.pipeline().replace(this, "streamFrameHandler", frameHandler);
+
+        ChannelFuture handshakeFuture;
+        try {
+            handshakeFuture = handshaker.handshake(ctx.channel(), msg);
+        } catch (Exception e) {
+            logger.warn("stream handshake with {} error.", TransportUtils.parseChannelRemoteAddr(ctx.channel()), e);
+            TransportUtils.closeChannel(ctx.channel());
+            return;
+        }
+        handshakeFuture.addListener(new ChannelFutureListener() {
+            @Override
+            public void operationComplete(ChannelFuture future) throws Exception {
+                if (!future.isSuccess()) {
+                    logger.warn("stream handshake with {} error.", TransportUtils.parseChannelRemoteAddr(future.channel()),
+                            future.cause());
+                    TransportUtils.closeChannel(future.channel());
+                    return;
+                }
+
+                future.channel().config().setWriteBufferWaterMark(new WriteBufferWaterMark(
+                        gatewayConfig.getConsumeStreamLowWaterMark(), gatewayConfig.getConsumeStreamHighWaterMark()));
+                // 没有消息时连接可能长时间空闲,不再按空闲关闭,改为写空闲时发送Ping,长时间收不到任何帧时关闭
+                int maxIdleSeconds = gatewayConfig.getChannelMaxIdleTimeSeconds();
+                int pingSeconds = maxIdleSeconds > 0 ? Math.max(1, maxIdleSeconds / 2) : 0;
+                future.channel().pipeline().replace(IdleStateHandler.class, "streamIdleHandler",
+                        new IdleStateHandler(maxIdleSeconds, pingSeconds, 0, TimeUnit.SECONDS));
+                frameHandler.open();
+
+                logger.info("stream of app[{}] topic[{}] opened, remote {}.", request.getApp(), request.getTopic(),
+                        TransportUtils.parseChannelRemoteAddr(future.channel()));
+            }
+        });
+    }
+
+}
@@ -0,0 +1,235 @@
+package com.alibaba.rocketmq.gateway.transport.netty;
+
+import com.alibaba.fastjson.JSON;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import org.apache.rocketmq.gateway.common.protocol.MessageProduceRequest.MessageContent;
+import org.junit.Test;
+
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * 与fastjson对照：合法的请求体解析结果一致，fastjson拒绝的请求体同样拒绝
+ */
+public class MessageContentDecoderTest {
+
+    private static final String[] VALID = {
+            "{\"tag\":\"t\",\"key\":\"k\",\"body\":\"hello\"}",
+            "  {\n\t\"body\" : \"hello\" , \"key\" : \"k\" }  \r\n",
+            "{}",
+            "{\"body\":null,\"tag\":null}",
+            "{\"tag\":123,\"key\":true,\"body\":\"x\"}",
+            // 转义
+            "{\"body\":\"a\\\"b\\\\c\\/d\\b\\f\\n\\r\\t\"}",
+            "{\"body\":\"\\u4e2d\\u6587\\uD83D\\uDE00\",\"tag\":\"\\u0074\"}",
+            "{\"key\":\"k\\\"1\",\"body\":\"x\"}",
+            // 多字节字符
+            "{\"tag\":\"标签\",\"key\":\"键\",\"body\":\"中文消息体😀\"}",
+            // 嵌套的消息体
+            "{\"body\":{\"a\":1,\"b\":[true,false,null,-1.5e3,0,\"}]\\\"{\"],\"c\":{}}}",
+            "{\"body\":[1,{\"a\":[]},\"x\",[[[]]]]}",
+            "{\"body\":12.5}",
+            "{\"body\":-0}",
+            "{\"body\":true}",
+            // 未知字段的值同样跳过
+            "{\"extra\":{\"x\":[1,2,{\"y\":\"}\"}]},\"other\":[\"]\"],\"body\":\"b\",\"n\":1E+2}",
+    };
+
+    /**
+     * fastjson也拒绝的请求体
+     */
+    private static final String[] MALFORMED = {
+            "{\"body\":\"a\"",
+            "{\"body\":\"a}",
+            "{\"body\" \"a\"}",
+            "{\"tag\":\"t\" \"body\":\"a\"}",
+            "{\"body\":{\"a\":1}",
+            "{\"body\":{\"a\":}}",
+            "{\"body\":{\"a\" 1}}",
+            "{\"body\":[1,2}",
+            "{\"body\":tru}",
+            "{\"body\":nul}",
+            "{\"body\":1e}",
+            "{\"body\":\"\\x\"}",
+            "{\"body\":\"\\u12\"}",
+            "{\"body\":{\"a\":\"\\q\"}}",
+            "{\"body\":[{\"a\":[1,{\"b\":}]}]}",
+            "{\"body\":{\"a\":1}}}",
+            "{\"body\":\"a\"} x",
+            "{}{}",
+            "[",
+    };
+
+    /**
+     * fastjson宽松接受、这里按标准JSON拒绝的请求体
+     */
+    private static final String[] NON_STANDARD = {
+            "{\"body\":\"a\",}",
+            "{\"body\":[1,,2]}",
+            "{\"body\":{a:1}}",
+            "{\"body\":{'a':1}}",
+            "{\"body\":01}",
+            "{\"body\":1.}",
+            "{\"body\":-}",
+            "{\"body\":+1}",
+            "{body:\"a\"}",
+            "{'body':'a'}",
+            "{\"tag\":{}}",
+            "{\"body\":\"\\u+123\"}",
+    };
+
+    @Test
+    public void testValidSameAsFastjson() {
+        for (String json : VALID) {
+            assertSame(json, StandardCharsets.UTF_8);
+        }
+    }
+
+    @Test
+    public void testMalformedRejectedLikeFastjson() {
+        for (String json : MALFORMED) {
+            try {
+                JSON.parseObject(json, MessageContent.class);
+                fail("fastjson accepts " + json);
+            } catch (RuntimeException expected) {
+            }
+            assertRejected(json);
+        }
+    }
+
+    @Test
+    public void testNonStandardRejected() {
+        for (String json : NON_STANDARD) {
+            assertRejected(json);
+        }
+    }
+
+    @Test
+    public void testDeepNestingRejected() {
+        StringBuilder json = new StringBuilder("{\"body\":");
+        for (int i = 0; i < 10000; i++) {
+            json.append('[');
+        }
+        assertRejected(json.toString());
+    }
+
+    @Test
+    public void testBlank() {
+        assertNull(MessageContentDecoder.decode(buffer(" \r\n\t", StandardCharsets.UTF_8), StandardCharsets.UTF_8));
+        assertNull(MessageContentDecoder.decodeList(buffer("", StandardCharsets.UTF_8), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testBodyBytesNotCopiedThroughString() {
+        MessageContent content = MessageContentDecoder.decode(buffer("{\"body\":\"中文\"}", StandardCharsets.UTF_8),
+                StandardCharsets.UTF_8);
+        assertNull(content.getBody());
+        assertArrayEquals("中文".getBytes(StandardCharsets.UTF_8), content.getBodyBytes());
+    }
+
+    @Test
+    public void testListSameAsFastjson() {
+        StringBuilder json = new StringBuilder("[");
+        for (int i = 0; i < VALID.length; i++) {
+            json.append(i > 0 ? "," : "").append(VALID[i]);
+        }
+        json.append("] ");
+        List<MessageContent> expected = JSON.parseArray(json.toString().trim(), MessageContent.class);
+        List<MessageContent> actual = MessageContentDecoder.decodeList(buffer(json.toString(), StandardCharsets.UTF_8),
+                StandardCharsets.UTF_8);
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertContent(json.toString(), expected.get(i), actual.get(i), StandardCharsets.UTF_8);
+        }
+
+        assertEquals(0, MessageContentDecoder.decodeList(buffer("[ ]", StandardCharsets.UTF_8),
+                StandardCharsets.UTF_8).size());
+        assertRejectedList("[{\"body\":\"a\"},]");
+        assertRejectedList("[{\"body\":\"a\"} {\"body\":\"b\"}]");
+        assertRejectedList("[{\"body\":\"a\"}] x");
+        assertRejectedList("[\"a\"]");
+    }
+
+    @Test
+    public void testSingleByteCharsets() {
+        for (Charset charset : new Charset[]{StandardCharsets.ISO_8859_1, StandardCharsets.US_ASCII}) {
+            assertTrue(MessageContentDecoder.supports(charset));
+            assertSame("{\"tag\":\"t\",\"key\":\"k\\u00e9\",\"body\":\"caf\\u00e9 \\\"x\\\"\"}", charset);
+            assertSame("{\"body\":{\"a\":\"b\"},\"tag\":\"t\"}", charset);
+        }
+        // 0xE9在ISO-8859-1中为é,直接切出原始字节
+        String json = "{\"tag\":\"é\",\"body\":\"café\"}";
+        assertSame(json, StandardCharsets.ISO_8859_1);
+        MessageContent content = MessageContentDecoder.decode(buffer(json, StandardCharsets.ISO_8859_1),
+                StandardCharsets.ISO_8859_1);
+        assertArrayEquals("café".getBytes(StandardCharsets.ISO_8859_1), content.getBodyBytes());
+    }
+
+    @Test
+    public void testMultiByteCharsetsNotSupported() {
+        // 多字节字符可能包含与引号或反斜杠相同的字节,由调用方退回fastjson
+        assertFalse(MessageContentDecoder.supports(StandardCharsets.UTF_16));
+        assertFalse(MessageContentDecoder.supports(StandardCharsets.UTF_16LE));
+        assertFalse(MessageContentDecoder.supports(Charset.forName("GBK")));
+        assertFalse(MessageContentDecoder.supports(Charset.forName("Shift_JIS")));
+    }
+
+    private static void assertSame(String json, Charset charset) {
+        MessageContent expected = JSON.parseObject(new String(json.getBytes(charset), charset).trim(), MessageContent.class);
+        MessageContent actual = MessageContentDecoder.decode(buffer(json, charset), charset);
+        assertContent(json, expected, actual, charset);
+    }
+
+    private static void assertContent(String json, MessageContent expected, MessageContent actual, Charset charset) {
+        assertEquals(json, expected.getTag(), actual.getTag());
+        assertEquals(json, expected.getKey(), actual.getKey());
+
+        String body = actual.getBody() != null ? actual.getBody()
+                : actual.getBodyBytes() != null ? new String(actual.getBodyBytes(), charset) : null;
+        if (expected.getBody() == null) {
+            assertNull(json, body);
+            return;
+        }
+        if (body != null && (body.startsWith("{") || body.startsWith("["))) {
+            // 嵌套的消息体保留原始文本,fastjson重新序列化,按JSON值比较
+            assertEquals(json, JSON.parse(expected.getBody()), JSON.parse(body));
+        } else {
+            assertEquals(json, expected.getBody(), body);
+        }
+    }
+
+    private static void assertRejected(String json) {
+        try {
+            MessageContentDecoder.decode(buffer(json, StandardCharsets.UTF_8), StandardCharsets.UTF_8);
+            fail("accepts " + json);
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    private static void assertRejectedList(String json) {
+        try {
+            MessageContentDecoder.decodeList(buffer(json, StandardCharsets.UTF_8), StandardCharsets.UTF_8);
+            fail("accepts " + json);
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    private static ByteBuf buffer(String json, Charset charset) {
+        // 非零的读位置,确认只扫描可读区域
+        ByteBuf buffer = Unpooled.buffer();
+        buffer.writeBytes(new byte[]{'x', 'x'});
+        buffer.readerIndex(2);
+        buffer.writeBytes(json.getBytes(charset));
+        return buffer;
+    }
+
+}